@@ -0,0 +1,116 @@
+package com.razor.BitBucket.benchmark;
+
+import com.razor.BitBucket.BitBucketApplication;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The application context the service-level benchmarks run against, started once per JMH fork.
+ * Postgres comes from a throwaway container, or from {@code -Dbenchmark.db.url=jdbc:postgresql://...}
+ * (with {@code benchmark.db.user} / {@code benchmark.db.password}) when Docker isn't available.
+ * Files are stored in a temporary directory that is removed when the fork exits.
+ */
+final class BenchmarkEnvironment {
+
+    private static BenchmarkEnvironment instance;
+
+    private final ConfigurableApplicationContext context;
+
+    private BenchmarkEnvironment(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    static BenchmarkEnvironment get() {
+        return get(new String[0]);
+    }
+
+    /**
+     * @param properties extra application properties; only the first call in a fork starts the
+     *                   context, so JMH parameters that change them need a fork of their own
+     */
+    static synchronized BenchmarkEnvironment get(String... properties) {
+        if (instance == null) {
+            instance = start(properties);
+        }
+        return instance;
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    int port() {
+        return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+    }
+
+    User user(String email) {
+        UserRepository users = bean(UserRepository.class);
+        return users.findByEmail(email)
+                .orElseGet(() -> users.save(new User(email, "{noop}benchmark", Role.USER)));
+    }
+
+    private static BenchmarkEnvironment start(String... extraProperties) {
+        String url = System.getProperty("benchmark.db.url");
+        String username = System.getProperty("benchmark.db.user", "postgres");
+        String password = System.getProperty("benchmark.db.password", "postgres");
+        PostgreSQLContainer<?> postgres = null;
+        if (url == null) {
+            postgres = new PostgreSQLContainer<>("postgres:16");
+            postgres.start();
+            url = postgres.getJdbcUrl();
+            username = postgres.getUsername();
+            password = postgres.getPassword();
+        }
+
+        Path storage;
+        try {
+            storage = Files.createTempDirectory("bitbucket-bench");
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        List<String> properties = new ArrayList<>(List.of(
+                "spring.datasource.url=" + url,
+                "spring.datasource.username=" + username,
+                "spring.datasource.password=" + password,
+                "spring.jpa.show-sql=false",
+                "spring.cache.type=none",
+                "server.port=0",
+                "logging.level.root=WARN",
+                "file.upload-dir=" + storage,
+                "file.storage.backend=local",
+                "file.storage.local.min-free-space=0B"
+        ));
+        properties.addAll(List.of(extraProperties));
+        // As command-line arguments, not builder defaults, so they win over application.yaml
+        String[] args = properties.stream().map(property -> "--" + property).toArray(String[]::new);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(BitBucketApplication.class)
+                .run(args);
+
+        PostgreSQLContainer<?> container = postgres;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            context.close();
+            if (container != null) {
+                container.stop();
+            }
+            try {
+                FileSystemUtils.deleteRecursively(storage);
+            } catch (IOException ignored) {
+                // temp dir, the OS cleans up eventually
+            }
+        }, "benchmark-environment-shutdown"));
+        return new BenchmarkEnvironment(context);
+    }
+}
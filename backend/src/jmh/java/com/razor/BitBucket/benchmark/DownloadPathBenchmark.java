@@ -0,0 +1,130 @@
+package com.razor.BitBucket.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old download path (UrlResource stream copied through heap buffers) with
+ * FileChannel.transferTo into the socket, which is what Tomcat's sendfile does.
+ * Bytes go over loopback to a thread that discards them; the sender thread's CPU time
+ * (user + system) and the megabytes it sent are reported as the secondary results
+ * {@code senderCpuMs} and {@code megabytesSent}; CPU per GB is 1024 * senderCpuMs / megabytesSent.
+ * <p>
+ * This only measures the two primitives. It does not go through Tomcat or the zero-copy
+ * message converters; {@code SlowClientBenchmark} runs the real download endpoint in both
+ * {@code file.download.mode}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class DownloadPathBenchmark {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @Param({"1048576", "16777216", "134217728"})
+    public long fileSize;
+
+    private Path file;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel receiver;
+    private Thread drain;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("download-bench", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, fileSize - written));
+            }
+        }
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        receiver = server.accept();
+        drain = new Thread(() -> {
+            ByteBuffer sink = ByteBuffer.allocateDirect(256 * 1024);
+            try {
+                while (receiver.read(sink) >= 0) {
+                    sink.clear();
+                }
+            } catch (IOException ignored) {
+                // socket closed at tear down
+            }
+        }, "download-bench-drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        receiver.close();
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void streamCopy(SenderCpu cpu) throws IOException {
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        Resource resource = new UrlResource(file.toUri());
+        try (InputStream in = resource.getInputStream()) {
+            StreamUtils.copy(in, client.socket().getOutputStream());
+        }
+        cpu.record(cpuStart, fileSize);
+    }
+
+    @Benchmark
+    public void transferToSocket(SenderCpu cpu) throws IOException {
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < fileSize) {
+                position += channel.transferTo(position, fileSize - position, client);
+            }
+        }
+        cpu.record(cpuStart, fileSize);
+    }
+
+    // Totals rather than a ratio, since JMH adds event counts up across iterations and threads
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class SenderCpu {
+        public double senderCpuMs;
+        public double megabytesSent;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            senderCpuMs = 0;
+            megabytesSent = 0;
+        }
+
+        private void record(long cpuStart, long bytes) {
+            senderCpuMs += (THREADS.getCurrentThreadCpuTime() - cpuStart) / 1e6;
+            megabytesSent += bytes / (1024.0 * 1024);
+        }
+    }
+}
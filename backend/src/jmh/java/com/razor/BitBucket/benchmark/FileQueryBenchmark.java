@@ -0,0 +1,98 @@
+package com.razor.BitBucket.benchmark;
+
+import com.razor.BitBucket.dto.CursorPageDTO;
+import com.razor.BitBucket.dto.FileCursor;
+import com.razor.BitBucket.dto.FileDTO;
+import com.razor.BitBucket.dto.FileSortKey;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.service.FileStorageService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing and search latency for one user with a given number of files. Rows are bulk
+ * inserted straight into Postgres (about 1% are named {@code invoice_<n>.pdf}, the rest
+ * random hex) and reused across runs, so only the first run at a size pays for the seeding.
+ * "Deep" benchmarks fetch the last page of the listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class FileQueryBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private FileStorageService fileStorageService;
+    private User owner;
+    private int lastPage;
+    private String lastPageCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkEnvironment environment = BenchmarkEnvironment.get();
+        fileStorageService = environment.bean(FileStorageService.class);
+        owner = environment.user("query-bench-" + rows + "@example.com");
+
+        JdbcTemplate jdbc = environment.bean(JdbcTemplate.class);
+        Integer existing = jdbc.queryForObject(
+                "SELECT count(*) FROM file_metadata WHERE owner_id = ?", Integer.class, owner.getId());
+        if (existing == null || existing < rows) {
+            jdbc.update("DELETE FROM file_metadata WHERE owner_id = ?", owner.getId());
+            jdbc.update("INSERT INTO file_metadata " +
+                    "(id, file_name, stored_file_name, file_path, file_size, content_type, owner_id, uploaded_at) " +
+                    "SELECT nextval('file_metadata_seq'), CASE WHEN i % 100 = 0 THEN 'invoice_' || i || '.pdf' ELSE md5(i::text) || '.bin' END, " +
+                    "md5(i::text), '/dev/null', i * 37 % 10000000, 'application/octet-stream', ?, " +
+                    "now() - i * interval '1 second' FROM generate_series(1, ?) AS i", owner.getId(), rows);
+            jdbc.execute("ANALYZE file_metadata");
+        }
+
+        lastPage = (rows - 1) / PAGE_SIZE;
+        // The cursor a client would hold after paging through everything but the last page
+        Object[] seek = jdbc.queryForObject("SELECT uploaded_at, id FROM file_metadata WHERE owner_id = ? " +
+                        "AND folder_id IS NULL ORDER BY uploaded_at DESC, id DESC OFFSET ? LIMIT 1",
+                (rs, rowNum) -> new Object[]{rs.getTimestamp(1), rs.getLong(2)},
+                owner.getId(), lastPage * PAGE_SIZE - 1);
+        lastPageCursor = new FileCursor(FileSortKey.UPLOADED_AT, Sort.Direction.DESC,
+                ((Timestamp) seek[0]).toInstant(), (Long) seek[1]).encode();
+    }
+
+    @Benchmark
+    public Page<FileDTO> listFirstPage() {
+        return fileStorageService.listFiles(owner, null,
+                PageRequest.of(0, PAGE_SIZE, Sort.by(Sort.Direction.DESC, "uploadedAt")));
+    }
+
+    @Benchmark
+    public Page<FileDTO> listDeepPageByOffset() {
+        return fileStorageService.listFiles(owner, null,
+                PageRequest.of(lastPage, PAGE_SIZE, Sort.by(Sort.Direction.DESC, "uploadedAt")));
+    }
+
+    @Benchmark
+    public CursorPageDTO<FileDTO> listDeepPageByCursor() {
+        return fileStorageService.listFiles(owner, null, lastPageCursor,
+                FileSortKey.UPLOADED_AT, Sort.Direction.DESC, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Page<FileDTO> searchSubstring() {
+        return fileStorageService.searchFiles(owner, "voice_12", false, PageRequest.of(0, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public Page<FileDTO> searchPrefix() {
+        return fileStorageService.searchFiles(owner, "invoice_5", true, PageRequest.of(0, PAGE_SIZE));
+    }
+}
@@ -0,0 +1,78 @@
+package com.razor.BitBucket.benchmark;
+
+import com.razor.BitBucket.dto.FileDownloadDescriptor;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.service.FileStorageService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.Resource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link FileStorageService} upload and download: hashing, staging, blob
+ * bookkeeping and metadata in Postgres, and the read back through the storage backend.
+ * Every upload differs in its first bytes so deduplication never short-circuits the write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class FileTransferBenchmark {
+
+    @Param({"4096", "1048576", "16777216"})
+    public int fileSize;
+
+    private FileStorageService fileStorageService;
+    private User owner;
+    private byte[] content;
+    private long uploads;
+    private final List<Long> uploaded = new ArrayList<>();
+    private Long downloadId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkEnvironment environment = BenchmarkEnvironment.get();
+        fileStorageService = environment.bean(FileStorageService.class);
+        owner = environment.user("transfer-bench@example.com");
+
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        downloadId = upload();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        uploaded.forEach(id -> fileStorageService.deleteFile(id, owner));
+        uploaded.clear();
+    }
+
+    @Benchmark
+    public Long upload() {
+        ByteBuffer.wrap(content).putLong(0, uploads++);
+        Long id = fileStorageService.uploadFile(
+                new MockMultipartFile("file", "bench.bin", "application/octet-stream", content),
+                null, owner).getId();
+        uploaded.add(id);
+        return id;
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        FileDownloadDescriptor descriptor = fileStorageService.getDownloadDescriptor(downloadId, owner);
+        Resource resource = fileStorageService.downloadFile(descriptor);
+        try (InputStream in = resource.getInputStream()) {
+            return StreamUtils.copy(in, OutputStream.nullOutputStream());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.razor.BitBucket.benchmark;
+
+import com.razor.BitBucket.config.JwtAuthenticationFilter;
+import com.razor.BitBucket.util.JwtUtil;
+import jakarta.servlet.ServletException;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link JwtAuthenticationFilter} adds to every authenticated request: verifying the
+ * token and loading the principal. {@code anonymous} is the floor for a request without one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class JwtFilterBenchmark {
+
+    private JwtAuthenticationFilter filter;
+    private String authorization;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkEnvironment environment = BenchmarkEnvironment.get();
+        filter = environment.bean(JwtAuthenticationFilter.class);
+        authorization = "Bearer " + environment.bean(JwtUtil.class)
+                .generateToken(environment.user("jwt-bench@example.com"));
+    }
+
+    @Benchmark
+    public MockHttpServletResponse authenticated() throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files");
+        request.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+        return filter(request);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse anonymous() throws ServletException, IOException {
+        return filter(new MockHttpServletRequest("GET", "/api/files"));
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            filter.doFilter(request, response, new MockFilterChain());
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        return response;
+    }
+}
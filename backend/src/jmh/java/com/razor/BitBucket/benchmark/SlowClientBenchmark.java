@@ -0,0 +1,128 @@
+package com.razor.BitBucket.benchmark;
+
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.service.FileStorageService;
+import com.razor.BitBucket.util.JwtUtil;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent slow-client capacity. {@code slowClients} connections each start a download and
+ * then stop reading, so the server ends up blocked writing to every one of them; meanwhile the
+ * benchmark times an unrelated request. On platform threads each stalled download holds one of
+ * Tomcat's 200 threads, and once they are all taken the request waits until it gives up after
+ * {@link #PATIENCE} (reported as that long). On virtual threads a stalled download should only
+ * cost a parked virtual thread, but before Java 24 Tomcat's blocking write pins its carrier in
+ * {@code Object.wait()}, so past the scheduler's 256 carriers the request times out just the same.
+ * In {@code zero-copy} mode Tomcat finishes a sendfile from its poller without a request thread,
+ * unless rate limiting has to pace the download: the stalled clients share one user's bucket,
+ * and the downloads it cannot pay for in full are streamed.
+ * Each parameter set gets its own fork, since these settings are fixed at startup; pick a subset
+ * with {@code -p}. Client and server share the fork, so it needs twice {@code slowClients} file
+ * descriptors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SlowClientBenchmark {
+
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final Duration PATIENCE = Duration.ofSeconds(2);
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"50", "300"})
+    public int slowClients;
+
+    @Param({"stream", "zero-copy"})
+    public String downloadMode;
+
+    @Param({"false", "true"})
+    public boolean rateLimit;
+
+    private FileStorageService fileStorageService;
+    private User owner;
+    private Long fileId;
+    private final List<Socket> stalled = new ArrayList<>();
+    private HttpClient client;
+    private HttpRequest unrelated;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        if (virtualThreads && Runtime.version().feature() < 21) {
+            throw new IllegalStateException("Virtual threads need Java 21 (build with -Pjava21)");
+        }
+        BenchmarkEnvironment environment = BenchmarkEnvironment.get(
+                "spring.threads.virtual.enabled=" + virtualThreads,
+                "file.download.mode=" + downloadMode,
+                "rate-limit.enabled=" + rateLimit
+        );
+        fileStorageService = environment.bean(FileStorageService.class);
+        owner = environment.user("slow-client-bench@example.com");
+
+        byte[] content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        fileId = fileStorageService.uploadFile(
+                new MockMultipartFile("file", "large.bin", "application/octet-stream", content),
+                null, owner).getId();
+
+        String token = environment.bean(JwtUtil.class).generateToken(owner);
+        byte[] download = ("GET /api/files/" + fileId + "/download HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Authorization: Bearer " + token + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < slowClients; i++) {
+            Socket socket = new Socket();
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("localhost", environment.port()));
+            OutputStream out = socket.getOutputStream();
+            out.write(download);
+            out.flush();
+            stalled.add(socket);
+        }
+        // Gives the server time to fill the socket buffers and block on every download
+        Thread.sleep(2000);
+
+        client = HttpClient.newHttpClient();
+        unrelated = HttpRequest.newBuilder(URI.create("http://localhost:" + environment.port() + "/api/health"))
+                .timeout(PATIENCE)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Socket socket : stalled) {
+            socket.close();
+        }
+        stalled.clear();
+        fileStorageService.deleteFile(fileId, owner);
+    }
+
+    @Benchmark
+    public int unrelatedRequest() throws IOException, InterruptedException {
+        try {
+            return client.send(unrelated, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (HttpTimeoutException ex) {
+            return -1;
+        }
+    }
+}
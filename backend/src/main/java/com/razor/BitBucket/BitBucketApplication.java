@@ -4,10 +4,14 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableJpaRepositories(basePackages = "com.razor.BitBucket.repository")
 @EntityScan(basePackages = "com.razor.BitBucket.model")
+@EnableScheduling
+@EnableAsync
 public class BitBucketApplication {
     public static void main(String[] args) {
         SpringApplication.run(BitBucketApplication.class, args);
@@ -0,0 +1,21 @@
+package com.razor.BitBucket.cache;
+
+import java.util.List;
+
+public final class CacheNames {
+
+    // Keys are "<ownerId>:<folderId>", with "root" standing in for the top level
+
+    public static final String FOLDERS = "folders";
+    public static final String FOLDER_CHILDREN = "folderChildren";
+    public static final String FILE_LISTINGS = "fileListings";
+
+    public static final List<String> ALL = List.of(FOLDERS, FOLDER_CHILDREN, FILE_LISTINGS);
+
+    private CacheNames() {
+    }
+
+    public static String key(Long ownerId, Long folderId) {
+        return ownerId + ":" + (folderId != null ? folderId : "root");
+    }
+}
@@ -0,0 +1,195 @@
+package com.razor.BitBucket.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * An in-process Caffeine cache in front of an optional shared one (Redis). Reads fill the
+ * local tier from the shared tier; writes and evictions go to both, and evictions are
+ * broadcast so other nodes drop their local copy too.
+ * <p>
+ * Every eviction bumps a generation counter for its key's stripe before removing the value.
+ * A fill notes the generation before reading and takes its value back out if the generation
+ * moved by the time the value is in, so a read that raced an invalidation can't outlive it.
+ */
+public class TwoLevelCache implements Cache {
+
+    private static final int GENERATION_STRIPES = 64;
+
+    private final CaffeineCache local;
+    private final Cache shared;
+    private final BiConsumer<String, Object> invalidationPublisher;
+    private final SingleFlight loads = new SingleFlight();
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param shared                the second tier, or null for local only
+     * @param invalidationPublisher tells other nodes about an eviction (null key for a clear)
+     */
+    TwoLevelCache(CaffeineCache local, Cache shared, BiConsumer<String, Object> invalidationPublisher) {
+        this.local = local;
+        this.shared = shared;
+        this.invalidationPublisher = invalidationPublisher;
+    }
+
+    @Override
+    public String getName() {
+        return local.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        ValueWrapper value = local.get(key);
+        if (value != null) {
+            localHits.increment();
+            return value;
+        }
+        if (shared != null) {
+            long generation = generation(key);
+            value = shared.get(key);
+            if (value != null) {
+                sharedHits.increment();
+                local.put(key, value.get());
+                // An invalidation from another node may have landed between the two lines above
+                if (generation(key) != generation) {
+                    local.evict(key);
+                }
+                return value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper value = get(key);
+        if (value == null) {
+            return null;
+        }
+        if (type != null && !type.isInstance(value.get())) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]");
+        }
+        return (T) value.get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper cached = get(key);
+        if (cached != null) {
+            return (T) cached.get();
+        }
+        // Concurrent misses share one query
+        try {
+            return loads.load(key, () -> {
+                // Another caller may have finished loading while this one was checking the tiers
+                ValueWrapper loaded = local.get(key);
+                if (loaded != null) {
+                    return (T) loaded.get();
+                }
+                long generation = generation(key);
+                T value = valueLoader.call();
+                put(key, value);
+                // The caller still gets what it read, but the cache shouldn't keep it
+                if (generation(key) != generation) {
+                    if (shared != null) {
+                        shared.evict(key);
+                    }
+                    local.evict(key);
+                }
+                return value;
+            });
+        } catch (Exception ex) {
+            throw new ValueRetrievalException(key, valueLoader, ex);
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        if (shared != null) {
+            shared.put(key, value);
+        }
+        local.put(key, value);
+    }
+
+    @Override
+    public void evict(Object key) {
+        bump(key);
+        if (shared != null) {
+            shared.evict(key);
+        }
+        local.evict(key);
+        invalidationPublisher.accept(getName(), key);
+    }
+
+    @Override
+    public void clear() {
+        bumpAll();
+        if (shared != null) {
+            shared.clear();
+        }
+        local.clear();
+        invalidationPublisher.accept(getName(), null);
+    }
+
+    void evictLocal(Object key) {
+        if (key == null) {
+            bumpAll();
+            local.clear();
+        } else {
+            bump(key);
+            local.evict(key);
+        }
+    }
+
+    private long generation(Object key) {
+        return generations.get(stripe(key));
+    }
+
+    private void bump(Object key) {
+        generations.incrementAndGet(stripe(key));
+    }
+
+    private void bumpAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+    }
+
+    static int stripe(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    public long getSharedHits() {
+        return sharedHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getLocalSize() {
+        return local.getNativeCache().estimatedSize();
+    }
+}
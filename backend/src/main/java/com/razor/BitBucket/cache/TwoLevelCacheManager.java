@@ -0,0 +1,83 @@
+package com.razor.BitBucket.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds a {@link TwoLevelCache} per name. With a shared tier, evictions are published on
+ * {@link #INVALIDATION_CHANNEL} and this manager, registered as the channel's listener,
+ * drops the matching local entries; the local TTL covers any message that gets lost.
+ */
+public class TwoLevelCacheManager implements CacheManager, MessageListener {
+
+    public static final String INVALIDATION_CHANNEL = "bitbucket:cache-invalidation";
+
+    // Cache name and key; keys are always strings, and a clear has no key
+    private static final String SEPARATOR = "\n";
+
+    private final long localMaxEntries;
+    private final Duration localTtl;
+    private final CacheManager sharedCacheManager;
+    private final StringRedisTemplate redis;
+    private final ConcurrentMap<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * @param sharedCacheManager the second tier, or null to cache in process only
+     * @param redis              publishes invalidations; required with a shared tier
+     */
+    public TwoLevelCacheManager(long localMaxEntries, Duration localTtl,
+                                CacheManager sharedCacheManager, StringRedisTemplate redis) {
+        this.localMaxEntries = localMaxEntries;
+        this.localTtl = localTtl;
+        this.sharedCacheManager = sharedCacheManager;
+        this.redis = redis;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::create);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    public List<TwoLevelCache> getCaches() {
+        return List.copyOf(caches.values());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(SEPARATOR, 2);
+        TwoLevelCache cache = caches.get(parts[0]);
+        if (cache != null) {
+            cache.evictLocal(parts.length > 1 ? parts[1] : null);
+        }
+    }
+
+    private TwoLevelCache create(String name) {
+        CaffeineCache local = new CaffeineCache(name, Caffeine.newBuilder()
+                .maximumSize(localMaxEntries)
+                .expireAfterWrite(localTtl)
+                .build(), false);
+        if (sharedCacheManager == null) {
+            return new TwoLevelCache(local, null, (cacheName, key) -> { });
+        }
+        return new TwoLevelCache(local, sharedCacheManager.getCache(name), (cacheName, key) ->
+                redis.convertAndSend(INVALIDATION_CHANNEL, key == null ? cacheName : cacheName + SEPARATOR + key));
+    }
+}
@@ -0,0 +1,67 @@
+package com.razor.BitBucket.config;
+
+import com.razor.BitBucket.cache.TwoLevelCacheManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+
+/**
+ * spring.cache.type picks the tiers: {@code none} disables caching, {@code caffeine} caches in
+ * process only, {@code redis} adds Redis behind the in-process tier so replicas share entries.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    @Bean
+    public CacheManager cacheManager(
+            @Value("${spring.cache.type}") String type,
+            @Value("${spring.cache.local.max-entries}") long localMaxEntries,
+            @Value("${spring.cache.local.ttl}") Duration localTtl,
+            @Value("${spring.cache.redis.time-to-live}") Duration sharedTtl,
+            RedisConnectionFactory redisConnectionFactory,
+            StringRedisTemplate redisTemplate
+    ) {
+        switch (type.toLowerCase()) {
+            case "none":
+                return new NoOpCacheManager();
+            case "caffeine":
+                return new TwoLevelCacheManager(localMaxEntries, localTtl, null, null);
+            case "redis":
+                RedisCacheManager shared = RedisCacheManager.builder(redisConnectionFactory)
+                        .cacheDefaults(RedisCacheConfiguration.defaultCacheConfig()
+                                .entryTtl(sharedTtl)
+                                .prefixCacheNameWith("bitbucket:"))
+                        .build();
+                shared.afterPropertiesSet();
+                return new TwoLevelCacheManager(localMaxEntries, localTtl, shared, redisTemplate);
+            default:
+                throw new IllegalStateException("Unsupported spring.cache.type: " + type);
+        }
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "spring.cache.type", havingValue = "redis")
+    public RedisMessageListenerContainer cacheInvalidationListener(
+            RedisConnectionFactory redisConnectionFactory,
+            CacheManager cacheManager
+    ) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener((TwoLevelCacheManager) cacheManager,
+                new ChannelTopic(TwoLevelCacheManager.INVALIDATION_CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,40 @@
+package com.razor.BitBucket.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * File ids used to come from an identity column and now come from {@code file_metadata_seq},
+ * which lets Hibernate hand out ids without a round trip per row and batch the inserts.
+ * A freshly created sequence starts below the ids already in the table; this moves it past
+ * them once, before the web server starts taking uploads. Afterwards the sequence is always
+ * ahead of the table and this does nothing.
+ */
+@Component
+public class FileMetadataSequenceInitializer implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(FileMetadataSequenceInitializer.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Only taken so the schema update that creates the sequence has run first
+    public FileMetadataSequenceInitializer(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        // Pooled ids run up to the sequence value, so an id above it can only predate the sequence
+        Long moved = jdbcTemplate.query("SELECT setval('file_metadata_seq', m.max_id + 50) " +
+                        "FROM (SELECT MAX(id) AS max_id FROM file_metadata) m " +
+                        "WHERE m.max_id > (SELECT last_value FROM file_metadata_seq)",
+                rs -> rs.next() ? rs.getLong(1) : null);
+        if (moved != null) {
+            log.info("Moved file_metadata_seq past existing file ids to {}", moved);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.razor.BitBucket.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the trigram index behind file name search, which Hibernate's schema update cannot
+ * express. The index is keyed on owner first (via btree_gin) so a search only ever touches
+ * the caller's own postings, and on {@code lower(file_name)} so substring and prefix
+ * {@code LIKE} patterns are answered from the index instead of a scan.
+ */
+@Component
+public class FileSearchIndexInitializer implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSearchIndexInitializer.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileSearchIndexInitializer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS btree_gin");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_file_metadata_name_trgm ON file_metadata " +
+                    "USING gin (owner_id, lower(file_name) gin_trgm_ops)");
+        } catch (DataAccessException ex) {
+            // Search still answers correctly without it, just by scanning the owner's rows
+            log.warn("Could not create the file name search index: {}", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.razor.BitBucket.config;
+
+import com.razor.BitBucket.cache.CacheNames;
+import com.razor.BitBucket.cache.TwoLevelCache;
+import com.razor.BitBucket.cache.TwoLevelCacheManager;
+import com.razor.BitBucket.metrics.RequestMetricsFilter;
+import com.razor.BitBucket.metrics.StatementCounter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Application meters on top of what Actuator binds by itself (HTTP requests, JVM, Hikari,
+ * Tomcat, disk space). Everything is scraped from /actuator/prometheus on the management port.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public StatementCounter statementCounter() {
+        return new StatementCounter();
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer statementCounterCustomizer(StatementCounter statementCounter) {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, statementCounter);
+    }
+
+    @Bean
+    public FilterRegistrationBean<RequestMetricsFilter> requestMetricsFilter(
+            MeterRegistry registry,
+            StatementCounter statementCounter
+    ) {
+        FilterRegistrationBean<RequestMetricsFilter> registration =
+                new FilterRegistrationBean<>(new RequestMetricsFilter(registry, statementCounter));
+        registration.addUrlPatterns("/api/*");
+        // Outermost, so the byte count includes error responses written by later filters
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+
+    /**
+     * Hits per tier of the Spring caches. The caches are created here so they report from startup.
+     */
+    @Bean
+    public MeterBinder twoLevelCacheMetrics(CacheManager cacheManager) {
+        return registry -> {
+            if (!(cacheManager instanceof TwoLevelCacheManager)) {
+                return;
+            }
+            for (String name : CacheNames.ALL) {
+                TwoLevelCache cache = (TwoLevelCache) cacheManager.getCache(name);
+                registerGets(registry, cache, "hit", "local", TwoLevelCache::getLocalHits);
+                registerGets(registry, cache, "hit", "shared", TwoLevelCache::getSharedHits);
+                registerGets(registry, cache, "miss", "none", TwoLevelCache::getMisses);
+                Gauge.builder("bitbucket.cache.size", cache, TwoLevelCache::getLocalSize)
+                        .description("Entries in the in-process tier")
+                        .tag("cache", name)
+                        .register(registry);
+            }
+        };
+    }
+
+    private static void registerGets(MeterRegistry registry, TwoLevelCache cache, String result, String level,
+                                     ToDoubleFunction<TwoLevelCache> count) {
+        FunctionCounter.builder("bitbucket.cache.gets", cache, count)
+                .description("Cache lookups by the tier that answered them")
+                .tags("cache", cache.getName(), "result", result, "level", level)
+                .register(registry);
+    }
+}
@@ -0,0 +1,91 @@
+package com.razor.BitBucket.config;
+
+import com.razor.BitBucket.ratelimit.RateLimitClass;
+import com.razor.BitBucket.ratelimit.RateLimiter;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.ExpirationAfterWriteStrategy;
+import io.github.bucket4j.distributed.proxy.ProxyManager;
+import io.github.bucket4j.redis.lettuce.cas.LettuceBasedProxyManager;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisConnectionDetails;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+@Configuration
+@ConditionalOnProperty(name = "rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfig {
+
+    @Bean
+    public RateLimiter rateLimiter(
+            @Value("${rate-limit.read.capacity}") long readCapacity,
+            @Value("${rate-limit.read.per-second}") long readPerSecond,
+            @Value("${rate-limit.search.capacity}") long searchCapacity,
+            @Value("${rate-limit.search.per-second}") long searchPerSecond,
+            @Value("${rate-limit.upload.capacity}") DataSize uploadCapacity,
+            @Value("${rate-limit.upload.per-second}") DataSize uploadPerSecond,
+            @Value("${rate-limit.download.capacity}") DataSize downloadCapacity,
+            @Value("${rate-limit.download.per-second}") DataSize downloadPerSecond,
+            ObjectProvider<RedisClient> rateLimitRedisClient
+    ) {
+        Map<RateLimitClass, BucketConfiguration> limits = new EnumMap<>(RateLimitClass.class);
+        limits.put(RateLimitClass.READ, limit(readCapacity, readPerSecond));
+        limits.put(RateLimitClass.SEARCH, limit(searchCapacity, searchPerSecond));
+        limits.put(RateLimitClass.UPLOAD_BYTES, limit(uploadCapacity.toBytes(), uploadPerSecond.toBytes()));
+        limits.put(RateLimitClass.DOWNLOAD_BYTES, limit(downloadCapacity.toBytes(), downloadPerSecond.toBytes()));
+
+        RedisClient redis = rateLimitRedisClient.getIfAvailable();
+        ProxyManager<String> distributed = null;
+        if (redis != null) {
+            // Keys outlive a bucket's time to refill only briefly, so idle users cost Redis nothing
+            distributed = LettuceBasedProxyManager.builderFor(redis)
+                    .withExpirationStrategy(
+                            ExpirationAfterWriteStrategy.basedOnTimeForRefillingBucketUpToMax(Duration.ofSeconds(10)))
+                    .build()
+                    .withMapper((String key) -> ("rate-limit:" + key).getBytes(StandardCharsets.UTF_8));
+        }
+        return new RateLimiter(limits, distributed);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "rate-limit.store", havingValue = "redis")
+    public RedisClient rateLimitRedisClient(RedisConnectionDetails connection) {
+        if (connection.getStandalone() == null) {
+            throw new IllegalStateException("Distributed rate limiting needs a standalone Redis");
+        }
+        return RedisClient.create(redisUri(connection));
+    }
+
+    static RedisURI redisUri(RedisConnectionDetails connection) {
+        RedisURI.Builder uri = RedisURI.builder()
+                .withHost(connection.getStandalone().getHost())
+                .withPort(connection.getStandalone().getPort())
+                .withDatabase(connection.getStandalone().getDatabase());
+        String password = connection.getPassword();
+        if (password != null && !password.isEmpty()) {
+            // Only a password is the usual setup; it authenticates as the default user
+            if (connection.getUsername() != null && !connection.getUsername().isEmpty()) {
+                uri.withAuthentication(connection.getUsername(), password);
+            } else {
+                uri.withPassword(password.toCharArray());
+            }
+        }
+        return uri.build();
+    }
+
+    private static BucketConfiguration limit(long capacity, long perSecond) {
+        return BucketConfiguration.builder()
+                .addLimit(Bandwidth.builder().capacity(capacity).refillGreedy(perSecond, Duration.ofSeconds(1)).build())
+                .build();
+    }
+}
@@ -0,0 +1,100 @@
+package com.razor.BitBucket.config;
+
+import com.razor.BitBucket.storage.LocalShardedStorageBackend;
+import com.razor.BitBucket.storage.S3StorageBackend;
+import com.razor.BitBucket.storage.StorageBackend;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "file.storage.backend", havingValue = "local", matchIfMissing = true)
+    public StorageBackend localStorageBackend(
+            @Value("${file.storage.local.mounts}") String[] mounts,
+            @Value("${file.storage.local.min-free-space}") DataSize minFreeSpace,
+            @Value("${file.storage.local.fsync}") String fsync
+    ) {
+        List<Path> roots = Arrays.stream(mounts)
+                .map(String::trim)
+                .filter(mount -> !mount.isEmpty())
+                .map(Paths::get)
+                .toList();
+        LocalShardedStorageBackend.Fsync policy;
+        try {
+            policy = LocalShardedStorageBackend.Fsync.valueOf(fsync.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("Unsupported file.storage.local.fsync: " + fsync);
+        }
+        return new LocalShardedStorageBackend(roots, minFreeSpace, policy);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "file.storage.backend", havingValue = "s3")
+    public StorageBackend s3StorageBackend(
+            @Value("${file.storage.s3.bucket}") String bucket,
+            @Value("${file.storage.s3.region}") String region,
+            @Value("${file.storage.s3.endpoint:}") String endpoint,
+            @Value("${file.storage.s3.path-style-access}") boolean pathStyleAccess,
+            @Value("${file.storage.s3.access-key:}") String accessKey,
+            @Value("${file.storage.s3.secret-key:}") String secretKey,
+            @Value("${file.storage.s3.key-prefix}") String keyPrefix,
+            @Value("${file.storage.s3.part-size}") DataSize partSize,
+            @Value("${file.storage.s3.parts-in-flight}") int partsInFlight,
+            @Value("${file.storage.s3.upload-threads}") int uploadThreads,
+            @Value("${file.storage.s3.presigned-downloads}") boolean presignedDownloads,
+            @Value("${file.storage.s3.presign-ttl}") Duration presignTtl
+    ) {
+        // Static keys for MinIO and friends; otherwise the SDK's default chain (env, profile, IAM role)
+        AwsCredentialsProvider credentials = accessKey.isBlank()
+                ? DefaultCredentialsProvider.builder().build()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        S3Configuration serviceConfig = S3Configuration.builder()
+                .pathStyleAccessEnabled(pathStyleAccess)
+                .build();
+
+        S3ClientBuilder client = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(serviceConfig);
+        S3Presigner.Builder presigner = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(serviceConfig);
+        if (!endpoint.isBlank()) {
+            client.endpointOverride(URI.create(endpoint));
+            presigner.endpointOverride(URI.create(endpoint));
+        }
+
+        return new S3StorageBackend(
+                client.build(),
+                presignedDownloads ? presigner.build() : null,
+                bucket,
+                keyPrefix,
+                (int) partSize.toBytes(),
+                partsInFlight,
+                uploadThreads,
+                presignTtl
+        );
+    }
+}
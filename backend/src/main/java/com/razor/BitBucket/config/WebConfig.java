@@ -0,0 +1,28 @@
+package com.razor.BitBucket.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final String downloadMode;
+
+    public WebConfig(@Value("${file.download.mode}") String downloadMode) {
+        this.downloadMode = downloadMode;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        if (!"zero-copy".equalsIgnoreCase(downloadMode)) {
+            return;
+        }
+        // Registered ahead of Spring's defaults so file-backed Resource bodies never take the stream-copy path
+        converters.add(0, new ZeroCopyResourceHttpMessageConverter());
+        converters.add(1, new ZeroCopyResourceRegionHttpMessageConverter());
+    }
+}
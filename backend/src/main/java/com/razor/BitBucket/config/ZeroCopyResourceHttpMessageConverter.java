@@ -0,0 +1,25 @@
+package com.razor.BitBucket.config;
+
+import com.razor.BitBucket.util.ZeroCopyTransfer;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ZeroCopyResourceHttpMessageConverter extends ResourceHttpMessageConverter {
+
+    @Override
+    protected void writeContent(Resource resource, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        if (resource.isFile()) {
+            File file = resource.getFile();
+            if (ZeroCopyTransfer.trySendfile(file, 0, file.length())) {
+                return;
+            }
+        }
+        super.writeContent(resource, outputMessage);
+    }
+}
@@ -0,0 +1,39 @@
+package com.razor.BitBucket.config;
+
+import com.razor.BitBucket.util.ZeroCopyTransfer;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+
+import java.io.File;
+import java.io.IOException;
+
+// Single ranges go through sendfile; multipart/byteranges responses keep Spring's writer.
+public class ZeroCopyResourceRegionHttpMessageConverter extends ResourceRegionHttpMessageConverter {
+
+    @Override
+    protected void writeResourceRegion(ResourceRegion region, HttpOutputMessage outputMessage) throws IOException {
+        Resource resource = region.getResource();
+        if (!resource.isFile()) {
+            super.writeResourceRegion(region, outputMessage);
+            return;
+        }
+
+        File file = resource.getFile();
+        long resourceLength = file.length();
+        long start = region.getPosition();
+        long end = Math.min(start + region.getCount() - 1, resourceLength - 1);
+        long rangeLength = end - start + 1;
+
+        if (!ZeroCopyTransfer.trySendfile(file, start, rangeLength)) {
+            super.writeResourceRegion(region, outputMessage);
+            return;
+        }
+
+        HttpHeaders responseHeaders = outputMessage.getHeaders();
+        responseHeaders.add(HttpHeaders.CONTENT_RANGE, "bytes " + start + '-' + end + '/' + resourceLength);
+        responseHeaders.setContentLength(rangeLength);
+    }
+}
@@ -0,0 +1,52 @@
+package com.razor.BitBucket.controller;
+
+import com.razor.BitBucket.dto.CorruptBlobDTO;
+import com.razor.BitBucket.dto.DedupStatsDTO;
+import com.razor.BitBucket.dto.QuotaRequest;
+import com.razor.BitBucket.dto.StorageUsageDTO;
+import com.razor.BitBucket.service.BlobScrubService;
+import com.razor.BitBucket.service.FileStorageService;
+import com.razor.BitBucket.service.StorageUsageService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin")
+@PreAuthorize("hasRole('ADMIN')")
+public class AdminController {
+
+    private final FileStorageService fileStorageService;
+    private final StorageUsageService storageUsageService;
+    private final BlobScrubService blobScrubService;
+
+    public AdminController(FileStorageService fileStorageService, StorageUsageService storageUsageService,
+                           BlobScrubService blobScrubService) {
+        this.fileStorageService = fileStorageService;
+        this.storageUsageService = storageUsageService;
+        this.blobScrubService = blobScrubService;
+    }
+
+    @GetMapping("/storage/dedup")
+    public ResponseEntity<DedupStatsDTO> getDedupStats() {
+        return ResponseEntity.ok(fileStorageService.getDedupStats());
+    }
+
+    // Blobs the scrubber found damaged, oldest finding first
+    @GetMapping("/storage/corrupt")
+    public ResponseEntity<List<CorruptBlobDTO>> getCorruptBlobs() {
+        return ResponseEntity.ok(blobScrubService.getCorruptBlobs());
+    }
+
+    @PutMapping("/users/{id}/quota")
+    public ResponseEntity<StorageUsageDTO> setQuota(@PathVariable Long id, @RequestBody QuotaRequest request) {
+        return ResponseEntity.ok(storageUsageService.setQuota(id, request.getQuotaBytes()));
+    }
+}
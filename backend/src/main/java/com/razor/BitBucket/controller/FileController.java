@@ -1,33 +1,75 @@
 package com.razor.BitBucket.controller;
 
+import com.razor.BitBucket.dto.AuthenticatedUser;
+import com.razor.BitBucket.dto.BatchDeleteRequest;
+import com.razor.BitBucket.dto.BatchMoveRequest;
+import com.razor.BitBucket.dto.BatchResultDTO;
+import com.razor.BitBucket.dto.CursorPageDTO;
 import com.razor.BitBucket.dto.FileDTO;
+import com.razor.BitBucket.dto.FileDownloadDescriptor;
+import com.razor.BitBucket.dto.FileJobDTO;
+import com.razor.BitBucket.dto.FileSortKey;
 import com.razor.BitBucket.dto.FileUploadResponse;
+import com.razor.BitBucket.dto.StorageUsageDTO;
 import com.razor.BitBucket.model.User;
-import com.razor.BitBucket.repository.UserRepository;
+import com.razor.BitBucket.service.FileBatchService;
+import com.razor.BitBucket.service.FileJobService;
 import com.razor.BitBucket.service.FileStorageService;
+import com.razor.BitBucket.service.StorageUsageService;
+import com.razor.BitBucket.service.ThumbnailService;
+import com.razor.BitBucket.service.UserCache;
+import com.razor.BitBucket.storage.FramedGzip;
+import jakarta.validation.Valid;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
 @RestController
 @RequestMapping("/api/files")
 public class FileController {
 
+    private static final String DIGEST_HEADER = "Digest";
+
     private final FileStorageService fileStorageService;
-    private final UserRepository userRepository;
+    private final FileBatchService fileBatchService;
+    private final ThumbnailService thumbnailService;
+    private final StorageUsageService storageUsageService;
+    private final FileJobService fileJobService;
+    private final UserCache userCache;
 
-    public FileController(FileStorageService fileStorageService, UserRepository userRepository) {
+    public FileController(FileStorageService fileStorageService, FileBatchService fileBatchService,
+                          ThumbnailService thumbnailService, StorageUsageService storageUsageService,
+                          FileJobService fileJobService, UserCache userCache) {
         this.fileStorageService = fileStorageService;
-        this.userRepository = userRepository;
+        this.fileBatchService = fileBatchService;
+        this.thumbnailService = thumbnailService;
+        this.storageUsageService = storageUsageService;
+        this.fileJobService = fileJobService;
+        this.userCache = userCache;
     }
 
     @PostMapping("/upload")
@@ -41,20 +83,114 @@ public class FileController {
         return ResponseEntity.status(HttpStatus.CREATED).body(response);
     }
 
+    @PostMapping("/upload/batch")
+    public ResponseEntity<BatchResultDTO> uploadFiles(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "folderId", required = false) Long folderId,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        return ResponseEntity.ok(fileBatchService.uploadFiles(files, folderId, user));
+    }
+
     @GetMapping("/{id}/download")
     public ResponseEntity<Resource> downloadFile(
             @PathVariable Long id,
+            @RequestHeader HttpHeaders requestHeaders,
+            WebRequest webRequest,
+            Authentication authentication
+    ) throws IOException {
+        User user = getCurrentUser(authentication);
+        FileDownloadDescriptor file = fileStorageService.getDownloadDescriptor(id, user);
+        boolean compressed = fileStorageService.isCompressed(file);
+        // Files compressed at rest go out as stored to clients that can decode them. A Range
+        // addresses the decoded bytes, so those requests are answered decoded.
+        boolean sendEncoded = compressed && requestHeaders.getFirst(HttpHeaders.RANGE) == null
+                && acceptsEncoding(requestHeaders, FramedGzip.ENCODING);
+        String etag = sendEncoded ? encodedETag(file.getETag(), FramedGzip.ENCODING) : file.getETag();
+
+        // Answers If-None-Match / If-Modified-Since with a bare 304 before the blob is touched
+        if (webRequest.checkNotModified(etag, file.getUploadedAt().toEpochMilli())) {
+            return null;
+        }
+
+        // With presigned downloads enabled the client fetches the bytes from object storage itself
+        Optional<URI> directUrl = fileStorageService.getDownloadUrl(file);
+        if (directUrl.isPresent()) {
+            return ResponseEntity.status(HttpStatus.FOUND)
+                    .location(directUrl.get())
+                    .cacheControl(CacheControl.noStore())
+                    .build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(file.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName() + "\"")
+                // Ranges are only served over the decoded bytes, so an encoded response can't be resumed
+                .header(HttpHeaders.ACCEPT_RANGES, sendEncoded ? "none" : "bytes")
+                .eTag(etag)
+                .lastModified(file.getUploadedAt())
+                .cacheControl(CacheControl.noCache().cachePrivate());
+        if (compressed) {
+            response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        // RFC 3230 digest of the whole file, so clients can check what they assembled; a digest of
+        // the gzip bytes would need another pass over them, so encoded responses go without
+        if (!sendEncoded && file.getSha256() != null) {
+            response.header(DIGEST_HEADER, "sha-256=" + Base64.getEncoder().encodeToString(
+                    HexFormat.of().parseHex(file.getSha256())));
+        }
+        if (sendEncoded) {
+            // Spring advertises byte ranges for any other Resource body, which would undo the "none" above
+            Resource encoded = fileStorageService.downloadEncoded(file, FramedGzip.ENCODING).orElseThrow();
+            return response
+                    .header(HttpHeaders.CONTENT_ENCODING, FramedGzip.ENCODING)
+                    .contentLength(encoded.contentLength())
+                    .body(new InputStreamResource(encoded.getInputStream()));
+        }
+
+        Resource resource = fileStorageService.downloadFile(file);
+
+        // Spring answers Range (including multi-range) for any Resource body. When If-Range no longer
+        // matches, an InputStreamResource opts out of that so the client gets the full new representation.
+        if (requestHeaders.getFirst(HttpHeaders.RANGE) != null && !isIfRangeSatisfied(requestHeaders, file)) {
+            return response
+                    .contentLength(file.getFileSize())
+                    .body(new InputStreamResource(resource.getInputStream()));
+        }
+
+        return response.body(resource);
+    }
+
+    @GetMapping("/{id}/thumbnail")
+    public ResponseEntity<byte[]> getThumbnail(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "256") int size,
+            WebRequest webRequest,
             Authentication authentication
     ) {
         User user = getCurrentUser(authentication);
-        Resource resource = fileStorageService.downloadFile(id, user);
-        String filename = fileStorageService.getFileName(id, user);
-        String contentType = fileStorageService.getContentType(id, user);
+        FileDownloadDescriptor file = fileStorageService.getDownloadDescriptor(id, user);
+        int snapped = thumbnailService.snap(size);
+
+        // A thumbnail never changes for a given stored object, so browsers may keep it for good
+        String etag = "\"" + thumbnailService.name(file.getStorageKey(), snapped) + "\"";
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
 
         return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .body(resource);
+                .contentType(MediaType.IMAGE_JPEG)
+                .eTag(etag)
+                .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
+                .body(thumbnailService.getThumbnail(file, snapped));
+    }
+
+    // Post-upload processing of the file, e.g. whether its thumbnails are ready
+    @GetMapping("/{id}/jobs")
+    public ResponseEntity<List<FileJobDTO>> getJobs(@PathVariable Long id, Authentication authentication) {
+        User user = getCurrentUser(authentication);
+        return ResponseEntity.ok(fileJobService.getJobs(id, user));
     }
 
     @GetMapping
@@ -75,16 +211,57 @@ public class FileController {
         return ResponseEntity.ok(files);
     }
 
+    // Chosen over listFiles whenever a cursor parameter is present; pass an empty one for the first page
+    @GetMapping(params = "cursor")
+    public ResponseEntity<CursorPageDTO<FileDTO>> listFilesByCursor(
+            @RequestParam(value = "folderId", required = false) Long folderId,
+            @RequestParam("cursor") String cursor,
+            @RequestParam(value = "size", defaultValue = "20") int size,
+            @RequestParam(value = "sort", defaultValue = "uploadedAt,desc") String sort,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        String[] sortParams = sort.split(",");
+        Sort.Direction direction = sortParams.length > 1 && sortParams[1].equalsIgnoreCase("asc")
+                ? Sort.Direction.ASC : Sort.Direction.DESC;
+
+        CursorPageDTO<FileDTO> files = fileStorageService.listFiles(user, folderId, cursor,
+                FileSortKey.fromProperty(sortParams[0]), direction, size);
+        return ResponseEntity.ok(files);
+    }
+
+    @GetMapping("/usage")
+    public ResponseEntity<StorageUsageDTO> getUsage(Authentication authentication) {
+        User user = getCurrentUser(authentication);
+        return ResponseEntity.ok(storageUsageService.getUsage(user));
+    }
+
     @GetMapping("/search")
     public ResponseEntity<Page<FileDTO>> searchFiles(
             @RequestParam("q") String searchTerm,
+            @RequestParam(value = "prefix", defaultValue = "false") boolean prefix,
             @RequestParam(value = "page", defaultValue = "0") int page,
             @RequestParam(value = "size", defaultValue = "20") int size,
             Authentication authentication
     ) {
         User user = getCurrentUser(authentication);
-        Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "uploadedAt"));
-        Page<FileDTO> files = fileStorageService.searchFiles(user, searchTerm, pageable);
+        // Results come back in relevance order, so no sort is passed
+        Pageable pageable = PageRequest.of(page, size);
+        Page<FileDTO> files = fileStorageService.searchFiles(user, searchTerm, prefix, pageable);
+        return ResponseEntity.ok(files);
+    }
+
+    @GetMapping(value = "/search", params = "cursor")
+    public ResponseEntity<CursorPageDTO<FileDTO>> searchFilesByCursor(
+            @RequestParam("q") String searchTerm,
+            @RequestParam(value = "prefix", defaultValue = "false") boolean prefix,
+            @RequestParam("cursor") String cursor,
+            @RequestParam(value = "size", defaultValue = "20") int size,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        CursorPageDTO<FileDTO> files = fileStorageService.searchFiles(user, searchTerm, prefix, cursor,
+                FileSortKey.UPLOADED_AT, Sort.Direction.DESC, size);
         return ResponseEntity.ok(files);
     }
 
@@ -98,9 +275,73 @@ public class FileController {
         return ResponseEntity.noContent().build();
     }
 
+    @PostMapping("/batch/delete")
+    public ResponseEntity<BatchResultDTO> deleteFiles(
+            @Valid @RequestBody BatchDeleteRequest request,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        return ResponseEntity.ok(fileBatchService.deleteFiles(request.getIds(), user));
+    }
+
+    @PostMapping("/batch/move")
+    public ResponseEntity<BatchResultDTO> moveFiles(
+            @Valid @RequestBody BatchMoveRequest request,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        return ResponseEntity.ok(fileBatchService.moveFiles(request.getIds(), request.getFolderId(), user));
+    }
+
+    private boolean isIfRangeSatisfied(HttpHeaders requestHeaders, FileDownloadDescriptor file) {
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison, so weak tags never match
+            return ifRange.equals(file.getETag());
+        }
+        try {
+            Instant date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return date.getEpochSecond() == file.getUploadedAt().getEpochSecond();
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    private static boolean acceptsEncoding(HttpHeaders headers, String encoding) {
+        for (String value : headers.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String coding : value.split(",")) {
+                String[] parts = coding.split(";");
+                if (!parts[0].trim().equalsIgnoreCase(encoding)) {
+                    continue;
+                }
+                // q=0 means "not acceptable"
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(parameter.substring(2)) > 0;
+                        } catch (NumberFormatException ex) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The encoded bytes are a different representation, so they need a different strong validator
+    private static String encodedETag(String etag, String encoding) {
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
     private User getCurrentUser(Authentication authentication) {
-        String email = authentication.getName();
-        return userRepository.findByEmail(email)
+        AuthenticatedUser principal = (AuthenticatedUser) authentication.getPrincipal();
+        return userCache.get(principal.getId())
                 .orElseThrow(() -> new IllegalStateException("User not found"));
     }
 }
@@ -1,16 +1,27 @@
 package com.razor.BitBucket.controller;
 
+import com.razor.BitBucket.dto.AuthenticatedUser;
 import com.razor.BitBucket.dto.CreateFolderRequest;
 import com.razor.BitBucket.dto.FolderDTO;
+import com.razor.BitBucket.dto.FolderStatsDTO;
+import com.razor.BitBucket.dto.MoveFolderRequest;
 import com.razor.BitBucket.model.User;
-import com.razor.BitBucket.repository.UserRepository;
+import com.razor.BitBucket.service.FolderArchiveService;
+import com.razor.BitBucket.service.FolderArchiveService.FolderArchive;
 import com.razor.BitBucket.service.FolderService;
+import com.razor.BitBucket.service.UserCache;
 import jakarta.validation.Valid;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @RestController
@@ -18,11 +29,14 @@ import java.util.List;
 public class FolderController {
 
     private final FolderService folderService;
-    private final UserRepository userRepository;
+    private final FolderArchiveService folderArchiveService;
+    private final UserCache userCache;
 
-    public FolderController(FolderService folderService, UserRepository userRepository) {
+    public FolderController(FolderService folderService, FolderArchiveService folderArchiveService,
+                            UserCache userCache) {
         this.folderService = folderService;
-        this.userRepository = userRepository;
+        this.folderArchiveService = folderArchiveService;
+        this.userCache = userCache;
     }
 
     @PostMapping
@@ -55,6 +69,46 @@ public class FolderController {
         return ResponseEntity.ok(folder);
     }
 
+    @GetMapping("/{id}/stats")
+    public ResponseEntity<FolderStatsDTO> getFolderStats(
+            @PathVariable Long id,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        return ResponseEntity.ok(folderService.getFolderStats(id, user));
+    }
+
+    @GetMapping("/{id}/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(
+            @PathVariable Long id,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        FolderArchive archive = folderArchiveService.prepare(id, user);
+
+        // The length isn't known until the last entry is written, so the response is chunked
+        StreamingResponseBody body = out -> folderArchiveService.write(archive, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(archive.getName() + ".zip", StandardCharsets.UTF_8)
+                        .build()
+                        .toString())
+                .cacheControl(CacheControl.noStore())
+                .body(body);
+    }
+
+    @PostMapping("/{id}/move")
+    public ResponseEntity<FolderDTO> moveFolder(
+            @PathVariable Long id,
+            @RequestBody MoveFolderRequest request,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        FolderDTO folder = folderService.moveFolder(id, request, user);
+        return ResponseEntity.ok(folder);
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteFolder(
             @PathVariable Long id,
@@ -66,8 +120,8 @@ public class FolderController {
     }
 
     private User getCurrentUser(Authentication authentication) {
-        String email = authentication.getName();
-        return userRepository.findByEmail(email)
+        AuthenticatedUser principal = (AuthenticatedUser) authentication.getPrincipal();
+        return userCache.get(principal.getId())
                 .orElseThrow(() -> new IllegalStateException("User not found"));
     }
 }
@@ -0,0 +1,87 @@
+package com.razor.BitBucket.controller;
+
+import com.razor.BitBucket.dto.AuthenticatedUser;
+import com.razor.BitBucket.dto.FileUploadResponse;
+import com.razor.BitBucket.dto.InitUploadRequest;
+import com.razor.BitBucket.dto.UploadSessionDTO;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.service.ChunkedUploadService;
+import com.razor.BitBucket.service.UserCache;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadController {
+
+    private final ChunkedUploadService chunkedUploadService;
+    private final UserCache userCache;
+
+    public UploadController(ChunkedUploadService chunkedUploadService, UserCache userCache) {
+        this.chunkedUploadService = chunkedUploadService;
+        this.userCache = userCache;
+    }
+
+    @PostMapping
+    public ResponseEntity<UploadSessionDTO> initUpload(
+            @Valid @RequestBody InitUploadRequest request,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        UploadSessionDTO session = chunkedUploadService.initSession(request, user);
+        return ResponseEntity.status(HttpStatus.CREATED).body(session);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<UploadSessionDTO> getUpload(
+            @PathVariable String id,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        return ResponseEntity.ok(chunkedUploadService.getSession(id, user));
+    }
+
+    @PutMapping("/{id}")
+    public ResponseEntity<UploadSessionDTO> uploadChunk(
+            @PathVariable String id,
+            @RequestHeader(HttpHeaders.CONTENT_RANGE) String contentRange,
+            InputStream body,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        UploadSessionDTO session = chunkedUploadService.writeChunk(id, contentRange, body, user);
+        return ResponseEntity.ok(session);
+    }
+
+    @PostMapping("/{id}/commit")
+    public ResponseEntity<FileUploadResponse> commitUpload(
+            @PathVariable String id,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        FileUploadResponse response = chunkedUploadService.commit(id, user);
+        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> abortUpload(
+            @PathVariable String id,
+            Authentication authentication
+    ) {
+        User user = getCurrentUser(authentication);
+        chunkedUploadService.abort(id, user);
+        return ResponseEntity.noContent().build();
+    }
+
+    private User getCurrentUser(Authentication authentication) {
+        AuthenticatedUser principal = (AuthenticatedUser) authentication.getPrincipal();
+        return userCache.get(principal.getId())
+                .orElseThrow(() -> new IllegalStateException("User not found"));
+    }
+}
@@ -0,0 +1,46 @@
+package com.razor.BitBucket.dto;
+
+import com.razor.BitBucket.model.Role;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.security.Principal;
+import java.util.List;
+
+/**
+ * The principal of a JWT-authenticated request. Carries the user id so controllers can
+ * resolve the full user without looking it up by email.
+ */
+public class AuthenticatedUser implements Principal {
+    private final Long id;
+    private final String email;
+    private final Role role;
+
+    public AuthenticatedUser(Long id, String email, Role role) {
+        this.id = id;
+        this.email = email;
+        this.role = role;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public List<GrantedAuthority> getAuthorities() {
+        return List.of(new SimpleGrantedAuthority("ROLE_" + role.name()));
+    }
+
+    // Authentication.getName() keeps returning the email
+    @Override
+    public String getName() {
+        return email;
+    }
+}
@@ -0,0 +1,19 @@
+package com.razor.BitBucket.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public class BatchDeleteRequest {
+
+    @NotEmpty(message = "File ids are required")
+    private List<Long> ids;
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<Long> ids) {
+        this.ids = ids;
+    }
+}
@@ -0,0 +1,31 @@
+package com.razor.BitBucket.dto;
+
+public class BatchItemResultDTO {
+    private Long id;
+    private String fileName;
+    private boolean success;
+    private String error;
+
+    public BatchItemResultDTO(Long id, String fileName, boolean success, String error) {
+        this.id = id;
+        this.fileName = fileName;
+        this.success = success;
+        this.error = error;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,29 @@
+package com.razor.BitBucket.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public class BatchMoveRequest {
+
+    @NotEmpty(message = "File ids are required")
+    private List<Long> ids;
+
+    private Long folderId; // null moves the files to the root
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<Long> ids) {
+        this.ids = ids;
+    }
+
+    public Long getFolderId() {
+        return folderId;
+    }
+
+    public void setFolderId(Long folderId) {
+        this.folderId = folderId;
+    }
+}
@@ -0,0 +1,32 @@
+package com.razor.BitBucket.dto;
+
+import java.util.List;
+
+public class BatchResultDTO {
+    private int succeeded;
+    private int failed;
+    private List<BatchItemResultDTO> items; // in request order
+
+    public BatchResultDTO(List<BatchItemResultDTO> items) {
+        this.items = items;
+        for (BatchItemResultDTO item : items) {
+            if (item.isSuccess()) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+        }
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<BatchItemResultDTO> getItems() {
+        return items;
+    }
+}
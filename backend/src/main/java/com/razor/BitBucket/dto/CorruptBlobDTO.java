@@ -0,0 +1,45 @@
+package com.razor.BitBucket.dto;
+
+import java.time.Instant;
+
+public class CorruptBlobDTO {
+    private Long id;
+    private String hash;
+    private String storageKey;
+    private long size;
+    private long files; // file rows sharing the content
+    private Instant corruptSince;
+
+    public CorruptBlobDTO(Long id, String hash, String storageKey, long size, long files, Instant corruptSince) {
+        this.id = id;
+        this.hash = hash;
+        this.storageKey = storageKey;
+        this.size = size;
+        this.files = files;
+        this.corruptSince = corruptSince;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public Instant getCorruptSince() {
+        return corruptSince;
+    }
+}
@@ -0,0 +1,44 @@
+package com.razor.BitBucket.dto;
+
+public class DedupStatsDTO {
+    private long files;
+    private long logicalBytes;
+    private long blobs;
+    private long physicalBytes;
+    private long savedBytes;
+    private double dedupRatio;
+
+    public DedupStatsDTO(long files, long logicalBytes, long blobs, long physicalBytes,
+                         long savedBytes, double dedupRatio) {
+        this.files = files;
+        this.logicalBytes = logicalBytes;
+        this.blobs = blobs;
+        this.physicalBytes = physicalBytes;
+        this.savedBytes = savedBytes;
+        this.dedupRatio = dedupRatio;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getLogicalBytes() {
+        return logicalBytes;
+    }
+
+    public long getBlobs() {
+        return blobs;
+    }
+
+    public long getPhysicalBytes() {
+        return physicalBytes;
+    }
+
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    public double getDedupRatio() {
+        return dedupRatio;
+    }
+}
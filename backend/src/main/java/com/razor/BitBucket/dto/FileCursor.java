@@ -0,0 +1,68 @@
+package com.razor.BitBucket.dto;
+
+import com.razor.BitBucket.model.FileMetadata;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position after the last row of a keyset page: the sort it was taken under plus that row's
+ * sort value and id. Handed to clients as an opaque base64url token.
+ */
+public class FileCursor {
+    private final FileSortKey sortKey;
+    private final Sort.Direction direction;
+    private final Object value;
+    private final Long id;
+
+    public FileCursor(FileSortKey sortKey, Sort.Direction direction, Object value, Long id) {
+        // Sort columns are NOT NULL; a null here would encode as the text "null" and seek from there
+        if (value == null || id == null) {
+            throw new IllegalArgumentException("Cursor needs a sort value and an id");
+        }
+        this.sortKey = sortKey;
+        this.direction = direction;
+        this.value = value;
+        this.id = id;
+    }
+
+    public static FileCursor after(FileMetadata last, FileSortKey sortKey, Sort.Direction direction) {
+        return new FileCursor(sortKey, direction, sortKey.valueOf(last), last.getId());
+    }
+
+    public static FileCursor decode(String token) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            // The value goes last since file names may contain the separator
+            String[] parts = decoded.split(":", 4);
+            FileSortKey sortKey = FileSortKey.fromProperty(parts[0]);
+            return new FileCursor(sortKey, Sort.Direction.fromString(parts[1]),
+                    sortKey.parse(parts[3]), Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    public String encode() {
+        String raw = sortKey.getProperty() + ":" + direction.name() + ":" + id + ":" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public FileSortKey getSortKey() {
+        return sortKey;
+    }
+
+    public Sort.Direction getDirection() {
+        return direction;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
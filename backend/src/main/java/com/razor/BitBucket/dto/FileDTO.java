@@ -1,8 +1,9 @@
 package com.razor.BitBucket.dto;
 
+import java.io.Serializable;
 import java.time.Instant;
 
-public class FileDTO {
+public class FileDTO implements Serializable {
     private Long id;
     private String fileName;
     private Long fileSize;
@@ -0,0 +1,66 @@
+package com.razor.BitBucket.dto;
+
+import java.time.Instant;
+
+// Everything a download needs, resolved once per request and shareable across requests
+public class FileDownloadDescriptor {
+    private final Long id;
+    private final Long ownerId;
+    private final String fileName;
+    private final String contentType;
+    private final Long fileSize;
+    private final Instant uploadedAt;
+    private final String storageKey;
+    private final String eTag;
+    private final String sha256; // hex; null for files stored before blobs
+
+    public FileDownloadDescriptor(Long id, Long ownerId, String fileName, String contentType,
+                                  Long fileSize, Instant uploadedAt, String storageKey, String eTag,
+                                  String sha256) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.fileSize = fileSize;
+        this.uploadedAt = uploadedAt;
+        this.storageKey = storageKey;
+        this.eTag = eTag;
+        this.sha256 = sha256;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getOwnerId() {
+        return ownerId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public Instant getUploadedAt() {
+        return uploadedAt;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+}
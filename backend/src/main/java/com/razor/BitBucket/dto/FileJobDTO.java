@@ -0,0 +1,42 @@
+package com.razor.BitBucket.dto;
+
+import com.razor.BitBucket.model.JobStage;
+import com.razor.BitBucket.model.JobStatus;
+
+import java.time.Instant;
+
+public class FileJobDTO {
+    private JobStage stage;
+    private JobStatus status;
+    private int attempts;
+    private String lastError;
+    private Instant updatedAt;
+
+    public FileJobDTO(JobStage stage, JobStatus status, int attempts, String lastError, Instant updatedAt) {
+        this.stage = stage;
+        this.status = status;
+        this.attempts = attempts;
+        this.lastError = lastError;
+        this.updatedAt = updatedAt;
+    }
+
+    public JobStage getStage() {
+        return stage;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
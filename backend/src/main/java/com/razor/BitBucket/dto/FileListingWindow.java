@@ -0,0 +1,35 @@
+package com.razor.BitBucket.dto;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The newest files of a folder plus its total count, as cached for the first listing page.
+ * Any first page up to {@link #SIZE} files sorted by upload time is cut from it.
+ */
+public class FileListingWindow implements Serializable {
+    public static final int SIZE = 100;
+
+    private final List<FileDTO> files;
+    private final long totalFiles;
+
+    public FileListingWindow(List<FileDTO> files, long totalFiles) {
+        this.files = List.copyOf(files);
+        this.totalFiles = totalFiles;
+    }
+
+    public static boolean covers(Pageable pageable) {
+        return pageable.getPageNumber() == 0
+                && pageable.getPageSize() <= SIZE
+                && Sort.by(Sort.Direction.DESC, "uploadedAt").equals(pageable.getSort());
+    }
+
+    public Page<FileDTO> page(Pageable pageable) {
+        return new PageImpl<>(files.subList(0, Math.min(pageable.getPageSize(), files.size())), pageable, totalFiles);
+    }
+}
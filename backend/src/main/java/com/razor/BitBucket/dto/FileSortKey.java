@@ -0,0 +1,50 @@
+package com.razor.BitBucket.dto;
+
+import com.razor.BitBucket.model.FileMetadata;
+
+import java.time.Instant;
+
+/**
+ * Columns a file listing can be ordered and seeked on. Each is paired with the id as a
+ * tiebreaker and backed by a composite index on {@code file_metadata}.
+ */
+public enum FileSortKey {
+    UPLOADED_AT("uploadedAt"),
+    FILE_NAME("fileName"),
+    FILE_SIZE("fileSize");
+
+    private final String property;
+
+    FileSortKey(String property) {
+        this.property = property;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public static FileSortKey fromProperty(String property) {
+        for (FileSortKey key : values()) {
+            if (key.property.equals(property)) {
+                return key;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported sort key: " + property);
+    }
+
+    public Object valueOf(FileMetadata metadata) {
+        return switch (this) {
+            case UPLOADED_AT -> metadata.getUploadedAt();
+            case FILE_NAME -> metadata.getFileName();
+            case FILE_SIZE -> metadata.getFileSize();
+        };
+    }
+
+    Object parse(String value) {
+        return switch (this) {
+            case UPLOADED_AT -> Instant.parse(value);
+            case FILE_NAME -> value;
+            case FILE_SIZE -> Long.parseLong(value);
+        };
+    }
+}
@@ -1,8 +1,9 @@
 package com.razor.BitBucket.dto;
 
+import java.io.Serializable;
 import java.time.Instant;
 
-public class FolderDTO {
+public class FolderDTO implements Serializable {
     private Long id;
     private String name;
     private Long parentId;
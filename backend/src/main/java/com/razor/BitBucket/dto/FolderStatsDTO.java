@@ -0,0 +1,31 @@
+package com.razor.BitBucket.dto;
+
+public class FolderStatsDTO {
+    private Long folderId;
+    private long folders;
+    private long files;
+    private long totalBytes;
+
+    public FolderStatsDTO(Long folderId, long folders, long files, long totalBytes) {
+        this.folderId = folderId;
+        this.folders = folders;
+        this.files = files;
+        this.totalBytes = totalBytes;
+    }
+
+    public Long getFolderId() {
+        return folderId;
+    }
+
+    public long getFolders() {
+        return folders;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+}
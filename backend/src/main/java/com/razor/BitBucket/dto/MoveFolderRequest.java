@@ -0,0 +1,14 @@
+package com.razor.BitBucket.dto;
+
+public class MoveFolderRequest {
+
+    private Long parentId; // null moves the folder to the root
+
+    public Long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(Long parentId) {
+        this.parentId = parentId;
+    }
+}
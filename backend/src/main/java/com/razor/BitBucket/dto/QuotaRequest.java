@@ -0,0 +1,14 @@
+package com.razor.BitBucket.dto;
+
+public class QuotaRequest {
+
+    private Long quotaBytes; // null restores the configured default, 0 means unlimited
+
+    public Long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public void setQuotaBytes(Long quotaBytes) {
+        this.quotaBytes = quotaBytes;
+    }
+}
@@ -0,0 +1,25 @@
+package com.razor.BitBucket.dto;
+
+public class StorageUsageDTO {
+    private long files;
+    private long usedBytes;
+    private Long quotaBytes; // null when unlimited
+
+    public StorageUsageDTO(long files, long usedBytes, Long quotaBytes) {
+        this.files = files;
+        this.usedBytes = usedBytes;
+        this.quotaBytes = quotaBytes;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public Long getQuotaBytes() {
+        return quotaBytes;
+    }
+}
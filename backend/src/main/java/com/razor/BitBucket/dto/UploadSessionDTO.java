@@ -0,0 +1,53 @@
+package com.razor.BitBucket.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public class UploadSessionDTO {
+    private String id;
+    private String fileName;
+    private Long totalSize;
+    private Integer chunkSize;
+    private Long receivedBytes;
+    private List<Integer> missingChunks;
+    private Instant expiresAt;
+
+    public UploadSessionDTO(String id, String fileName, Long totalSize, Integer chunkSize,
+                            Long receivedBytes, List<Integer> missingChunks, Instant expiresAt) {
+        this.id = id;
+        this.fileName = fileName;
+        this.totalSize = totalSize;
+        this.chunkSize = chunkSize;
+        this.receivedBytes = receivedBytes;
+        this.missingChunks = missingChunks;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Long getTotalSize() {
+        return totalSize;
+    }
+
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public Long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public List<Integer> getMissingChunks() {
+        return missingChunks;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,75 @@
+package com.razor.BitBucket.metrics;
+
+import com.razor.BitBucket.util.ZeroCopyTransfer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Records what Spring's own request timer doesn't: body bytes in and out of the API and the
+ * number of SQL statements each endpoint runs. Bytes sent with sendfile never pass through
+ * the response stream, so they are taken from the range handed to the connector.
+ * <p>
+ * Registered for /api/* only, ahead of the security chain (see MetricsConfig).
+ */
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private final MeterRegistry registry;
+    private final StatementCounter statementCounter;
+    private final Counter bytesReceived;
+    private final Counter bytesSent;
+
+    public RequestMetricsFilter(MeterRegistry registry, StatementCounter statementCounter) {
+        this.registry = registry;
+        this.statementCounter = statementCounter;
+        this.bytesReceived = Counter.builder("bitbucket.transfer.received")
+                .description("Request body bytes received by the API")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        this.bytesSent = Counter.builder("bitbucket.transfer.sent")
+                .description("Response body bytes sent by the API")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        // Multipart bodies are read by the container, past any request wrapper, so the declared length is used
+        long length = request.getContentLengthLong();
+        if (length > 0) {
+            bytesReceived.increment(length);
+        }
+
+        statementCounter.start();
+        try {
+            filterChain.doFilter(request, new CountingResponse(response, bytesSent));
+        } finally {
+            int statements = statementCounter.stop();
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            DistributionSummary.builder("bitbucket.db.statements")
+                    .description("SQL statements run while handling a request")
+                    .tag("uri", pattern != null ? pattern.toString() : "UNKNOWN")
+                    .register(registry)
+                    .record(statements);
+
+            if (request.getAttribute(ZeroCopyTransfer.SENDFILE_FILENAME_ATTR) instanceof String
+                    && request.getAttribute(ZeroCopyTransfer.SENDFILE_START_ATTR) instanceof Long start
+                    && request.getAttribute(ZeroCopyTransfer.SENDFILE_END_ATTR) instanceof Long end) {
+                bytesSent.increment(end - start);
+            }
+        }
+    }
+}
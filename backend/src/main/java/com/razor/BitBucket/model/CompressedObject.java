@@ -0,0 +1,51 @@
+package com.razor.BitBucket.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Layout of an object stored compressed (see FramedGzip): what it takes up in storage and
+ * where each frame starts, so reads can begin in the middle.
+ */
+@Entity
+@Table(name = "compressed_objects")
+public class CompressedObject {
+
+    @Id
+    private String storageKey; // as recorded on the blob, including the encoding prefix
+
+    @Column(nullable = false)
+    private Long storedSize; // in bytes, as compressed
+
+    @Column(nullable = false)
+    private Integer frameSize; // decoded bytes per frame, every frame but the last is exactly this size
+
+    @Column(nullable = false)
+    private byte[] frameLengths; // compressed length of each frame, 4 bytes big-endian apiece
+
+    protected CompressedObject() {
+        // JPA only
+    }
+
+    public CompressedObject(String storageKey, Long storedSize, Integer frameSize, byte[] frameLengths) {
+        this.storageKey = storageKey;
+        this.storedSize = storedSize;
+        this.frameSize = frameSize;
+        this.frameLengths = frameLengths;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public Long getStoredSize() {
+        return storedSize;
+    }
+
+    public Integer getFrameSize() {
+        return frameSize;
+    }
+
+    public byte[] getFrameLengths() {
+        return frameLengths;
+    }
+}
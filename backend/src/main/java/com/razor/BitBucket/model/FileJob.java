@@ -0,0 +1,100 @@
+package com.razor.BitBucket.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Table(
+    name = "file_jobs",
+    indexes = {
+        // Workers claim the oldest due jobs
+        @Index(name = "idx_file_jobs_due", columnList = "status, run_after"),
+        @Index(name = "idx_file_jobs_file", columnList = "file_id")
+    }
+)
+public class FileJob {
+
+    // Allocated 50 at a time, so a batch upload inserts its jobs in one batch
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_jobs_seq")
+    @SequenceGenerator(name = "file_jobs_seq", sequenceName = "file_jobs_seq", allocationSize = 50)
+    private Long id;
+
+    // Not a foreign key: files are deleted in bulk without looking at their jobs
+    @Column(nullable = false)
+    private Long fileId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStage stage;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStatus status = JobStatus.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(nullable = false)
+    private Instant runAfter = Instant.now();
+
+    private Instant lockedUntil; // while RUNNING; a job whose lease ran out is claimed again
+
+    @Column(length = 1000)
+    private String lastError;
+
+    @Column(nullable = false, updatable = false)
+    private Instant createdAt = Instant.now();
+
+    @Column(nullable = false)
+    private Instant updatedAt = Instant.now();
+
+    protected FileJob() {
+        // JPA only
+    }
+
+    public FileJob(Long fileId, JobStage stage) {
+        this.fileId = fileId;
+        this.stage = stage;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getFileId() {
+        return fileId;
+    }
+
+    public JobStage getStage() {
+        return stage;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public Instant getRunAfter() {
+        return runAfter;
+    }
+
+    public Instant getLockedUntil() {
+        return lockedUntil;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -4,21 +4,32 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "file_metadata")
+@Table(
+    name = "file_metadata",
+    indexes = {
+        // Keyset pagination seeks on (sort key, id) within an owner's folder or across all their files
+        @Index(name = "idx_file_metadata_folder_uploaded", columnList = "owner_id, folder_id, uploaded_at, id"),
+        @Index(name = "idx_file_metadata_folder_name", columnList = "owner_id, folder_id, file_name, id"),
+        @Index(name = "idx_file_metadata_folder_size", columnList = "owner_id, folder_id, file_size, id"),
+        @Index(name = "idx_file_metadata_owner_uploaded", columnList = "owner_id, uploaded_at, id")
+    }
+)
 public class FileMetadata {
 
+    // Ids are allocated 50 at a time, so batch uploads insert without a round trip per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_metadata_seq")
+    @SequenceGenerator(name = "file_metadata_seq", sequenceName = "file_metadata_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
     private String fileName;
 
     @Column(nullable = false)
-    private String storedFileName; // UUID-based filename on disk
+    private String storedFileName; // Content hash, or UUID-based filename for files stored before blobs
 
     @Column(nullable = false)
-    private String filePath; // Full path on disk
+    private String filePath; // Storage key; an absolute path for files stored before storage backends
 
     @Column(nullable = false)
     private Long fileSize; // in bytes
@@ -26,6 +37,10 @@ public class FileMetadata {
     @Column(nullable = false)
     private String contentType;
 
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_id")
+    private StoredBlob blob; // Shared content, null for files stored before blobs
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "folder_id")
     private Folder folder;
@@ -42,12 +57,13 @@ public class FileMetadata {
     }
 
     public FileMetadata(String fileName, String storedFileName, String filePath, 
-                       Long fileSize, String contentType, Folder folder, User owner) {
+                       Long fileSize, String contentType, StoredBlob blob, Folder folder, User owner) {
         this.fileName = fileName;
         this.storedFileName = storedFileName;
         this.filePath = filePath;
         this.fileSize = fileSize;
         this.contentType = contentType;
+        this.blob = blob;
         this.folder = folder;
         this.owner = owner;
     }
@@ -80,6 +96,10 @@ public class FileMetadata {
         return contentType;
     }
 
+    public StoredBlob getBlob() {
+        return blob;
+    }
+
     public Folder getFolder() {
         return folder;
     }
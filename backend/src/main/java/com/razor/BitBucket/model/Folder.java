@@ -4,7 +4,13 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "folders")
+@Table(
+    name = "folders",
+    indexes = {
+        // Each step of a recursive subtree walk looks up the children of the previous level
+        @Index(name = "idx_folders_parent", columnList = "parent_id")
+    }
+)
 public class Folder {
 
     @Id
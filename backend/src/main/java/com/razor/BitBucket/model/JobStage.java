@@ -0,0 +1,8 @@
+package com.razor.BitBucket.model;
+
+/**
+ * Work done on a file after its upload has committed, one {@link FileJob} per stage that applies.
+ */
+public enum JobStage {
+    THUMBNAIL
+}
@@ -0,0 +1,8 @@
+package com.razor.BitBucket.model;
+
+public enum JobStatus {
+    PENDING,
+    RUNNING,
+    DONE,
+    FAILED // gave up after the last attempt
+}
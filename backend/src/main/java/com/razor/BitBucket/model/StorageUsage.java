@@ -0,0 +1,74 @@
+package com.razor.BitBucket.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * One of a user's usage counters. Each user has a few stripes that are updated at random, so
+ * concurrent uploads by the same user rarely wait on each other's row lock; the user's usage
+ * is the sum of their stripes.
+ */
+@Entity
+@Table(name = "storage_usage")
+@IdClass(StorageUsage.Key.class)
+public class StorageUsage {
+
+    @Id
+    private Long userId;
+
+    @Id
+    private Integer stripe;
+
+    @Column(nullable = false)
+    private Long files;
+
+    @Column(nullable = false)
+    private Long bytes;
+
+    protected StorageUsage() {
+        // JPA only
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Integer getStripe() {
+        return stripe;
+    }
+
+    public Long getFiles() {
+        return files;
+    }
+
+    public Long getBytes() {
+        return bytes;
+    }
+
+    public static class Key implements Serializable {
+        private Long userId;
+        private Integer stripe;
+
+        protected Key() {
+            // JPA only
+        }
+
+        public Key(Long userId, Integer stripe) {
+            this.userId = userId;
+            this.stripe = stripe;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other || (other instanceof Key that
+                    && Objects.equals(userId, that.userId) && Objects.equals(stripe, that.stripe));
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, stripe);
+        }
+    }
+}
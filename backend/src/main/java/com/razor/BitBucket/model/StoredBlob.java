@@ -0,0 +1,85 @@
+package com.razor.BitBucket.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Table(
+    name = "blobs",
+    uniqueConstraints = {
+        @UniqueConstraint(columnNames = "hash")
+    },
+    indexes = {
+        // The scrubber works through blobs in the order they were last verified
+        @Index(name = "idx_blobs_verified", columnList = "verified_at"),
+        // The orphan reaper looks objects found on disk up by key
+        @Index(name = "idx_blobs_storage_key", columnList = "storage_key")
+    }
+)
+public class StoredBlob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String hash; // SHA-256 of the content, hex encoded
+
+    @Column(nullable = false)
+    private Long size; // in bytes
+
+    private Long crc32; // CRC-32 of the content, null for blobs stored before it was recorded
+
+    @Column(nullable = false)
+    private String storageKey; // Location within the storage backend
+
+    @Column(nullable = false)
+    private Long refCount; // number of file_metadata rows pointing here
+
+    @Column(nullable = false, updatable = false)
+    private Instant createdAt = Instant.now();
+
+    private Instant verifiedAt; // last read back by the scrubber, or hashed on upload; null for older blobs
+
+    private Instant corruptSince; // when the scrubber found the content no longer matches, null while it does
+
+    protected StoredBlob() {
+        // JPA only
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public Long getCrc32() {
+        return crc32;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public Long getRefCount() {
+        return refCount;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getVerifiedAt() {
+        return verifiedAt;
+    }
+
+    public Instant getCorruptSince() {
+        return corruptSince;
+    }
+}
@@ -0,0 +1,142 @@
+package com.razor.BitBucket.model;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.Instant;
+
+@Entity
+@Table(name = "upload_sessions")
+public class UploadSession {
+
+    @Id
+    private String id;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    private String contentType;
+
+    @Column(nullable = false)
+    private Long totalSize; // in bytes
+
+    @Column(nullable = false)
+    private Integer chunkSize; // in bytes, every chunk but the last is exactly this size
+
+    @Column(nullable = false)
+    private Long receivedBytes = 0L;
+
+    @Column(nullable = false)
+    private byte[] receivedChunks; // one bit per chunk, same layout as Postgres get_bit/set_bit
+
+    @Column(nullable = false)
+    private String tempPath; // Preallocated part file on disk
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "folder_id")
+    private Folder folder;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+
+    @Column(nullable = false, updatable = false)
+    private Instant createdAt = Instant.now();
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+
+    // The default lets the column be added to a table that already has sessions
+    @Enumerated(EnumType.STRING)
+    @ColumnDefault("'OPEN'")
+    @Column(nullable = false, length = 16)
+    private UploadState state = UploadState.OPEN;
+
+    private Long fileId; // the file the session was committed to, once COMMITTED
+
+    protected UploadSession() {
+        // JPA only
+    }
+
+    public UploadSession(String id, String fileName, String contentType, Long totalSize, Integer chunkSize,
+                         String tempPath, Folder folder, User owner, Instant expiresAt) {
+        this.id = id;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.totalSize = totalSize;
+        this.chunkSize = chunkSize;
+        this.tempPath = tempPath;
+        this.folder = folder;
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+        this.receivedChunks = new byte[(getChunkCount() + 7) / 8];
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Long getTotalSize() {
+        return totalSize;
+    }
+
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return (int) ((totalSize + chunkSize - 1) / chunkSize);
+    }
+
+    public long getChunkLength(int index) {
+        return Math.min(chunkSize, totalSize - (long) index * chunkSize);
+    }
+
+    public boolean isChunkReceived(int index) {
+        return (receivedChunks[index / 8] & (1 << (index % 8))) != 0;
+    }
+
+    public boolean isComplete() {
+        return receivedBytes.equals(totalSize);
+    }
+
+    public Long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public String getTempPath() {
+        return tempPath;
+    }
+
+    public Folder getFolder() {
+        return folder;
+    }
+
+    public User getOwner() {
+        return owner;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public UploadState getState() {
+        return state;
+    }
+
+    public Long getFileId() {
+        return fileId;
+    }
+}
@@ -0,0 +1,7 @@
+package com.razor.BitBucket.model;
+
+public enum UploadState {
+    OPEN, // taking chunks
+    COMMITTING, // claimed by one commit request, which is moving the part file into storage
+    COMMITTED // kept until it expires so a retried commit gets the same file back
+}
@@ -1,9 +1,11 @@
 package com.razor.BitBucket.model;
 
+import com.razor.BitBucket.service.UserCacheEvictionListener;
 import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
+@EntityListeners(UserCacheEvictionListener.class)
 @Table(
     name = "users",
     uniqueConstraints = {
@@ -26,6 +28,8 @@ public class User {
     @Column(nullable = false)
     private Role role;
 
+    private Long storageQuota; // in bytes, null for the configured default
+
     @Column(nullable = false, updatable = false)
     private Instant createdAt = Instant.now();
 
@@ -58,4 +62,12 @@ public class User {
     public Instant getCreatedAt() {
         return createdAt;
     }
+
+    public Long getStorageQuota() {
+        return storageQuota;
+    }
+
+    public void setStorageQuota(Long storageQuota) {
+        this.storageQuota = storageQuota;
+    }
 }
@@ -0,0 +1,12 @@
+package com.razor.BitBucket.ratelimit;
+
+/**
+ * Kinds of traffic that get their own bucket per user. The byte classes count bytes
+ * transferred rather than requests.
+ */
+public enum RateLimitClass {
+    READ,
+    SEARCH,
+    UPLOAD_BYTES,
+    DOWNLOAD_BYTES
+}
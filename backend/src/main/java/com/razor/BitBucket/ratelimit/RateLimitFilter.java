@@ -0,0 +1,130 @@
+package com.razor.BitBucket.ratelimit;
+
+import com.razor.BitBucket.dto.AuthenticatedUser;
+import com.razor.BitBucket.util.ZeroCopyTransfer;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * Applies the per-user buckets. Reads and searches cost one token per request and are answered
+ * with 429 and Retry-After once the bucket is empty. An upload is admitted while its bucket is
+ * not in debt and is then charged its full Content-Length, so the uploads that follow wait
+ * until the bytes are paid off. Downloads are never rejected; their body is paced instead, or
+ * sent with sendfile when the bucket can pay for all of it up front.
+ * <p>
+ * Runs after JWT authentication so buckets are keyed by user id; anonymous requests are keyed
+ * by client address. Deliberately not a bean, so it is not also registered as a servlet filter.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+
+    // Largest slice of a download paid for at once; bounds the calls to a shared bucket store
+    private static final long DOWNLOAD_GRANT = 256 * 1024;
+
+    private final RateLimiter rateLimiter;
+
+    public RateLimitFilter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        RateLimitClass limitClass = classify(request);
+        if (limitClass == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        Bucket bucket = rateLimiter.bucket(subject(request), limitClass);
+        switch (limitClass) {
+            case READ, SEARCH -> {
+                ConsumptionProbe probe = bucket.tryConsumeAndReturnRemaining(1);
+                if (!probe.isConsumed()) {
+                    reject(response, probe.getNanosToWaitForRefill());
+                    return;
+                }
+                response.setHeader(REMAINING_HEADER, Long.toString(probe.getRemainingTokens()));
+                filterChain.doFilter(request, response);
+            }
+            case UPLOAD_BYTES -> {
+                ConsumptionProbe probe = bucket.tryConsumeAndReturnRemaining(1);
+                if (!probe.isConsumed()) {
+                    reject(response, probe.getNanosToWaitForRefill());
+                    return;
+                }
+                // Bodies sent without a Content-Length only pay the admission token
+                long length = request.getContentLengthLong();
+                if (length > 1) {
+                    bucket.consumeIgnoringRateLimits(length - 1);
+                }
+                filterChain.doFilter(request, response);
+            }
+            case DOWNLOAD_BYTES -> {
+                // Sendfile moves the bytes past the paced stream, so it is only let through when
+                // the whole transfer can be paid for at once
+                request.setAttribute(ZeroCopyTransfer.SENDFILE_ADMISSION_ATTR, (LongPredicate) bucket::tryConsume);
+                filterChain.doFilter(request, new ThrottledResponse(response, bucket,
+                        Math.min(DOWNLOAD_GRANT, rateLimiter.capacity(RateLimitClass.DOWNLOAD_BYTES))));
+            }
+        }
+    }
+
+    private RateLimitClass classify(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!path.startsWith("/api/")) {
+            return null;
+        }
+        String method = request.getMethod();
+        if (("POST".equals(method) && (path.equals("/api/files/upload") || path.equals("/api/files/upload/batch")))
+                || ("PUT".equals(method) && path.startsWith("/api/uploads/"))) {
+            return RateLimitClass.UPLOAD_BYTES;
+        }
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+        if ((path.startsWith("/api/files/") && path.endsWith("/download"))
+                || (path.startsWith("/api/folders/") && path.endsWith("/archive"))) {
+            return RateLimitClass.DOWNLOAD_BYTES;
+        }
+        if (path.equals("/api/files/search")) {
+            return RateLimitClass.SEARCH;
+        }
+        return RateLimitClass.READ;
+    }
+
+    private String subject(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof AuthenticatedUser user) {
+            return "user:" + user.getId();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, long nanosToWait) throws IOException {
+        long seconds = Math.max(1, (TimeUnit.NANOSECONDS.toMillis(nanosToWait) + 999) / 1000);
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        response.setHeader(REMAINING_HEADER, "0");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"Too many requests\",\"retryAfterSeconds\":" + seconds + "}");
+    }
+}
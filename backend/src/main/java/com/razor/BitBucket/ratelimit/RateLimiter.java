@@ -0,0 +1,61 @@
+package com.razor.BitBucket.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.proxy.ProxyManager;
+import io.github.bucket4j.local.LocalBucketBuilder;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Hands out the token bucket for a subject (a user, or a client address when anonymous) and
+ * traffic class. Buckets live in this process unless a proxy manager is given, in which case
+ * their state is kept in the shared store and every replica draws from the same buckets.
+ */
+public class RateLimiter {
+
+    private final Map<RateLimitClass, BucketConfiguration> limits;
+    private final ProxyManager<String> distributed;
+    private final Cache<String, Bucket> local;
+
+    /**
+     * @param distributed where bucket state is kept, or null to keep it in process
+     */
+    public RateLimiter(Map<RateLimitClass, BucketConfiguration> limits, ProxyManager<String> distributed) {
+        if (!limits.keySet().equals(EnumSet.allOf(RateLimitClass.class))) {
+            throw new IllegalArgumentException("A limit is required for every rate limit class");
+        }
+        this.limits = new EnumMap<>(limits);
+        this.distributed = distributed;
+        // An idle bucket has refilled long before this, so dropping it loses nothing
+        this.local = distributed != null ? null : Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(Duration.ofHours(1))
+                .build();
+    }
+
+    public Bucket bucket(String subject, RateLimitClass limitClass) {
+        String key = subject + ":" + limitClass.name().toLowerCase();
+        BucketConfiguration configuration = limits.get(limitClass);
+        if (distributed != null) {
+            return distributed.builder().build(key, () -> configuration);
+        }
+        return local.get(key, ignored -> {
+            LocalBucketBuilder builder = Bucket.builder();
+            for (Bandwidth bandwidth : configuration.getBandwidths()) {
+                builder.addLimit(bandwidth);
+            }
+            return builder.build();
+        });
+    }
+
+    public long capacity(RateLimitClass limitClass) {
+        return limits.get(limitClass).getBandwidths()[0].getCapacity();
+    }
+}
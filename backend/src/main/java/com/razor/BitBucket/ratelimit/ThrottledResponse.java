@@ -0,0 +1,97 @@
+package com.razor.BitBucket.ratelimit;
+
+import io.github.bucket4j.Bucket;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Paces the response body to the rate of a byte bucket: each write waits until the bucket
+ * can cover it. Tokens are taken in grants of up to {@code grantSize} so a shared bucket
+ * store sees one call per grant, not one per 8KB buffer.
+ */
+class ThrottledResponse extends HttpServletResponseWrapper {
+
+    private final Bucket bucket;
+    private final long grantSize;
+    private ServletOutputStream outputStream;
+
+    ThrottledResponse(HttpServletResponse response, Bucket bucket, long grantSize) {
+        super(response);
+        this.bucket = bucket;
+        this.grantSize = grantSize;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new ThrottledOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    private final class ThrottledOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private long credit;
+
+        private ThrottledOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(1);
+            delegate.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int piece = (int) Math.min(length, grantSize);
+                acquire(piece);
+                delegate.write(buffer, offset, piece);
+                offset += piece;
+                length -= piece;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+
+        private void acquire(long bytes) throws IOException {
+            if (credit >= bytes) {
+                credit -= bytes;
+                return;
+            }
+            long grant = Math.max(bytes - credit, grantSize);
+            try {
+                bucket.asBlocking().consume(grant);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while pacing the download");
+            }
+            credit += grant - bytes;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.model.CompressedObject;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CompressedObjectRepository extends JpaRepository<CompressedObject, String> {
+}
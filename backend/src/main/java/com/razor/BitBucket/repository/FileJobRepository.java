@@ -0,0 +1,47 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.model.FileJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface FileJobRepository extends JpaRepository<FileJob, Long> {
+
+    List<FileJob> findByFileIdOrderByIdAsc(Long fileId);
+
+    /**
+     * Marks up to {@code limit} due jobs as running and returns them. Rows another worker has
+     * locked are skipped rather than waited for, so any number of workers on any number of
+     * nodes can claim at once without handing out a job twice.
+     */
+    @Transactional
+    @Query(value = "UPDATE file_jobs SET status = 'RUNNING', attempts = attempts + 1, " +
+            "locked_until = :leaseEnd, updated_at = :now " +
+            "WHERE id IN (SELECT id FROM file_jobs " +
+            "WHERE (status = 'PENDING' AND run_after <= :now) OR (status = 'RUNNING' AND locked_until < :now) " +
+            "ORDER BY run_after, id LIMIT :limit FOR UPDATE SKIP LOCKED) " +
+            "RETURNING *", nativeQuery = true)
+    List<FileJob> claim(@Param("now") Instant now, @Param("leaseEnd") Instant leaseEnd, @Param("limit") int limit);
+
+    // The attempt number guards against a worker whose lease ran out overwriting the job's next run
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE file_jobs SET status = :status, run_after = :runAfter, locked_until = NULL, " +
+            "last_error = :error, updated_at = :now " +
+            "WHERE id = :id AND status = 'RUNNING' AND attempts = :attempt", nativeQuery = true)
+    int finish(@Param("id") Long id, @Param("attempt") int attempt, @Param("status") String status,
+               @Param("runAfter") Instant runAfter, @Param("error") String error, @Param("now") Instant now);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM file_jobs j WHERE (j.status = 'DONE' AND j.updated_at < :cutoff) " +
+            "OR NOT EXISTS (SELECT 1 FROM file_metadata f WHERE f.id = j.file_id)", nativeQuery = true)
+    int deleteFinished(@Param("cutoff") Instant cutoff);
+}
@@ -0,0 +1,30 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.dto.FileCursor;
+import com.razor.BitBucket.dto.FileSortKey;
+import com.razor.BitBucket.model.FileMetadata;
+import com.razor.BitBucket.model.Folder;
+import com.razor.BitBucket.model.User;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Keyset pagination over a user's files. Each page seeks past the cursor on
+ * {@code (sortKey, id)} instead of skipping rows, and no count is run, so every page costs
+ * about the same as the first.
+ */
+public interface FileMetadataKeysetRepository {
+
+    /**
+     * @param folder the folder to list, or null for the root
+     * @param after  the previous page's cursor, or null for the first page
+     */
+    Slice<FileMetadata> findSliceInFolder(User owner, Folder folder, FileSortKey sortKey,
+                                          Sort.Direction direction, FileCursor after, int size);
+
+    /**
+     * @param pattern a {@code LIKE} pattern using backslash as the escape character
+     */
+    Slice<FileMetadata> findSliceByFileName(User owner, String pattern, FileSortKey sortKey,
+                                            Sort.Direction direction, FileCursor after, int size);
+}
@@ -0,0 +1,72 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.dto.FileCursor;
+import com.razor.BitBucket.dto.FileSortKey;
+import com.razor.BitBucket.model.FileMetadata;
+import com.razor.BitBucket.model.Folder;
+import com.razor.BitBucket.model.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+
+class FileMetadataKeysetRepositoryImpl implements FileMetadataKeysetRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Slice<FileMetadata> findSliceInFolder(User owner, Folder folder, FileSortKey sortKey,
+                                                 Sort.Direction direction, FileCursor after, int size) {
+        String filter = folder == null ? "f.folder IS NULL" : "f.folder = :folder";
+        TypedQuery<FileMetadata> query = seekQuery(filter, sortKey, direction, after);
+        if (folder != null) {
+            query.setParameter("folder", folder);
+        }
+        return fetch(query, owner, after, size);
+    }
+
+    @Override
+    public Slice<FileMetadata> findSliceByFileName(User owner, String pattern, FileSortKey sortKey,
+                                                   Sort.Direction direction, FileCursor after, int size) {
+        TypedQuery<FileMetadata> query = seekQuery(
+                "LOWER(f.fileName) LIKE LOWER(:pattern) ESCAPE '\\'", sortKey, direction, after);
+        query.setParameter("pattern", pattern);
+        return fetch(query, owner, after, size);
+    }
+
+    private TypedQuery<FileMetadata> seekQuery(String filter, FileSortKey sortKey, Sort.Direction direction,
+                                               FileCursor after) {
+        // Sort keys come from a fixed enum, so only whitelisted properties reach the query text
+        String column = "f." + sortKey.getProperty();
+        String order = direction.isAscending() ? "ASC" : "DESC";
+        StringBuilder jpql = new StringBuilder("SELECT f FROM FileMetadata f LEFT JOIN FETCH f.folder ")
+                .append("WHERE f.owner = :owner AND ").append(filter);
+        if (after != null) {
+            // A row-value comparison lets Postgres start the index scan right at the cursor
+            jpql.append(" AND (").append(column).append(", f.id) ")
+                    .append(direction.isAscending() ? ">" : "<")
+                    .append(" (:afterValue, :afterId)");
+        }
+        jpql.append(" ORDER BY ").append(column).append(' ').append(order)
+                .append(", f.id ").append(order);
+        return entityManager.createQuery(jpql.toString(), FileMetadata.class);
+    }
+
+    private Slice<FileMetadata> fetch(TypedQuery<FileMetadata> query, User owner, FileCursor after, int size) {
+        query.setParameter("owner", owner);
+        if (after != null) {
+            query.setParameter("afterValue", after.getValue());
+            query.setParameter("afterId", after.getId());
+        }
+        // One extra row tells whether another page exists without a count query
+        List<FileMetadata> rows = query.setMaxResults(size + 1).getResultList();
+        boolean hasNext = rows.size() > size;
+        return new SliceImpl<>(hasNext ? rows.subList(0, size) : rows, PageRequest.ofSize(size), hasNext);
+    }
+}
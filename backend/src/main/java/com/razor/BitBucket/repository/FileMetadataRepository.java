@@ -6,15 +6,18 @@ import com.razor.BitBucket.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long> {
+public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long>, FileMetadataKeysetRepository {
     
     Page<FileMetadata> findByOwner(User owner, Pageable pageable);
     
@@ -23,12 +26,59 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
     Page<FileMetadata> findByOwnerAndFolderIsNull(User owner, Pageable pageable);
     
     Optional<FileMetadata> findByIdAndOwner(Long id, User owner);
+
+    List<FileMetadata> findByOwnerAndIdIn(User owner, Collection<Long> ids);
+
+    @Modifying
+    @Query("DELETE FROM FileMetadata f WHERE f.owner = :owner AND f.id IN :ids")
+    int deleteByOwnerAndIds(@Param("owner") User owner, @Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.folder = :folder WHERE f.owner = :owner AND f.id IN :ids")
+    int moveToFolder(@Param("owner") User owner, @Param("ids") Collection<Long> ids, @Param("folder") Folder folder);
     
-    @Query("SELECT f FROM FileMetadata f WHERE f.owner = :owner AND LOWER(f.fileName) LIKE LOWER(CONCAT('%', :searchTerm, '%'))")
-    Page<FileMetadata> searchByFileName(@Param("owner") User owner, @Param("searchTerm") String searchTerm, Pageable pageable);
-    
-    @Query("SELECT SUM(f.fileSize) FROM FileMetadata f WHERE f.owner = :owner")
-    Long getTotalStorageUsedByOwner(@Param("owner") User owner);
+    /**
+     * Ranks exact names first, then names starting with the term, then by how early the term
+     * appears and how short the name is. The pattern is matched against the trigram index on
+     * {@code lower(file_name)}; pass an unsorted Pageable since the ranking is the order.
+     */
+    @Query(value = "SELECT f.* FROM file_metadata f " +
+            "WHERE f.owner_id = :ownerId AND lower(f.file_name) LIKE lower(:pattern) ESCAPE '\\' " +
+            "ORDER BY lower(f.file_name) = lower(:searchTerm) DESC, " +
+            "strpos(lower(f.file_name), lower(:searchTerm)) = 1 DESC, " +
+            "strpos(lower(f.file_name), lower(:searchTerm)), length(f.file_name), " +
+            "f.uploaded_at DESC, f.id DESC",
+            countQuery = "SELECT count(*) FROM file_metadata f " +
+                    "WHERE f.owner_id = :ownerId AND lower(f.file_name) LIKE lower(:pattern) ESCAPE '\\'",
+            nativeQuery = true)
+    Page<FileMetadata> searchByFileName(@Param("ownerId") Long ownerId, @Param("searchTerm") String searchTerm,
+                                        @Param("pattern") String pattern, Pageable pageable);
     
-    Long countByOwner(User owner);
+    @Query("SELECT COALESCE(SUM(f.fileSize), 0) FROM FileMetadata f")
+    long getTotalFileSize();
+
+    // Rows stored before content addressing still own a private copy on disk
+    @Query("SELECT COALESCE(SUM(f.fileSize), 0) FROM FileMetadata f WHERE f.blob IS NULL")
+    long getTotalUnsharedFileSize();
+
+    @Query(value = FolderRepository.SUBTREE +
+            "SELECT f.id FROM file_metadata f " +
+            "WHERE f.owner_id = :ownerId AND f.folder_id IN (SELECT id FROM subtree)", nativeQuery = true)
+    List<Long> findIdsInSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    @Query(value = FolderRepository.SUBTREE +
+            "SELECT f.file_path FROM file_metadata f " +
+            "WHERE f.owner_id = :ownerId AND f.folder_id IN (SELECT id FROM subtree) AND f.blob_id IS NULL", nativeQuery = true)
+    List<String> findUnsharedPathsInSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    // Files keep their blob's storage key, so they follow it when the blob's object is replaced
+    @Transactional
+    @Query(value = "UPDATE file_metadata SET file_path = b.storage_key FROM blobs b " +
+            "WHERE b.hash = :hash AND file_metadata.blob_id = b.id RETURNING file_metadata.id", nativeQuery = true)
+    List<Long> followBlobKey(@Param("hash") String hash);
+
+    @Modifying
+    @Query(value = FolderRepository.SUBTREE +
+            "DELETE FROM file_metadata WHERE owner_id = :ownerId AND folder_id IN (SELECT id FROM subtree)", nativeQuery = true)
+    int deleteInSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
 }
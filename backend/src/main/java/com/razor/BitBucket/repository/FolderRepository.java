@@ -3,13 +3,28 @@ package com.razor.BitBucket.repository;
 import com.razor.BitBucket.model.Folder;
 import com.razor.BitBucket.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface FolderRepository extends JpaRepository<Folder, Long> {
+
+    /**
+     * The ids of an owner's folder and everything below it, walked by Postgres in a single
+     * statement however deep the tree goes. Prefix a native query with this and bind
+     * {@code :folderId} and {@code :ownerId}. UNION rather than UNION ALL, so the walk ends
+     * even on a tree that somehow got a cycle.
+     */
+    String SUBTREE = "WITH RECURSIVE subtree(id) AS (" +
+            "SELECT id FROM folders WHERE id = :folderId AND owner_id = :ownerId " +
+            "UNION " +
+            "SELECT c.id FROM folders c JOIN subtree s ON c.parent_id = s.id) ";
     
     List<Folder> findByOwner(User owner);
     
@@ -20,4 +35,92 @@ public interface FolderRepository extends JpaRepository<Folder, Long> {
     Optional<Folder> findByIdAndOwner(Long id, User owner);
     
     boolean existsByNameAndOwnerAndParent(String name, User owner, Folder parent);
+
+    @Query(value = SUBTREE + "SELECT id FROM subtree", nativeQuery = true)
+    List<Long> findSubtreeIds(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    // The folder and every folder above it, up to the top level
+    @Query(value = "WITH RECURSIVE ancestors(id, parent_id) AS (" +
+            "SELECT id, parent_id FROM folders WHERE id = :folderId AND owner_id = :ownerId " +
+            "UNION " +
+            "SELECT p.id, p.parent_id FROM folders p JOIN ancestors a ON p.id = a.parent_id) " +
+            "SELECT id FROM ancestors", nativeQuery = true)
+    List<Long> findAncestorIds(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    // In id order, so two transactions locking overlapping sets queue up instead of deadlocking
+    @Query(value = "SELECT id FROM folders WHERE id IN (:ids) ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<Long> lockAll(@Param("ids") Collection<Long> ids);
+
+    @Query(value = SUBTREE + "SELECT EXISTS (SELECT 1 FROM subtree WHERE id = :candidateId)", nativeQuery = true)
+    boolean isInSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId,
+                        @Param("candidateId") Long candidateId);
+
+    @Query(value = SUBTREE + "SELECT " +
+            "(SELECT count(*) - 1 FROM subtree) AS folders, " +
+            "count(f.id) AS files, " +
+            "CAST(COALESCE(SUM(f.file_size), 0) AS bigint) AS bytes " +
+            "FROM file_metadata f WHERE f.owner_id = :ownerId AND f.folder_id IN (SELECT id FROM subtree)", nativeQuery = true)
+    SubtreeTotals getSubtreeTotals(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    /**
+     * The files below the folder with what is needed to write them into an archive, a page at a
+     * time in (path, file name, file id) order after the given position; start after
+     * ('', '', -1). Folders without files come back once with a null file. Paths are relative
+     * to the folder, end in a slash and have slashes in folder names replaced.
+     */
+    @Query(value = "WITH RECURSIVE tree(id, path) AS (" +
+            "SELECT id, CAST('' AS text) FROM folders WHERE id = :folderId AND owner_id = :ownerId " +
+            "UNION ALL " +
+            "SELECT c.id, t.path || translate(c.name, '/\\', '__') || '/' " +
+            "FROM folders c JOIN tree t ON c.parent_id = t.id) " +
+            // Paths differ on every lap, so only the cycle clause stops the walk on a corrupted tree
+            "CYCLE id SET cyclic USING route " +
+            "SELECT t.path AS folderPath, f.id AS fileId, f.file_name AS fileName, f.file_path AS storageKey, " +
+            "f.file_size AS fileSize, f.content_type AS contentType, b.crc32 AS crc32, " +
+            "CAST(EXTRACT(EPOCH FROM f.uploaded_at) * 1000 AS bigint) AS uploadedAtMillis " +
+            "FROM tree t " +
+            // Each folder's files are read off idx_file_metadata_folder_name starting at the position,
+            // so a page costs its own files rather than everything before or after it
+            "LEFT JOIN LATERAL (SELECT * FROM file_metadata f WHERE f.owner_id = :ownerId AND f.folder_id = t.id " +
+            "AND (f.file_name, f.id) > (CASE WHEN t.path = :afterPath THEN :afterName ELSE '' END, " +
+            "CASE WHEN t.path = :afterPath THEN :afterFileId ELSE -1 END) " +
+            "ORDER BY f.file_name, f.id LIMIT :limit) f ON true " +
+            "LEFT JOIN blobs b ON b.id = f.blob_id " +
+            "WHERE NOT t.cyclic AND t.path >= :afterPath " +
+            "AND (t.path, COALESCE(f.file_name, ''), COALESCE(f.id, 0)) > (:afterPath, :afterName, :afterFileId) " +
+            "ORDER BY t.path, f.file_name, f.id LIMIT :limit", nativeQuery = true)
+    List<ArchiveEntry> findArchiveEntries(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId,
+                                          @Param("afterPath") String afterPath, @Param("afterName") String afterName,
+                                          @Param("afterFileId") long afterFileId, @Param("limit") int limit);
+
+    // Foreign keys are checked at the end of the statement, so parents and children go together
+    @Modifying
+    @Query(value = SUBTREE + "DELETE FROM folders WHERE id IN (SELECT id FROM subtree)", nativeQuery = true)
+    int deleteSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    interface SubtreeTotals {
+        Long getFolders();
+
+        Long getFiles();
+
+        Long getBytes();
+    }
+
+    interface ArchiveEntry {
+        String getFolderPath();
+
+        Long getFileId();
+
+        String getFileName();
+
+        String getStorageKey();
+
+        Long getFileSize();
+
+        String getContentType();
+
+        Long getCrc32();
+
+        Long getUploadedAtMillis();
+    }
 }
@@ -0,0 +1,54 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.model.StorageUsage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StorageUsageRepository extends JpaRepository<StorageUsage, StorageUsage.Key> {
+
+    @Modifying
+    @Query(value = "INSERT INTO storage_usage (user_id, stripe, files, bytes) " +
+            "VALUES (:userId, :stripe, :files, :bytes) " +
+            "ON CONFLICT (user_id, stripe) DO UPDATE SET " +
+            "files = storage_usage.files + EXCLUDED.files, bytes = storage_usage.bytes + EXCLUDED.bytes",
+            nativeQuery = true)
+    void add(@Param("userId") Long userId, @Param("stripe") int stripe,
+             @Param("files") long files, @Param("bytes") long bytes);
+
+    // Reads at most one row per stripe through the primary key
+    @Query(value = "SELECT CAST(COALESCE(SUM(files), 0) AS bigint) AS files, " +
+            "CAST(COALESCE(SUM(bytes), 0) AS bigint) AS bytes " +
+            "FROM storage_usage WHERE user_id = :userId", nativeQuery = true)
+    Totals getTotals(@Param("userId") Long userId);
+
+    /**
+     * Adds to stripe 0 whatever each user's counters are off by. Both sides are read in the
+     * statement's one snapshot, so changes committed while it runs keep their own increments
+     * and are neither lost nor counted twice.
+     *
+     * @return the number of users whose counters were off
+     */
+    @Modifying
+    @Query(value = "INSERT INTO storage_usage (user_id, stripe, files, bytes) " +
+            "SELECT u.id, 0, COALESCE(a.files, 0) - COALESCE(c.files, 0), COALESCE(a.bytes, 0) - COALESCE(c.bytes, 0) " +
+            "FROM users u " +
+            "LEFT JOIN (SELECT owner_id, count(*) AS files, SUM(file_size) AS bytes " +
+            "FROM file_metadata GROUP BY owner_id) a ON a.owner_id = u.id " +
+            "LEFT JOIN (SELECT user_id, SUM(files) AS files, SUM(bytes) AS bytes " +
+            "FROM storage_usage GROUP BY user_id) c ON c.user_id = u.id " +
+            "WHERE COALESCE(a.files, 0) <> COALESCE(c.files, 0) OR COALESCE(a.bytes, 0) <> COALESCE(c.bytes, 0) " +
+            "ON CONFLICT (user_id, stripe) DO UPDATE SET " +
+            "files = storage_usage.files + EXCLUDED.files, bytes = storage_usage.bytes + EXCLUDED.bytes",
+            nativeQuery = true)
+    int reconcile();
+
+    interface Totals {
+        Long getFiles();
+
+        Long getBytes();
+    }
+}
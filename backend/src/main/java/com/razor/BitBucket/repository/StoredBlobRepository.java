@@ -0,0 +1,114 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.model.StoredBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, Long> {
+
+    Optional<StoredBlob> findByHash(String hash);
+
+    // Also fills in the checksum of blobs stored before it was recorded
+    @Modifying
+    @Query(value = "UPDATE blobs SET ref_count = ref_count + 1, crc32 = COALESCE(crc32, :crc32) " +
+            "WHERE hash = :hash", nativeQuery = true)
+    int incrementRefCount(@Param("hash") String hash, @Param("crc32") long crc32);
+
+    // Covers two uploads of the same new content racing each other. New content was hashed as
+    // it was written, which counts as its first verification.
+    @Modifying
+    @Query(value = "INSERT INTO blobs (hash, size, crc32, storage_key, ref_count, created_at, verified_at) " +
+            "VALUES (:hash, :size, :crc32, :storageKey, 1, :createdAt, :createdAt) " +
+            "ON CONFLICT (hash) DO UPDATE SET ref_count = blobs.ref_count + 1, " +
+            "crc32 = COALESCE(blobs.crc32, EXCLUDED.crc32)", nativeQuery = true)
+    void insertOrIncrement(@Param("hash") String hash, @Param("size") long size, @Param("crc32") long crc32,
+                           @Param("storageKey") String storageKey, @Param("createdAt") Instant createdAt);
+
+    @Modifying
+    @Query(value = "UPDATE blobs SET ref_count = ref_count - 1 WHERE id = :id", nativeQuery = true)
+    int decrementRefCount(@Param("id") Long id);
+
+    boolean existsByHashAndCorruptSinceIsNull(String hash);
+
+    // A scalar rather than the entity, so the row is read again after replaceCorrupt changes it
+    @Query(value = "SELECT corrupt_since IS NOT NULL FROM blobs WHERE hash = :hash", nativeQuery = true)
+    boolean isCorrupt(@Param("hash") String hash);
+
+    // Drops the references held by the given files, one row update per distinct blob
+    @Modifying
+    @Query(value = "UPDATE blobs b SET ref_count = b.ref_count - r.refs FROM (" +
+            "SELECT f.blob_id, count(*) AS refs FROM file_metadata f " +
+            "WHERE f.owner_id = :ownerId AND f.id IN (:ids) AND f.blob_id IS NOT NULL " +
+            "GROUP BY f.blob_id) r " +
+            "WHERE b.id = r.blob_id", nativeQuery = true)
+    int releaseFiles(@Param("ownerId") Long ownerId, @Param("ids") Collection<Long> ids);
+
+    // Drops every reference held by files below the folder, one row update per distinct blob
+    @Modifying
+    @Query(value = FolderRepository.SUBTREE +
+            "UPDATE blobs b SET ref_count = b.ref_count - r.refs FROM (" +
+            "SELECT f.blob_id, count(*) AS refs FROM file_metadata f " +
+            "WHERE f.owner_id = :ownerId AND f.folder_id IN (SELECT id FROM subtree) AND f.blob_id IS NOT NULL " +
+            "GROUP BY f.blob_id) r " +
+            "WHERE b.id = r.blob_id", nativeQuery = true)
+    int releaseSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    @Query("SELECT b FROM StoredBlob b WHERE b.refCount <= 0")
+    List<StoredBlob> findUnreferenced(Pageable pageable);
+
+    @Modifying
+    @Query(value = "DELETE FROM blobs WHERE id = :id AND ref_count <= 0", nativeQuery = true)
+    int deleteIfUnreferenced(@Param("id") Long id);
+
+    /**
+     * Takes the blobs verified longest ago, never-verified first, that are due again. They are
+     * stamped as verified right away, so other nodes scrubbing at the same time pick different
+     * ones; a blob whose check is cut short by a crash waits for the next round.
+     */
+    @Transactional
+    @Query(value = "UPDATE blobs SET verified_at = :now " +
+            "WHERE id IN (SELECT id FROM blobs WHERE verified_at IS NULL OR verified_at < :cutoff " +
+            "ORDER BY verified_at NULLS FIRST, id LIMIT :limit FOR UPDATE SKIP LOCKED) " +
+            "RETURNING *", nativeQuery = true)
+    List<StoredBlob> claimForScrub(@Param("cutoff") Instant cutoff, @Param("now") Instant now,
+                                   @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE blobs SET corrupt_since = CASE WHEN :corrupt THEN COALESCE(corrupt_since, :now) END " +
+            "WHERE id = :id", nativeQuery = true)
+    int markScrubbed(@Param("id") Long id, @Param("corrupt") boolean corrupt, @Param("now") Instant now);
+
+    List<StoredBlob> findByCorruptSinceIsNotNullOrderByCorruptSince();
+
+    /**
+     * Points a blob the scrubber found corrupt at a freshly uploaded copy of its content and
+     * returns the key of the damaged object, or nothing if the blob is intact.
+     */
+    @Transactional
+    @Query(value = "UPDATE blobs b SET storage_key = :storageKey, corrupt_since = NULL, verified_at = :now " +
+            "FROM (SELECT id, storage_key FROM blobs WHERE hash = :hash AND corrupt_since IS NOT NULL " +
+            "FOR UPDATE) damaged " +
+            "WHERE b.id = damaged.id RETURNING damaged.storage_key", nativeQuery = true)
+    List<String> replaceCorrupt(@Param("hash") String hash, @Param("storageKey") String storageKey,
+                                @Param("now") Instant now);
+
+    @Query(value = "SELECT storage_key FROM blobs WHERE storage_key IN (:keys)", nativeQuery = true)
+    List<String> findStorageKeysIn(@Param("keys") Collection<String> keys);
+
+    // What blobs take up in storage, after compression
+    @Query(value = "SELECT COALESCE(SUM(COALESCE(c.stored_size, b.size)), 0) FROM blobs b " +
+            "LEFT JOIN compressed_objects c ON c.storage_key = b.storage_key", nativeQuery = true)
+    long getTotalBlobSize();
+}
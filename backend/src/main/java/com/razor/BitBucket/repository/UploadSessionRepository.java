@@ -0,0 +1,63 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.model.UploadSession;
+import com.razor.BitBucket.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    Optional<UploadSession> findByIdAndOwner(String id, User owner);
+
+    List<UploadSession> findByExpiresAtBefore(Instant cutoff);
+
+    @Query(value = FolderRepository.SUBTREE +
+            "SELECT u.temp_path FROM upload_sessions u WHERE u.folder_id IN (SELECT id FROM subtree)",
+            nativeQuery = true)
+    List<String> findTempPathsInSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    @Modifying
+    @Query(value = FolderRepository.SUBTREE +
+            "DELETE FROM upload_sessions WHERE folder_id IN (SELECT id FROM subtree)", nativeQuery = true)
+    int deleteInSubtree(@Param("folderId") Long folderId, @Param("ownerId") Long ownerId);
+
+    // Single-statement bitmap update so concurrent chunk PUTs never lose each other's bits
+    // and a retried chunk is only counted once.
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE upload_sessions SET " +
+            "received_bytes = received_bytes + CASE WHEN get_bit(received_chunks, :chunk) = 0 THEN :length ELSE 0 END, " +
+            "received_chunks = set_bit(received_chunks, :chunk, 1), " +
+            "expires_at = :expiresAt " +
+            "WHERE id = :id AND state = 'OPEN'", nativeQuery = true)
+    int markChunkReceived(@Param("id") String id, @Param("chunk") int chunk,
+                          @Param("length") long length, @Param("expiresAt") Instant expiresAt);
+
+    // Exactly one of any number of concurrent or retried commits gets a row back
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE upload_sessions SET state = 'COMMITTING', expires_at = :expiresAt " +
+            "WHERE id = :id AND state = 'OPEN' AND received_bytes = total_size", nativeQuery = true)
+    int claimForCommit(@Param("id") String id, @Param("expiresAt") Instant expiresAt);
+
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE upload_sessions SET state = 'COMMITTED', file_id = :fileId, expires_at = :expiresAt " +
+            "WHERE id = :id", nativeQuery = true)
+    int markCommitted(@Param("id") String id, @Param("fileId") Long fileId, @Param("expiresAt") Instant expiresAt);
+
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE upload_sessions SET state = 'OPEN' WHERE id = :id AND state = 'COMMITTING'",
+            nativeQuery = true)
+    int reopen(@Param("id") String id);
+}
@@ -0,0 +1,197 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.CorruptBlobDTO;
+import com.razor.BitBucket.model.StoredBlob;
+import com.razor.BitBucket.repository.StoredBlobRepository;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Reads every blob back at a bounded rate and checks it against the SHA-256, CRC-32 and size
+ * recorded when it was uploaded, so bit rot and truncated objects are found before a user
+ * downloads them. Mismatches are logged, counted and flagged on the blob; a blob that checks
+ * out again (e.g. restored from backup) loses the flag.
+ * <p>
+ * Runs on its own thread, since a round over a large store takes hours at the configured rate.
+ */
+@Service
+public class BlobScrubService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobScrubService.class);
+    private static final int BATCH_SIZE = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final StoredBlobRepository storedBlobRepository;
+    private final BlobStoreService blobStoreService;
+    private final Duration interval;
+    private final Duration idleDelay;
+    private final Bucket budget; // null when scrubbing is off
+    private final Counter bytesVerified;
+    private final Counter intact;
+    private final Counter corrupt;
+    private final ScheduledExecutorService runner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blob-scrubber");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BlobScrubService(
+            StoredBlobRepository storedBlobRepository,
+            BlobStoreService blobStoreService,
+            MeterRegistry meterRegistry,
+            @Value("${file.scrub.rate}") DataSize rate,
+            @Value("${file.scrub.interval}") Duration interval,
+            @Value("${file.scrub.idle-delay}") Duration idleDelay
+    ) {
+        this.storedBlobRepository = storedBlobRepository;
+        this.blobStoreService = blobStoreService;
+        this.interval = interval;
+        this.idleDelay = idleDelay;
+        long bytesPerSecond = rate.toBytes();
+        this.budget = bytesPerSecond <= 0 ? null : Bucket.builder()
+                .addLimit(Bandwidth.builder().capacity(bytesPerSecond)
+                        .refillGreedy(bytesPerSecond, Duration.ofSeconds(1)).build())
+                .build();
+        this.bytesVerified = Counter.builder("bitbucket.scrub.bytes")
+                .description("Bytes read back by the scrubber")
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+        this.intact = scrubCounter(meterRegistry, "intact");
+        this.corrupt = scrubCounter(meterRegistry, "corrupt");
+    }
+
+    private static Counter scrubCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("bitbucket.scrub.blobs")
+                .description("Blobs verified by the scrubber")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    // Not before the application is up, so startup never waits on storage reads
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (budget != null) {
+            runner.scheduleWithFixedDelay(this::scrubDue, idleDelay.toMillis(), idleDelay.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    public List<CorruptBlobDTO> getCorruptBlobs() {
+        return storedBlobRepository.findByCorruptSinceIsNotNullOrderByCorruptSince().stream()
+                .map(blob -> new CorruptBlobDTO(blob.getId(), blob.getHash(), blob.getStorageKey(),
+                        blob.getSize(), blob.getRefCount(), blob.getCorruptSince()))
+                .toList();
+    }
+
+    // Works until nothing is due, then sleeps for the idle delay
+    private void scrubDue() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Instant now = Instant.now();
+                List<StoredBlob> blobs = storedBlobRepository.claimForScrub(now.minus(interval), now, BATCH_SIZE);
+                if (blobs.isEmpty()) {
+                    return;
+                }
+                for (StoredBlob blob : blobs) {
+                    scrub(blob);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            log.warn("Scrubbing stopped early", ex);
+        }
+    }
+
+    private void scrub(StoredBlob blob) throws InterruptedException {
+        String problem;
+        try {
+            problem = verify(blob);
+        } catch (IOException ex) {
+            // Collected as garbage while we were reading it
+            if (!storedBlobRepository.existsById(blob.getId())) {
+                return;
+            }
+            problem = "unreadable: " + ex;
+        }
+        if (problem == null) {
+            intact.increment();
+            if (blob.getCorruptSince() != null) {
+                log.info("Blob {} ({}) checks out again", blob.getId(), blob.getStorageKey());
+            }
+        } else {
+            corrupt.increment();
+            log.error("Blob {} ({}) is corrupt, {} file(s) affected: {}", blob.getId(), blob.getStorageKey(),
+                    blob.getRefCount(), problem);
+        }
+        storedBlobRepository.markScrubbed(blob.getId(), problem != null, Instant.now());
+    }
+
+    /**
+     * @return what is wrong with the blob's content, or null if it matches
+     */
+    private String verify(StoredBlob blob) throws IOException, InterruptedException {
+        MessageDigest digest = sha256();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        // Opened at the recorded size; compressed blobs also fail here on a bad frame checksum
+        try (InputStream in = blobStoreService.open(blob.getStorageKey(), blob.getSize()).getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                budget.asBlocking().consume(read);
+                digest.update(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                size += read;
+                bytesVerified.increment(read);
+            }
+        }
+        if (size != blob.getSize()) {
+            return "size is " + size + ", expected " + blob.getSize();
+        }
+        if (blob.getCrc32() != null && crc.getValue() != blob.getCrc32()) {
+            return "CRC-32 mismatch";
+        }
+        if (!HexFormat.of().formatHex(digest.digest()).equals(blob.getHash())) {
+            return "SHA-256 mismatch";
+        }
+        return null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.model.CompressedObject;
+import com.razor.BitBucket.model.StoredBlob;
+import com.razor.BitBucket.repository.CompressedObjectRepository;
+import com.razor.BitBucket.repository.FileMetadataRepository;
+import com.razor.BitBucket.repository.StoredBlobRepository;
+import com.razor.BitBucket.storage.FramedGzip;
+import com.razor.BitBucket.storage.StorageBackend;
+import com.razor.BitBucket.util.ContentTypes;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+@Service
+public class BlobStoreService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobStoreService.class);
+    private static final int GC_BATCH_SIZE = 500;
+    // Marks keys of objects stored compressed; the rest of the key is the backend's own
+    private static final String COMPRESSED_KEY_PREFIX = FramedGzip.ENCODING + ":";
+
+    private final StorageBackend storageBackend;
+    private final StoredBlobRepository storedBlobRepository;
+    private final CompressedObjectRepository compressedObjectRepository;
+    private final FileMetadataRepository fileMetadataRepository;
+    private final FileMetadataCache fileMetadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final Path stagingLocation;
+    private final boolean compressionEnabled;
+    private final int compressionLevel;
+    private final int frameSize;
+    private final long compressionMinSize;
+    private final double compressionMaxRatio;
+    private final DistributionSummary stagedSizes;
+    private final Counter bytesWritten;
+    private final Counter compressedBytesWritten;
+
+    public BlobStoreService(
+            StorageBackend storageBackend,
+            StoredBlobRepository storedBlobRepository,
+            CompressedObjectRepository compressedObjectRepository,
+            FileMetadataRepository fileMetadataRepository,
+            FileMetadataCache fileMetadataCache,
+            TransactionTemplate transactionTemplate,
+            @Value("${file.upload-dir}") String uploadDir,
+            @Value("${file.compression.enabled}") boolean compressionEnabled,
+            @Value("${file.compression.level}") int compressionLevel,
+            @Value("${file.compression.frame-size}") DataSize frameSize,
+            @Value("${file.compression.min-size}") DataSize compressionMinSize,
+            @Value("${file.compression.max-ratio}") double compressionMaxRatio,
+            MeterRegistry meterRegistry
+    ) {
+        this.storageBackend = storageBackend;
+        this.storedBlobRepository = storedBlobRepository;
+        this.compressedObjectRepository = compressedObjectRepository;
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.fileMetadataCache = fileMetadataCache;
+        this.transactionTemplate = transactionTemplate;
+        // Under the first storage mount by default, so publishing a staged upload is a rename
+        this.stagingLocation = Paths.get(uploadDir).toAbsolutePath().normalize().resolve(".incoming");
+        this.compressionEnabled = compressionEnabled;
+        this.compressionLevel = compressionLevel;
+        this.frameSize = Math.toIntExact(frameSize.toBytes());
+        this.compressionMinSize = compressionMinSize.toBytes();
+        this.compressionMaxRatio = compressionMaxRatio;
+        this.stagedSizes = DistributionSummary.builder("bitbucket.upload.size")
+                .description("Size of uploaded content before deduplication and compression")
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+        // Compared with the staged sizes, these show what compression saves on writes
+        this.bytesWritten = writtenCounter(meterRegistry, "false");
+        this.compressedBytesWritten = writtenCounter(meterRegistry, "true");
+
+        try {
+            Files.createDirectories(this.stagingLocation);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not create upload staging directory", ex);
+        }
+    }
+
+    private static Counter writtenCounter(MeterRegistry meterRegistry, String compressed) {
+        return Counter.builder("bitbucket.storage.written")
+                .description("Bytes written to the storage backend")
+                .baseUnit(BaseUnits.BYTES)
+                .tag("compressed", compressed)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stages content that can be read more than once, such as a multipart upload the servlet
+     * container has spooled to local disk.
+     */
+    public StagedBlob stage(InputStreamSource source, String contentType) throws IOException {
+        try (InputStream in = source.getInputStream()) {
+            return stage(in, contentType);
+        }
+    }
+
+    /**
+     * Writes the stream to the local staging area, hashing it on the way through. Content that
+     * compresses well is staged compressed; hash, checksum and size are always of the original.
+     */
+    private StagedBlob stage(InputStream source, String contentType) throws IOException {
+        HashingInputStream in = new HashingInputStream(source);
+        // The first frame decides for the whole stream
+        byte[] sample = mayCompress(contentType) ? in.readNBytes(frameSize) : new byte[0];
+        InputStream content = sample.length == 0 ? in : new SequenceInputStream(new ByteArrayInputStream(sample), in);
+        return stage(in, content, compressible(sample));
+    }
+
+    /**
+     * Stages a local file (e.g. an assembled chunked upload). It is read once to hash it, or to
+     * hash and compress it if it compresses well. The file itself is left where it is, so the
+     * caller can still retry with it until the upload has committed.
+     */
+    public StagedBlob stage(Path file, String contentType) throws IOException {
+        if (mayCompress(contentType)) {
+            byte[] sample;
+            try (InputStream in = Files.newInputStream(file)) {
+                sample = in.readNBytes(frameSize);
+            }
+            if (compressible(sample)) {
+                try (HashingInputStream in = new HashingInputStream(Files.newInputStream(file))) {
+                    return stage(in, in, true);
+                }
+            }
+        }
+        Path staging = stagingLocation.resolve("import-" + UUID.randomUUID() + ".tmp");
+        try {
+            link(file, staging);
+            return staged(hash(staging), null);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(staging);
+            throw ex;
+        }
+    }
+
+    // A hard link costs no copy and leaves the source in place; only a source on another file system is copied
+    private static void link(Path file, Path staging) throws IOException {
+        try {
+            Files.createLink(staging, file);
+        } catch (UnsupportedOperationException | FileSystemException ex) {
+            Files.copy(file, staging);
+            return;
+        }
+        // A link shares the source's modification time, and the orphan reaper takes old staging files
+        Files.setLastModifiedTime(staging, FileTime.from(Instant.now()));
+    }
+
+    private StagedBlob stage(HashingInputStream in, InputStream content, boolean compress) throws IOException {
+        Path staging = Files.createTempFile(stagingLocation, "upload-", ".tmp");
+        try {
+            Compression compression = null;
+            if (compress) {
+                FramedGzip.Encoder encoder = new FramedGzip.Encoder(content, frameSize, compressionLevel);
+                try {
+                    Files.copy(encoder, staging, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    encoder.close();
+                }
+                compression = new Compression(encoder.getEncodedSize(), encoder.getFrameSize(),
+                        FramedGzip.pack(encoder.getFrameLengths()));
+            } else {
+                Files.copy(content, staging, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return staged(in.staged(staging), compression);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(staging);
+            throw ex;
+        }
+    }
+
+    // New content goes to the backend now, so the transaction that takes the reference does no
+    // writes there; content already stored intact never leaves the staging area
+    private StagedBlob staged(StagedBlob staged, Compression compression) throws IOException {
+        staged.compression = compression;
+        stagedSizes.record(staged.getSize());
+        if (!storedBlobRepository.existsByHashAndCorruptSinceIsNull(staged.getHash())) {
+            try {
+                publish(staged);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(staged.file);
+                throw ex;
+            }
+        }
+        return staged;
+    }
+
+    private StagedBlob hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                buffer.flip();
+                crc.update(buffer.duplicate());
+                digest.update(buffer);
+                buffer.clear();
+                size += read;
+            }
+        }
+        return new StagedBlob(HexFormat.of().formatHex(digest.digest()), crc.getValue(), size, file);
+    }
+
+    // Moves the staged file into the storage backend, a rename when both are on the same mount
+    private void publish(StagedBlob staged) throws IOException {
+        if (staged.key != null) {
+            return;
+        }
+        String backendKey = storageBackend.importFile(staged.file);
+        if (staged.compression == null) {
+            bytesWritten.increment(staged.getSize());
+            staged.key = backendKey;
+            return;
+        }
+        String key = COMPRESSED_KEY_PREFIX + backendKey;
+        try {
+            compressedObjectRepository.save(new CompressedObject(key, staged.compression.storedSize(),
+                    staged.compression.frameSize(), staged.compression.frameLengths()));
+        } catch (RuntimeException ex) {
+            storageBackend.delete(backendKey);
+            throw ex;
+        }
+        compressedBytesWritten.increment(staged.compression.storedSize());
+        staged.key = key;
+    }
+
+    /**
+     * Takes one reference on the blob with the staged content, adopting the staged object as
+     * the blob if the content is new or the stored copy is corrupt. The reference only exists
+     * once the transaction that saves the referencing FileMetadata commits.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public StoredBlob acquire(StagedBlob staged) {
+        try {
+            if (storedBlobRepository.incrementRefCount(staged.getHash(), staged.getCrc32()) == 0) {
+                // Also the rare upload whose stored copy was collected after it was staged
+                publish(staged);
+                storedBlobRepository.insertOrIncrement(staged.getHash(), staged.getSize(), staged.getCrc32(),
+                        staged.getKey(), Instant.now());
+            } else {
+                replaceIfCorrupt(staged);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return storedBlobRepository.findByHash(staged.getHash())
+                .orElseThrow(() -> new IllegalStateException("Blob vanished while being acquired"));
+    }
+
+    // The increment above already holds the blob's row lock, so only one upload gets to replace it
+    private void replaceIfCorrupt(StagedBlob staged) throws IOException {
+        if (!storedBlobRepository.isCorrupt(staged.getHash())) {
+            return;
+        }
+        publish(staged);
+        List<String> damaged = storedBlobRepository.replaceCorrupt(staged.getHash(), staged.getKey(), Instant.now());
+        if (damaged.isEmpty()) {
+            return;
+        }
+        List<Long> fileIds = fileMetadataRepository.followBlobKey(staged.getHash());
+        // Until the commit, readers are still pointed at the damaged object
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                fileIds.forEach(fileMetadataCache::evict);
+                try {
+                    deleteObject(damaged.get(0));
+                } catch (IOException ex) {
+                    log.warn("Could not delete damaged object {}", damaged.get(0), ex);
+                }
+                log.info("Replaced corrupt blob {} with a fresh upload, {} file(s) repaired",
+                        staged.getHash(), fileIds.size());
+            }
+        });
+    }
+
+    /**
+     * Drops one reference. The file itself is only removed by the garbage collector, so a concurrent
+     * upload of the same content can still pick the blob back up.
+     */
+    public void release(Long blobId) {
+        storedBlobRepository.decrementRefCount(blobId);
+    }
+
+    /**
+     * Deletes what is left of the staged content unless it became the stored copy of
+     * {@code blob}. Pass a null blob when the acquiring transaction rolled back.
+     */
+    public void discard(StagedBlob staged, StoredBlob blob) {
+        try {
+            // Still there if the content was never published
+            Files.deleteIfExists(staged.file);
+        } catch (IOException ex) {
+            log.warn("Could not delete staging file {}", staged.file, ex);
+        }
+        if (staged.key == null || (blob != null && staged.key.equals(blob.getStorageKey()))) {
+            return;
+        }
+        try {
+            deleteObject(staged.key);
+        } catch (IOException ex) {
+            log.warn("Could not delete staged object {}", staged.key, ex);
+        }
+    }
+
+    /**
+     * Deletes staging files of uploads started before the cutoff that never got as far as
+     * {@link #discard}, e.g. cut off by a crash.
+     *
+     * @return the number of files deleted
+     */
+    public int deleteAbandonedStaging(Instant startedBefore) throws IOException {
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingLocation)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(startedBefore)
+                            && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                } catch (NoSuchFileException ex) {
+                    // published or discarded while we were listing
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes objects no row refers to any more, off the request thread. Only for private
+     * copies; shared blobs are released and left to the garbage collector.
+     */
+    @Async
+    public void deleteObjects(List<String> keys) {
+        for (String key : keys) {
+            try {
+                deleteObject(key);
+            } catch (IOException ex) {
+                log.warn("Could not delete object {}", key, ex);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${file.blobs.gc-interval}")
+    public void collectGarbage() {
+        List<StoredBlob> candidates = storedBlobRepository.findUnreferenced(PageRequest.of(0, GC_BATCH_SIZE));
+        int collected = 0;
+        for (StoredBlob blob : candidates) {
+            // The row lock taken by the conditional delete is held until the file is gone, so an
+            // upload incrementing the same blob either wins before us or waits and re-creates it.
+            Boolean deleted = transactionTemplate.execute(status -> {
+                if (storedBlobRepository.deleteIfUnreferenced(blob.getId()) == 0) {
+                    return false;
+                }
+                try {
+                    deleteObject(blob.getStorageKey());
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to delete blob " + blob.getHash(), ex);
+                }
+                return true;
+            });
+            if (Boolean.TRUE.equals(deleted)) {
+                collected++;
+            }
+        }
+        if (collected > 0) {
+            log.info("Collected {} unreferenced blobs", collected);
+        }
+    }
+
+    /**
+     * Deletes the objects among the given backend keys that no blob refers to. Only for objects
+     * old enough that their upload has either committed or failed; files without a blob predate
+     * keyed storage, so they never refer to one of these.
+     *
+     * @return the number of objects deleted
+     */
+    public int deleteUnreferenced(List<String> backendKeys) {
+        List<String> keys = new ArrayList<>(backendKeys.size() * 2);
+        for (String backendKey : backendKeys) {
+            keys.add(backendKey);
+            keys.add(COMPRESSED_KEY_PREFIX + backendKey);
+        }
+        Set<String> referenced = new HashSet<>(storedBlobRepository.findStorageKeysIn(keys));
+        int deleted = 0;
+        for (String backendKey : backendKeys) {
+            String compressedKey = COMPRESSED_KEY_PREFIX + backendKey;
+            if (referenced.contains(backendKey) || referenced.contains(compressedKey)) {
+                continue;
+            }
+            try {
+                deleteObject(compressedObjectRepository.existsById(compressedKey) ? compressedKey : backendKey);
+                deleted++;
+            } catch (IOException ex) {
+                log.warn("Could not delete orphaned object {}", backendKey, ex);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * The object's content as it was uploaded, decoding it if it is stored compressed.
+     *
+     * @param size the content's length as recorded when it was written
+     */
+    public Resource open(String key, long size) {
+        if (!key.startsWith(COMPRESSED_KEY_PREFIX)) {
+            return storageBackend.getResource(key, size);
+        }
+        CompressedObject object = compressedObject(key);
+        return new FramedGzip.DecodedResource(
+                storageBackend.getResource(backendKey(key), object.getStoredSize()),
+                size, object.getFrameSize(), FramedGzip.unpack(object.getFrameLengths()));
+    }
+
+    /**
+     * The object exactly as stored, if it is stored with the given content coding.
+     */
+    public Optional<Resource> openEncoded(String key, String encoding) {
+        if (!FramedGzip.ENCODING.equals(encoding) || !key.startsWith(COMPRESSED_KEY_PREFIX)) {
+            return Optional.empty();
+        }
+        return Optional.of(storageBackend.getResource(backendKey(key), compressedObject(key).getStoredSize()));
+    }
+
+    public boolean isCompressed(String key) {
+        return key.startsWith(COMPRESSED_KEY_PREFIX);
+    }
+
+    // Compressed objects are served through the backend so they can be decoded
+    public Optional<URI> getDownloadUrl(String key, String fileName, String contentType) {
+        if (key.startsWith(COMPRESSED_KEY_PREFIX)) {
+            return Optional.empty();
+        }
+        return storageBackend.getDownloadUrl(key, fileName, contentType);
+    }
+
+    private boolean mayCompress(String contentType) {
+        return compressionEnabled && !ContentTypes.isCompressed(contentType);
+    }
+
+    private boolean compressible(byte[] sample) {
+        return sample.length >= compressionMinSize
+                && FramedGzip.deflatedSize(sample) <= sample.length * compressionMaxRatio;
+    }
+
+    private void deleteObject(String key) throws IOException {
+        if (!key.startsWith(COMPRESSED_KEY_PREFIX)) {
+            storageBackend.delete(key);
+            return;
+        }
+        storageBackend.delete(backendKey(key));
+        compressedObjectRepository.deleteById(key);
+    }
+
+    private CompressedObject compressedObject(String key) {
+        return compressedObjectRepository.findById(key)
+                .orElseThrow(() -> new IllegalStateException("No layout recorded for compressed object " + key));
+    }
+
+    private static String backendKey(String key) {
+        return key.substring(COMPRESSED_KEY_PREFIX.length());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /**
+     * Uploaded content, hashed and written to the local staging area. It has a backend key once
+     * it has been published; content the store already holds is never published.
+     */
+    public static final class StagedBlob {
+        private final String hash;
+        private final long crc32;
+        private final long size;
+        private final Path file;
+        private Compression compression; // null when staged as is
+        private String key;
+
+        private StagedBlob(String hash, long crc32, long size, Path file) {
+            this.hash = hash;
+            this.crc32 = crc32;
+            this.size = size;
+            this.file = file;
+        }
+
+        // Null until the content has been written to the storage backend
+        public String getKey() {
+            return key;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getCrc32() {
+            return crc32;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    // How a staged file was compressed, recorded against its key once it is published
+    private record Compression(long storedSize, int frameSize, byte[] frameLengths) {
+    }
+
+    // Hashes, checksums and counts what is read through it
+    private static final class HashingInputStream extends FilterInputStream {
+        private final MessageDigest digest;
+        private final CRC32 crc;
+        private long count;
+
+        private HashingInputStream(InputStream in) {
+            this(in, sha256(), new CRC32());
+        }
+
+        private HashingInputStream(InputStream in, MessageDigest digest, CRC32 crc) {
+            super(new CheckedInputStream(new DigestInputStream(in, digest), crc));
+            this.digest = digest;
+            this.crc = crc;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        private StagedBlob staged(Path file) {
+            return new StagedBlob(HexFormat.of().formatHex(digest.digest()), crc.getValue(), count, file);
+        }
+    }
+}
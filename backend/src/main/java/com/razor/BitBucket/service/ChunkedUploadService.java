@@ -0,0 +1,341 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.FileUploadResponse;
+import com.razor.BitBucket.dto.InitUploadRequest;
+import com.razor.BitBucket.dto.UploadSessionDTO;
+import com.razor.BitBucket.model.Folder;
+import com.razor.BitBucket.model.UploadSession;
+import com.razor.BitBucket.model.UploadState;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.FolderRepository;
+import com.razor.BitBucket.repository.UploadSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path sessionLocation;
+    private final int chunkSize;
+    private final long maxFileSize;
+    private final Duration sessionTtl;
+    private final UploadSessionRepository uploadSessionRepository;
+    private final FolderRepository folderRepository;
+    private final FileStorageService fileStorageService;
+    private final StorageUsageService storageUsageService;
+
+    public ChunkedUploadService(
+            @Value("${file.upload-dir}") String uploadDir,
+            @Value("${file.chunked.chunk-size}") int chunkSize,
+            @Value("${file.chunked.max-size}") long maxFileSize,
+            @Value("${file.chunked.session-ttl}") Duration sessionTtl,
+            UploadSessionRepository uploadSessionRepository,
+            FolderRepository folderRepository,
+            FileStorageService fileStorageService,
+            StorageUsageService storageUsageService
+    ) {
+        // Next to the staging area by default, so commit links the part file there rather than copying it
+        this.sessionLocation = Paths.get(uploadDir).toAbsolutePath().normalize().resolve(".sessions");
+        this.chunkSize = chunkSize;
+        this.maxFileSize = maxFileSize;
+        this.sessionTtl = sessionTtl;
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.folderRepository = folderRepository;
+        this.fileStorageService = fileStorageService;
+        this.storageUsageService = storageUsageService;
+
+        try {
+            Files.createDirectories(this.sessionLocation);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not create upload session directory", ex);
+        }
+    }
+
+    public UploadSessionDTO initSession(InitUploadRequest request, User owner) {
+        if (request.getTotalSize() > maxFileSize) {
+            throw new IllegalArgumentException("File exceeds maximum upload size of " + maxFileSize + " bytes");
+        }
+        storageUsageService.checkQuota(owner, request.getTotalSize());
+
+        Folder folder = null;
+        if (request.getFolderId() != null) {
+            folder = folderRepository.findByIdAndOwner(request.getFolderId(), owner)
+                    .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
+        }
+
+        String sessionId = UUID.randomUUID().toString();
+        Path tempPath = sessionLocation.resolve(sessionId + ".part");
+
+        // Sets the full length up front so chunks can land at any offset in any order. The file is
+        // sparse: disk space is only taken as chunks are written, so a full disk fails a chunk, not this
+        try (RandomAccessFile raf = new RandomAccessFile(tempPath.toFile(), "rw")) {
+            raf.setLength(request.getTotalSize());
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to allocate upload session", ex);
+        }
+
+        String contentType = request.getContentType() != null && !request.getContentType().isBlank()
+                ? request.getContentType() : "application/octet-stream";
+
+        UploadSession session = new UploadSession(
+                sessionId,
+                request.getFileName(),
+                contentType,
+                request.getTotalSize(),
+                chunkSize,
+                tempPath.toString(),
+                folder,
+                owner,
+                Instant.now().plus(sessionTtl)
+        );
+
+        return convertToDTO(uploadSessionRepository.save(session));
+    }
+
+    public UploadSessionDTO getSession(String sessionId, User owner) {
+        return convertToDTO(findSession(sessionId, owner));
+    }
+
+    public UploadSessionDTO writeChunk(String sessionId, String contentRange, InputStream body, User owner) {
+        UploadSession session = findSession(sessionId, owner);
+        if (session.getState() != UploadState.OPEN) {
+            throw new IllegalStateException("Upload has already been committed");
+        }
+        ContentRange range = ContentRange.parse(contentRange);
+
+        if (range.total != null && !range.total.equals(session.getTotalSize())) {
+            throw new IllegalArgumentException("Content-Range total does not match the session size");
+        }
+        if (range.start % session.getChunkSize() != 0) {
+            throw new IllegalArgumentException("Chunk must start on a multiple of " + session.getChunkSize());
+        }
+
+        int chunk = (int) (range.start / session.getChunkSize());
+        if (chunk >= session.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk is outside the file");
+        }
+        long length = session.getChunkLength(chunk);
+        if (range.end - range.start + 1 != length) {
+            throw new IllegalArgumentException("Chunk " + chunk + " must be exactly " + length + " bytes");
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(session.getTempPath()), StandardOpenOption.WRITE);
+             ReadableByteChannel source = Channels.newChannel(body)) {
+            long written = writeAt(source, channel, range.start, length);
+            if (written != length) {
+                throw new IllegalArgumentException("Chunk body was " + written + " bytes, expected " + length);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write chunk", ex);
+        }
+
+        // A commit may have claimed the session while the chunk was being written
+        if (uploadSessionRepository.markChunkReceived(sessionId, chunk, length, Instant.now().plus(sessionTtl)) == 0) {
+            throw new IllegalStateException("Upload has already been committed");
+        }
+        return convertToDTO(findSession(sessionId, owner));
+    }
+
+    /**
+     * Turns a complete session into a file. Safe to retry: only one request imports the part
+     * file, and a commit arriving after it finished gets the same file back. The part file is
+     * kept until the file's row has committed, so a commit that fails can be tried again.
+     */
+    public FileUploadResponse commit(String sessionId, User owner) {
+        UploadSession session = findSession(sessionId, owner);
+        if (session.getState() == UploadState.OPEN && !session.isComplete()) {
+            throw new IllegalStateException("Upload is incomplete: " + session.getReceivedBytes()
+                    + " of " + session.getTotalSize() + " bytes received");
+        }
+        if (uploadSessionRepository.claimForCommit(sessionId, Instant.now().plus(sessionTtl)) == 0) {
+            return committedFile(sessionId, owner);
+        }
+
+        Path tempPath = Paths.get(session.getTempPath());
+        FileUploadResponse response;
+        try {
+            // Other uploads may have used up the quota since the session started
+            storageUsageService.checkQuota(owner, session.getTotalSize());
+            response = fileStorageService.importFile(
+                    tempPath,
+                    session.getFileName(),
+                    session.getContentType(),
+                    session.getFolder(),
+                    owner
+            );
+        } catch (RuntimeException ex) {
+            // The client can only try again if the part file survived
+            if (Files.exists(tempPath)) {
+                uploadSessionRepository.reopen(sessionId);
+            } else {
+                uploadSessionRepository.deleteById(sessionId);
+            }
+            throw ex;
+        }
+
+        uploadSessionRepository.markCommitted(sessionId, response.getId(), Instant.now().plus(sessionTtl));
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (IOException ex) {
+            // The session's expiry deletes it again
+            log.warn("Could not delete committed upload session file {}", tempPath, ex);
+        }
+        return response;
+    }
+
+    private FileUploadResponse committedFile(String sessionId, User owner) {
+        UploadSession session = findSession(sessionId, owner);
+        if (session.getState() == UploadState.COMMITTED) {
+            return fileStorageService.getUploadResponse(session.getFileId(), owner);
+        }
+        throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already being committed");
+    }
+
+    public void abort(String sessionId, User owner) {
+        UploadSession session = findSession(sessionId, owner);
+        // Its part file is being imported into storage
+        if (session.getState() == UploadState.COMMITTING) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is being committed");
+        }
+        discard(session);
+    }
+
+    /**
+     * Deletes part files whose sessions went away with their folder.
+     */
+    @Async
+    public void deleteTempFiles(List<String> tempPaths) {
+        for (String tempPath : tempPaths) {
+            try {
+                Files.deleteIfExists(Paths.get(tempPath));
+            } catch (IOException ex) {
+                log.warn("Could not delete upload session file {}", tempPath, ex);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${file.chunked.cleanup-interval}")
+    public void purgeExpiredSessions() {
+        List<UploadSession> expired = uploadSessionRepository.findByExpiresAtBefore(Instant.now());
+        for (UploadSession session : expired) {
+            discard(session);
+        }
+        if (!expired.isEmpty()) {
+            log.info("Purged {} expired upload sessions", expired.size());
+        }
+    }
+
+    private void discard(UploadSession session) {
+        try {
+            Files.deleteIfExists(Paths.get(session.getTempPath()));
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to delete upload session file", ex);
+        }
+        uploadSessionRepository.delete(session);
+    }
+
+    private long writeAt(ReadableByteChannel source, FileChannel target, long position, long length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+        long written = 0;
+        while (written < length) {
+            buffer.limit((int) Math.min(buffer.capacity(), length - written));
+            if (source.read(buffer) < 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += target.write(buffer, position + written);
+            }
+            buffer.clear();
+        }
+        // A body longer than the declared range means the client and server disagree on the layout
+        if (written == length && source.read(ByteBuffer.allocate(1)) > 0) {
+            return written + 1;
+        }
+        return written;
+    }
+
+    private UploadSession findSession(String sessionId, User owner) {
+        return uploadSessionRepository.findByIdAndOwner(sessionId, owner)
+                .orElseThrow(() -> new IllegalArgumentException("Upload session not found"));
+    }
+
+    private UploadSessionDTO convertToDTO(UploadSession session) {
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            if (!session.isChunkReceived(i)) {
+                missing.add(i);
+            }
+        }
+        return new UploadSessionDTO(
+                session.getId(),
+                session.getFileName(),
+                session.getTotalSize(),
+                session.getChunkSize(),
+                session.getReceivedBytes(),
+                missing,
+                session.getExpiresAt()
+        );
+    }
+
+    private static final class ContentRange {
+        private final long start;
+        private final long end;
+        private final Long total;
+
+        private ContentRange(long start, long end, Long total) {
+            this.start = start;
+            this.end = end;
+            this.total = total;
+        }
+
+        // Accepts "bytes <start>-<end>/<total>" where total may be "*"
+        static ContentRange parse(String header) {
+            if (header == null || !header.startsWith("bytes ")) {
+                throw new IllegalArgumentException("Content-Range header is required");
+            }
+            try {
+                String spec = header.substring(6).trim();
+                int dash = spec.indexOf('-');
+                int slash = spec.indexOf('/');
+                long start = Long.parseLong(spec.substring(0, dash));
+                long end = Long.parseLong(spec.substring(dash + 1, slash));
+                String totalPart = spec.substring(slash + 1);
+                Long total = "*".equals(totalPart) ? null : Long.parseLong(totalPart);
+                if (start < 0 || end < start) {
+                    throw new IllegalArgumentException("Invalid Content-Range: " + header);
+                }
+                return new ContentRange(start, end, total);
+            } catch (IndexOutOfBoundsException | NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid Content-Range: " + header);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.razor.BitBucket.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Generated files (thumbnails) on local disk, bounded by their total size. Caffeine tracks
+ * what is on disk and decides what to drop; the file goes with the entry. Everything in here
+ * can be regenerated, so losing the directory only costs CPU.
+ */
+@Component
+public class DerivativeCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DerivativeCache.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final Cache<String, Long> entries; // name -> bytes on disk
+
+    public DerivativeCache(
+            @Value("${file.thumbnails.cache-dir}") Path directory,
+            @Value("${file.thumbnails.cache-size}") DataSize maxSize,
+            MeterRegistry meterRegistry
+    ) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String name, Long size) -> (int) Math.min(size, Integer.MAX_VALUE))
+                .evictionListener((String name, Long size, RemovalCause cause) -> delete(name))
+                .recordStats()
+                .build();
+        adoptExisting();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "thumbnails");
+        Gauge.builder("bitbucket.thumbnails.disk", this, DerivativeCache::getSize)
+                .description("Disk space taken by cached thumbnails")
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+    }
+
+    public boolean contains(String name) {
+        return entries.getIfPresent(name) != null;
+    }
+
+    /**
+     * @return the file's bytes, or null if it isn't cached
+     */
+    public byte[] read(String name) {
+        if (entries.getIfPresent(name) == null) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(directory.resolve(name));
+        } catch (NoSuchFileException ex) {
+            entries.invalidate(name);
+            return null;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public void write(String name, byte[] content) throws IOException {
+        // Readers never see a partly written file
+        Path temp = Files.createTempFile(directory, "derivative-", TEMP_SUFFIX);
+        try {
+            Files.write(temp, content);
+            Files.move(temp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        entries.put(name, (long) content.length);
+    }
+
+    public long getSize() {
+        return entries.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    private void adoptExisting() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(Files::isRegularFile).toList();
+        }
+        // Oldest first, so what was written last is what survives if the limit shrank
+        List<Path> sorted = files.stream()
+                .sorted(Comparator.comparingLong(DerivativeCache::lastModified))
+                .toList();
+        for (Path file : sorted) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file);
+            } else {
+                entries.put(name, Files.size(file));
+            }
+        }
+    }
+
+    private void delete(String name) {
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException ex) {
+            log.warn("Could not delete derivative {}", name, ex);
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.cache.CacheNames;
+import com.razor.BitBucket.dto.BatchItemResultDTO;
+import com.razor.BitBucket.dto.BatchResultDTO;
+import com.razor.BitBucket.model.FileMetadata;
+import com.razor.BitBucket.model.Folder;
+import com.razor.BitBucket.model.StoredBlob;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.FileMetadataRepository;
+import com.razor.BitBucket.repository.FolderRepository;
+import com.razor.BitBucket.repository.StoredBlobRepository;
+import com.razor.BitBucket.service.BlobStoreService.StagedBlob;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Multi-file variants of upload, delete and move. Each batch resolves the folder once and
+ * touches the database in a single transaction with set-based or JDBC-batched statements;
+ * items that fail on their own are reported rather than failing the whole batch.
+ */
+@Service
+public class FileBatchService {
+
+    private final FileMetadataRepository fileMetadataRepository;
+    private final FolderRepository folderRepository;
+    private final StoredBlobRepository storedBlobRepository;
+    private final BlobStoreService blobStoreService;
+    private final FileMetadataCache fileMetadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor ioExecutor;
+    private final FileJobService fileJobService;
+    private final StorageUsageService storageUsageService;
+    private final Cache fileListings;
+    private final int maxItems;
+
+    public FileBatchService(
+            FileMetadataRepository fileMetadataRepository,
+            FolderRepository folderRepository,
+            StoredBlobRepository storedBlobRepository,
+            BlobStoreService blobStoreService,
+            FileMetadataCache fileMetadataCache,
+            TransactionTemplate transactionTemplate,
+            @Qualifier("applicationTaskExecutor") Executor ioExecutor,
+            FileJobService fileJobService,
+            StorageUsageService storageUsageService,
+            CacheManager cacheManager,
+            @Value("${file.batch.max-items}") int maxItems
+    ) {
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.folderRepository = folderRepository;
+        this.storedBlobRepository = storedBlobRepository;
+        this.blobStoreService = blobStoreService;
+        this.fileMetadataCache = fileMetadataCache;
+        this.transactionTemplate = transactionTemplate;
+        this.ioExecutor = ioExecutor;
+        this.fileJobService = fileJobService;
+        this.storageUsageService = storageUsageService;
+        this.fileListings = cacheManager.getCache(CacheNames.FILE_LISTINGS);
+        this.maxItems = maxItems;
+    }
+
+    public BatchResultDTO uploadFiles(List<MultipartFile> files, Long folderId, User owner) {
+        checkBatchSize(files.size());
+        Folder folder = resolveFolder(folderId, owner);
+        storageUsageService.checkQuota(owner, files.stream().mapToLong(MultipartFile::getSize).sum());
+
+        // Contents are written to storage in parallel; only the bookkeeping is sequential
+        List<CompletableFuture<StagedBlob>> staging = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            staging.add(CompletableFuture.supplyAsync(() -> stage(file), ioExecutor));
+        }
+
+        String[] errors = new String[files.size()];
+        List<Integer> stagedIndexes = new ArrayList<>();
+        List<StagedBlob> staged = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                staged.add(staging.get(i).join());
+                stagedIndexes.add(i);
+            } catch (CompletionException ex) {
+                errors[i] = errorMessage(ex.getCause());
+            }
+        }
+
+        List<FileMetadata> saved;
+        try {
+            saved = transactionTemplate.execute(status -> {
+                // Blobs first: their native statements flush the session, which would split the insert batch
+                List<StoredBlob> blobs = new ArrayList<>(staged.size());
+                for (StagedBlob blob : staged) {
+                    blobs.add(blobStoreService.acquire(blob));
+                }
+                List<FileMetadata> metadata = new ArrayList<>(staged.size());
+                for (int i = 0; i < staged.size(); i++) {
+                    MultipartFile file = files.get(stagedIndexes.get(i));
+                    StoredBlob blob = blobs.get(i);
+                    metadata.add(new FileMetadata(
+                            file.getOriginalFilename(),
+                            blob.getHash(),
+                            blob.getStorageKey(),
+                            staged.get(i).getSize(),
+                            file.getContentType(),
+                            blob,
+                            folder,
+                            owner
+                    ));
+                }
+                storageUsageService.record(owner.getId(), metadata.size(),
+                        metadata.stream().mapToLong(FileMetadata::getFileSize).sum());
+                List<FileMetadata> rows = fileMetadataRepository.saveAll(metadata);
+                fileJobService.enqueue(rows);
+                return rows;
+            });
+        } catch (RuntimeException ex) {
+            for (StagedBlob blob : staged) {
+                blobStoreService.discard(blob, null);
+            }
+            throw ex;
+        }
+        // Only kept if the content was new
+        for (int i = 0; i < staged.size(); i++) {
+            blobStoreService.discard(staged.get(i), saved.get(i).getBlob());
+        }
+        if (!saved.isEmpty()) {
+            fileListings.evict(CacheNames.key(owner.getId(), folderId));
+        }
+
+        List<BatchItemResultDTO> items = new ArrayList<>(files.size());
+        int next = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String fileName = files.get(i).getOriginalFilename();
+            if (errors[i] != null) {
+                items.add(new BatchItemResultDTO(null, fileName, false, errors[i]));
+            } else {
+                items.add(new BatchItemResultDTO(saved.get(next++).getId(), fileName, true, null));
+            }
+        }
+        return new BatchResultDTO(items);
+    }
+
+    public BatchResultDTO deleteFiles(List<Long> fileIds, User owner) {
+        Set<Long> ids = new LinkedHashSet<>(fileIds);
+        checkBatchSize(ids.size());
+
+        List<FileMetadata> deleted = transactionTemplate.execute(status -> {
+            List<FileMetadata> files = fileMetadataRepository.findByOwnerAndIdIn(owner, ids);
+            if (!files.isEmpty()) {
+                List<Long> found = files.stream().map(FileMetadata::getId).toList();
+                storedBlobRepository.releaseFiles(owner.getId(), found);
+                fileMetadataRepository.deleteByOwnerAndIds(owner, found);
+                storageUsageService.record(owner.getId(), -files.size(),
+                        -files.stream().mapToLong(FileMetadata::getFileSize).sum());
+            }
+            return files;
+        });
+
+        // Shared blobs are left to the garbage collector; private copies go in the background
+        List<String> unsharedPaths = new ArrayList<>();
+        Set<Long> folderIds = new HashSet<>();
+        for (FileMetadata file : deleted) {
+            if (file.getBlob() == null) {
+                unsharedPaths.add(file.getFilePath());
+            }
+            folderIds.add(folderId(file));
+            fileMetadataCache.evict(file.getId());
+        }
+        if (!unsharedPaths.isEmpty()) {
+            blobStoreService.deleteObjects(unsharedPaths);
+        }
+        for (Long folderId : folderIds) {
+            fileListings.evict(CacheNames.key(owner.getId(), folderId));
+        }
+        return results(ids, deleted);
+    }
+
+    public BatchResultDTO moveFiles(List<Long> fileIds, Long folderId, User owner) {
+        Set<Long> ids = new LinkedHashSet<>(fileIds);
+        checkBatchSize(ids.size());
+        Folder folder = resolveFolder(folderId, owner);
+
+        List<FileMetadata> moved = transactionTemplate.execute(status -> {
+            List<FileMetadata> files = fileMetadataRepository.findByOwnerAndIdIn(owner, ids);
+            if (!files.isEmpty()) {
+                fileMetadataRepository.moveToFolder(owner, files.stream().map(FileMetadata::getId).toList(), folder);
+            }
+            return files;
+        });
+
+        Set<Long> folderIds = new HashSet<>();
+        for (FileMetadata file : moved) {
+            folderIds.add(folderId(file));
+        }
+        if (!moved.isEmpty()) {
+            folderIds.add(folderId);
+        }
+        for (Long id : folderIds) {
+            fileListings.evict(CacheNames.key(owner.getId(), id));
+        }
+        return results(ids, moved);
+    }
+
+    private StagedBlob stage(MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("Cannot upload empty file");
+        }
+        try {
+            return blobStoreService.stage(file, file.getContentType());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static String errorMessage(Throwable error) {
+        if (error instanceof IllegalArgumentException) {
+            return error.getMessage();
+        }
+        return "Failed to store file";
+    }
+
+    private static BatchResultDTO results(Set<Long> requested, List<FileMetadata> processed) {
+        Map<Long, FileMetadata> byId = new HashMap<>();
+        for (FileMetadata file : processed) {
+            byId.put(file.getId(), file);
+        }
+        List<BatchItemResultDTO> items = new ArrayList<>(requested.size());
+        for (Long id : requested) {
+            FileMetadata file = byId.get(id);
+            items.add(file != null
+                    ? new BatchItemResultDTO(id, file.getFileName(), true, null)
+                    : new BatchItemResultDTO(id, null, false, "File not found"));
+        }
+        return new BatchResultDTO(items);
+    }
+
+    private static Long folderId(FileMetadata file) {
+        return file.getFolder() != null ? file.getFolder().getId() : null;
+    }
+
+    private Folder resolveFolder(Long folderId, User owner) {
+        if (folderId == null) {
+            return null;
+        }
+        return folderRepository.findByIdAndOwner(folderId, owner)
+                .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
+    }
+
+    private void checkBatchSize(int size) {
+        if (size == 0) {
+            throw new IllegalArgumentException("Batch is empty");
+        }
+        if (size > maxItems) {
+            throw new IllegalArgumentException("Batch exceeds " + maxItems + " items");
+        }
+    }
+}
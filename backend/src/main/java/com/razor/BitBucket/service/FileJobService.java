@@ -0,0 +1,231 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.FileJobDTO;
+import com.razor.BitBucket.model.FileJob;
+import com.razor.BitBucket.model.FileMetadata;
+import com.razor.BitBucket.model.JobStage;
+import com.razor.BitBucket.model.JobStatus;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.FileJobRepository;
+import com.razor.BitBucket.repository.FileMetadataRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Post-upload work (thumbnails so far), queued in the file_jobs table in the same transaction
+ * that saves the file, so an upload returns once its bytes and row are committed and no job is
+ * lost to a crash. Workers claim jobs with SKIP LOCKED, so every replica can work the same queue.
+ * A worker only claims as many jobs as it has free threads; the rest wait in the table.
+ * Failed jobs are retried with exponential backoff and marked FAILED after the last attempt.
+ */
+@Service
+public class FileJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(FileJobService.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final FileJobRepository fileJobRepository;
+    private final FileMetadataRepository fileMetadataRepository;
+    private final ThumbnailService thumbnailService;
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration lease;
+    private final Duration retention;
+    private final ThreadPoolExecutor workers;
+    private final Semaphore slots;
+    private final ReentrantLock polling = new ReentrantLock();
+
+    public FileJobService(
+            FileJobRepository fileJobRepository,
+            FileMetadataRepository fileMetadataRepository,
+            ThumbnailService thumbnailService,
+            MeterRegistry meterRegistry,
+            @Value("${file.jobs.workers}") int workerCount,
+            @Value("${file.jobs.max-attempts}") int maxAttempts,
+            @Value("${file.jobs.retry-backoff}") Duration retryBackoff,
+            @Value("${file.jobs.lease}") Duration lease,
+            @Value("${file.jobs.retention}") Duration retention
+    ) {
+        this.fileJobRepository = fileJobRepository;
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.thumbnailService = thumbnailService;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.lease = lease;
+        this.retention = retention;
+        this.slots = new Semaphore(workerCount);
+
+        // Job count is bounded by the slots; the queue only ever holds those and poll requests
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "file-job-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Queues the stages that apply to each file. Must run in the transaction that saves the
+     * files; this node starts on them as soon as it commits.
+     */
+    public void enqueue(List<FileMetadata> files) {
+        List<FileJob> jobs = new ArrayList<>();
+        for (FileMetadata file : files) {
+            for (JobStage stage : JobStage.values()) {
+                if (applies(stage, file)) {
+                    jobs.add(new FileJob(file.getId(), stage));
+                }
+            }
+        }
+        if (jobs.isEmpty()) {
+            return;
+        }
+        fileJobRepository.saveAll(jobs);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                wakeUp();
+            }
+        });
+    }
+
+    public List<FileJobDTO> getJobs(Long fileId, User owner) {
+        fileMetadataRepository.findByIdAndOwner(fileId, owner)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+        return fileJobRepository.findByFileIdOrderByIdAsc(fileId).stream()
+                .map(job -> new FileJobDTO(job.getStage(), job.getStatus(), job.getAttempts(),
+                        job.getLastError(), job.getUpdatedAt()))
+                .toList();
+    }
+
+    /**
+     * Claims due jobs for the free worker threads. Also picks up jobs queued by other nodes,
+     * retries that have come due and jobs whose worker died.
+     */
+    @Scheduled(fixedDelayString = "${file.jobs.poll-interval}")
+    public void poll() {
+        if (!polling.tryLock()) {
+            return;
+        }
+        try {
+            while (true) {
+                int free = slots.availablePermits();
+                if (free == 0) {
+                    return;
+                }
+                Instant now = Instant.now();
+                List<FileJob> claimed = fileJobRepository.claim(now, now.plus(lease), free);
+                for (FileJob job : claimed) {
+                    slots.acquireUninterruptibly();
+                    workers.execute(() -> {
+                        try {
+                            run(job);
+                        } finally {
+                            slots.release();
+                        }
+                        // Keeps a backlog moving without waiting for the next scheduled poll
+                        poll();
+                    });
+                }
+                if (claimed.size() < free) {
+                    return;
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Could not claim file jobs", ex);
+        } finally {
+            polling.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${file.jobs.cleanup-interval}")
+    public void deleteFinishedJobs() {
+        int deleted = fileJobRepository.deleteFinished(Instant.now().minus(retention));
+        if (deleted > 0) {
+            log.info("Deleted {} finished file jobs", deleted);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Interrupted jobs stay RUNNING until their lease runs out and are then claimed again
+        workers.shutdownNow();
+    }
+
+    private void wakeUp() {
+        if (slots.availablePermits() > 0) {
+            workers.execute(this::poll);
+        }
+    }
+
+    private boolean applies(JobStage stage, FileMetadata file) {
+        return switch (stage) {
+            case THUMBNAIL -> thumbnailService.supports(file.getContentType());
+        };
+    }
+
+    private void run(FileJob job) {
+        Optional<FileMetadata> file = fileMetadataRepository.findById(job.getFileId());
+        String outcome;
+        try {
+            // Deleted while queued; the cleanup removes the job
+            if (file.isPresent()) {
+                process(job.getStage(), file.get());
+            }
+            fileJobRepository.finish(job.getId(), job.getAttempts(), JobStatus.DONE.name(), job.getRunAfter(),
+                    null, Instant.now());
+            outcome = "success";
+        } catch (Exception ex) {
+            String error = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getName();
+            error = error.substring(0, Math.min(error.length(), MAX_ERROR_LENGTH));
+            if (job.getAttempts() >= maxAttempts) {
+                log.warn("File job {} ({} of file {}) failed for good", job.getId(), job.getStage(),
+                        job.getFileId(), ex);
+                fileJobRepository.finish(job.getId(), job.getAttempts(), JobStatus.FAILED.name(),
+                        job.getRunAfter(), error, Instant.now());
+                outcome = "failed";
+            } else {
+                Duration backoff = retryBackoff.multipliedBy(1L << Math.min(job.getAttempts() - 1, 16));
+                log.info("File job {} ({} of file {}) failed, retrying in {}: {}", job.getId(), job.getStage(),
+                        job.getFileId(), backoff, error);
+                fileJobRepository.finish(job.getId(), job.getAttempts(), JobStatus.PENDING.name(),
+                        Instant.now().plus(backoff), error, Instant.now());
+                outcome = "retry";
+            }
+        }
+        Counter.builder("bitbucket.jobs")
+                .description("File jobs run, by how the attempt ended")
+                .tags("stage", job.getStage().name(), "outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void process(JobStage stage, FileMetadata file) throws Exception {
+        switch (stage) {
+            case THUMBNAIL -> thumbnailService.createThumbnails(file.getFilePath(), file.getFileSize());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.razor.BitBucket.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.razor.BitBucket.dto.FileDownloadDescriptor;
+import com.razor.BitBucket.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Download descriptors by file id. Like {@link com.razor.BitBucket.cache.TwoLevelCache}, every
+ * eviction bumps a generation counter for its key's stripe first, and a fill whose generation
+ * moved while it was loading takes its value back out, so a download that read a file just
+ * before it was deleted can't put it back in the cache.
+ */
+@Component
+public class FileMetadataCache {
+
+    private static final int GENERATION_STRIPES = 64;
+
+    private final Cache<Long, FileDownloadDescriptor> descriptors;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public FileMetadataCache(
+            @Value("${file.metadata-cache.max-entries}") long maxEntries,
+            @Value("${file.metadata-cache.ttl}") Duration ttl,
+            MeterRegistry meterRegistry
+    ) {
+        // The TTL only bounds how long another node's delete can go unnoticed; local deletes evict
+        this.descriptors = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, descriptors, "fileMetadata");
+    }
+
+    public FileDownloadDescriptor get(Long fileId, User owner, Supplier<Optional<FileDownloadDescriptor>> loader) {
+        FileDownloadDescriptor descriptor = descriptors.getIfPresent(fileId);
+        if (descriptor == null) {
+            long generation = generations.get(stripe(fileId));
+            descriptor = loader.get()
+                    .orElseThrow(() -> new IllegalArgumentException("File not found"));
+            descriptors.put(fileId, descriptor);
+            if (generations.get(stripe(fileId)) != generation) {
+                descriptors.invalidate(fileId);
+            }
+        }
+
+        // Same answer as findByIdAndOwner would give, without revealing that the id exists
+        if (!descriptor.getOwnerId().equals(owner.getId())) {
+            throw new IllegalArgumentException("File not found");
+        }
+        return descriptor;
+    }
+
+    public void evict(Long fileId) {
+        generations.incrementAndGet(stripe(fileId));
+        descriptors.invalidate(fileId);
+    }
+
+    static int stripe(Long fileId) {
+        int h = fileId.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+}
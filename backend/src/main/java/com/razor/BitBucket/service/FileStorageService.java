@@ -1,51 +1,96 @@
 package com.razor.BitBucket.service;
 
+import com.razor.BitBucket.cache.CacheNames;
+import com.razor.BitBucket.dto.CursorPageDTO;
+import com.razor.BitBucket.dto.DedupStatsDTO;
+import com.razor.BitBucket.dto.FileCursor;
 import com.razor.BitBucket.dto.FileDTO;
+import com.razor.BitBucket.dto.FileDownloadDescriptor;
+import com.razor.BitBucket.dto.FileListingWindow;
+import com.razor.BitBucket.dto.FileSortKey;
 import com.razor.BitBucket.dto.FileUploadResponse;
 import com.razor.BitBucket.model.FileMetadata;
 import com.razor.BitBucket.model.Folder;
+import com.razor.BitBucket.model.StoredBlob;
 import com.razor.BitBucket.model.User;
 import com.razor.BitBucket.repository.FileMetadataRepository;
 import com.razor.BitBucket.repository.FolderRepository;
-import org.springframework.beans.factory.annotation.Value;
+import com.razor.BitBucket.repository.StoredBlobRepository;
+import com.razor.BitBucket.service.BlobStoreService.StagedBlob;
+import com.razor.BitBucket.storage.StorageBackend;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.net.URI;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.UUID;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 @Service
 public class FileStorageService {
 
-    private final Path fileStorageLocation;
+    private static final Logger log = LoggerFactory.getLogger(FileStorageService.class);
+
     private final FileMetadataRepository fileMetadataRepository;
     private final FolderRepository folderRepository;
+    private final StoredBlobRepository storedBlobRepository;
+    private final BlobStoreService blobStoreService;
+    private final StorageBackend storageBackend;
+    private final FileMetadataCache fileMetadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final FileJobService fileJobService;
+    private final StorageUsageService storageUsageService;
+    private final Cache fileListings;
+    private final MeterRegistry meterRegistry;
 
     public FileStorageService(
-            @Value("${file.upload-dir}") String uploadDir,
             FileMetadataRepository fileMetadataRepository,
-            FolderRepository folderRepository
+            FolderRepository folderRepository,
+            StoredBlobRepository storedBlobRepository,
+            BlobStoreService blobStoreService,
+            StorageBackend storageBackend,
+            FileMetadataCache fileMetadataCache,
+            TransactionTemplate transactionTemplate,
+            FileJobService fileJobService,
+            StorageUsageService storageUsageService,
+            CacheManager cacheManager,
+            MeterRegistry meterRegistry
     ) {
-        this.fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
         this.fileMetadataRepository = fileMetadataRepository;
         this.folderRepository = folderRepository;
-
-        try {
-            Files.createDirectories(this.fileStorageLocation);
-        } catch (IOException ex) {
-            throw new RuntimeException("Could not create upload directory", ex);
-        }
+        this.storedBlobRepository = storedBlobRepository;
+        this.blobStoreService = blobStoreService;
+        this.storageBackend = storageBackend;
+        this.fileMetadataCache = fileMetadataCache;
+        this.transactionTemplate = transactionTemplate;
+        this.fileJobService = fileJobService;
+        this.storageUsageService = storageUsageService;
+        this.fileListings = cacheManager.getCache(CacheNames.FILE_LISTINGS);
+        this.meterRegistry = meterRegistry;
     }
 
     public FileUploadResponse uploadFile(MultipartFile file, Long folderId, User owner) {
+        return timed("upload", () -> store(file, folderId, owner));
+    }
+
+    private FileUploadResponse store(MultipartFile file, Long folderId, User owner) {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("Cannot upload empty file");
         }
@@ -56,82 +101,178 @@ public class FileStorageService {
                     .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
         }
 
+        storageUsageService.checkQuota(owner, file.getSize());
         String originalFilename = file.getOriginalFilename();
-        String storedFileName = UUID.randomUUID().toString() + "_" + originalFilename;
 
         try {
-            Path targetLocation = this.fileStorageLocation.resolve(storedFileName);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-
-            FileMetadata metadata = new FileMetadata(
-                    originalFilename,
-                    storedFileName,
-                    targetLocation.toString(),
-                    file.getSize(),
-                    file.getContentType(),
-                    folder,
-                    owner
-            );
-
-            metadata = fileMetadataRepository.save(metadata);
-
-            return new FileUploadResponse(
-                    metadata.getId(),
-                    metadata.getFileName(),
-                    metadata.getFileSize(),
-                    metadata.getContentType(),
-                    "File uploaded successfully"
-            );
-
+            StagedBlob staged = blobStoreService.stage(file, file.getContentType());
+            return saveMetadata(originalFilename, staged, file.getContentType(), folder, owner);
         } catch (IOException ex) {
             throw new RuntimeException("Failed to store file", ex);
         }
     }
 
-    public Resource downloadFile(Long fileId, User owner) {
-        FileMetadata metadata = fileMetadataRepository.findByIdAndOwner(fileId, owner)
-                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+    public FileUploadResponse importFile(Path source, String originalFilename, String contentType,
+                                         Folder folder, User owner) {
+        return timed("import", () -> {
+            try {
+                StagedBlob staged = blobStoreService.stage(source, contentType);
+                return saveMetadata(originalFilename, staged, contentType, folder, owner);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to store file", ex);
+            }
+        });
+    }
 
+    private FileUploadResponse saveMetadata(String originalFilename, StagedBlob staged, String contentType,
+                                            Folder folder, User owner) {
+        FileMetadata metadata;
         try {
-            Path filePath = Paths.get(metadata.getFilePath());
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists() && resource.isReadable()) {
-                return resource;
-            } else {
-                throw new RuntimeException("File not found or not readable");
-            }
-        } catch (Exception ex) {
-            throw new RuntimeException("Error downloading file", ex);
+            metadata = transactionTemplate.execute(status -> {
+                StoredBlob blob = blobStoreService.acquire(staged);
+                storageUsageService.record(owner.getId(), 1, staged.getSize());
+                FileMetadata saved = fileMetadataRepository.save(new FileMetadata(
+                        originalFilename,
+                        blob.getHash(),
+                        blob.getStorageKey(),
+                        staged.getSize(),
+                        contentType,
+                        blob,
+                        folder,
+                        owner
+                ));
+                fileJobService.enqueue(List.of(saved));
+                return saved;
+            });
+        } catch (RuntimeException ex) {
+            blobStoreService.discard(staged, null);
+            throw ex;
         }
+        // Only kept if the content was new
+        blobStoreService.discard(staged, metadata.getBlob());
+        fileListings.evict(CacheNames.key(owner.getId(), folder != null ? folder.getId() : null));
+        return uploadResponse(metadata);
     }
 
-    public String getFileName(Long fileId, User owner) {
-        FileMetadata metadata = fileMetadataRepository.findByIdAndOwner(fileId, owner)
-                .orElseThrow(() -> new IllegalArgumentException("File not found"));
-        return metadata.getFileName();
+    private static FileUploadResponse uploadResponse(FileMetadata metadata) {
+        return new FileUploadResponse(
+                metadata.getId(),
+                metadata.getFileName(),
+                metadata.getFileSize(),
+                metadata.getContentType(),
+                "File uploaded successfully"
+        );
     }
 
-    public String getContentType(Long fileId, User owner) {
+    // What the upload that created the file returned
+    public FileUploadResponse getUploadResponse(Long fileId, User owner) {
         FileMetadata metadata = fileMetadataRepository.findByIdAndOwner(fileId, owner)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
-        return metadata.getContentType();
+        return uploadResponse(metadata);
+    }
+
+    public FileDownloadDescriptor getDownloadDescriptor(Long fileId, User owner) {
+        return fileMetadataCache.get(fileId, owner, () ->
+                fileMetadataRepository.findByIdAndOwner(fileId, owner).map(this::convertToDescriptor));
+    }
+
+    public Resource downloadFile(FileDownloadDescriptor descriptor) {
+        Resource resource = blobStoreService.open(descriptor.getStorageKey(), descriptor.getFileSize());
+        if (!resource.exists() || !resource.isReadable()) {
+            throw new RuntimeException("File not found or not readable");
+        }
+        return resource;
+    }
+
+    /**
+     * The file's bytes as stored, for a client that accepts the content coding they are stored with.
+     */
+    public Optional<Resource> downloadEncoded(FileDownloadDescriptor descriptor, String encoding) {
+        return blobStoreService.openEncoded(descriptor.getStorageKey(), encoding);
+    }
+
+    public boolean isCompressed(FileDownloadDescriptor descriptor) {
+        return blobStoreService.isCompressed(descriptor.getStorageKey());
+    }
+
+    public Optional<URI> getDownloadUrl(FileDownloadDescriptor descriptor) {
+        return blobStoreService.getDownloadUrl(descriptor.getStorageKey(), descriptor.getFileName(),
+                descriptor.getContentType());
     }
 
     public void deleteFile(Long fileId, User owner) {
+        timed("delete", () -> {
+            remove(fileId, owner);
+            return null;
+        });
+    }
+
+    private void remove(Long fileId, User owner) {
         FileMetadata metadata = fileMetadataRepository.findByIdAndOwner(fileId, owner)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
 
-        try {
-            Path filePath = Paths.get(metadata.getFilePath());
-            Files.deleteIfExists(filePath);
+        transactionTemplate.executeWithoutResult(status -> {
             fileMetadataRepository.delete(metadata);
-        } catch (IOException ex) {
-            throw new RuntimeException("Failed to delete file", ex);
+            storageUsageService.record(owner.getId(), -1, -metadata.getFileSize());
+            if (metadata.getBlob() != null) {
+                blobStoreService.release(metadata.getBlob().getId());
+                return;
+            }
+            // A private copy from before blobs; if the delete rolls back, the row still needs it
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        storageBackend.delete(metadata.getFilePath());
+                    } catch (IOException ex) {
+                        log.warn("Could not delete object {} of deleted file {}", metadata.getFilePath(), fileId, ex);
+                    }
+                }
+            });
+        });
+        fileMetadataCache.evict(fileId);
+        fileListings.evict(CacheNames.key(owner.getId(),
+                metadata.getFolder() != null ? metadata.getFolder().getId() : null));
+    }
+
+    // Service time without the request body transfer, which http.server.requests includes
+    private <T> T timed(String operation, Supplier<T> action) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            T result = action.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder("bitbucket.files.operations")
+                    .description("File uploads, imports and deletes")
+                    .tags("operation", operation, "outcome", outcome)
+                    .register(meterRegistry));
         }
     }
 
+    public DedupStatsDTO getDedupStats() {
+        long files = fileMetadataRepository.count();
+        long logicalBytes = fileMetadataRepository.getTotalFileSize();
+        long blobs = storedBlobRepository.count();
+        long physicalBytes = storedBlobRepository.getTotalBlobSize() + fileMetadataRepository.getTotalUnsharedFileSize();
+        double ratio = physicalBytes == 0 ? 1.0 : (double) logicalBytes / physicalBytes;
+        return new DedupStatsDTO(files, logicalBytes, blobs, physicalBytes, logicalBytes - physicalBytes, ratio);
+    }
+
     public Page<FileDTO> listFiles(User owner, Long folderId, Pageable pageable) {
+        // The first page is what folder browsing asks for, and is served from a cached window
+        if (FileListingWindow.covers(pageable)) {
+            return fileListings.get(CacheNames.key(owner.getId(), folderId), () -> {
+                Page<FileDTO> newest = loadFiles(owner, folderId, PageRequest.of(0, FileListingWindow.SIZE,
+                        pageable.getSort()));
+                return new FileListingWindow(newest.getContent(), newest.getTotalElements());
+            }).page(pageable);
+        }
+        return loadFiles(owner, folderId, pageable);
+    }
+
+    private Page<FileDTO> loadFiles(User owner, Long folderId, Pageable pageable) {
         Page<FileMetadata> files;
 
         if (folderId == null) {
@@ -145,11 +286,95 @@ public class FileStorageService {
         return files.map(this::convertToDTO);
     }
 
-    public Page<FileDTO> searchFiles(User owner, String searchTerm, Pageable pageable) {
-        return fileMetadataRepository.searchByFileName(owner, searchTerm, pageable)
+    /**
+     * Ranked by match quality, best first.
+     *
+     * @param prefix only match names that start with the term
+     */
+    public Page<FileDTO> searchFiles(User owner, String searchTerm, boolean prefix, Pageable pageable) {
+        return fileMetadataRepository.searchByFileName(owner.getId(), searchTerm, likePattern(searchTerm, prefix),
+                        pageable)
                 .map(this::convertToDTO);
     }
 
+    /**
+     * Keyset variant of {@link #listFiles}. A non-blank cursor carries its own sort, which
+     * then takes precedence over the one passed in.
+     */
+    public CursorPageDTO<FileDTO> listFiles(User owner, Long folderId, String cursor,
+                                            FileSortKey sortKey, Sort.Direction direction, int size) {
+        Folder folder = null;
+        if (folderId != null) {
+            folder = folderRepository.findByIdAndOwner(folderId, owner)
+                    .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
+        }
+        FileCursor after = decodeCursor(cursor);
+        if (after != null) {
+            sortKey = after.getSortKey();
+            direction = after.getDirection();
+        }
+        return toCursorPage(fileMetadataRepository.findSliceInFolder(owner, folder, sortKey, direction, after,
+                checkPageSize(size)), sortKey, direction);
+    }
+
+    public CursorPageDTO<FileDTO> searchFiles(User owner, String searchTerm, boolean prefix, String cursor,
+                                              FileSortKey sortKey, Sort.Direction direction, int size) {
+        FileCursor after = decodeCursor(cursor);
+        if (after != null) {
+            sortKey = after.getSortKey();
+            direction = after.getDirection();
+        }
+        return toCursorPage(fileMetadataRepository.findSliceByFileName(owner, likePattern(searchTerm, prefix),
+                sortKey, direction, after, checkPageSize(size)), sortKey, direction);
+    }
+
+    // Wildcards typed by the user are matched literally
+    private String likePattern(String searchTerm, boolean prefix) {
+        String escaped = searchTerm.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return (prefix ? "" : "%") + escaped + "%";
+    }
+
+    private FileCursor decodeCursor(String cursor) {
+        return cursor == null || cursor.isBlank() ? null : FileCursor.decode(cursor);
+    }
+
+    private int checkPageSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        return size;
+    }
+
+    private CursorPageDTO<FileDTO> toCursorPage(Slice<FileMetadata> slice, FileSortKey sortKey,
+                                                Sort.Direction direction) {
+        String nextCursor = slice.hasNext()
+                ? FileCursor.after(slice.getContent().get(slice.getNumberOfElements() - 1), sortKey, direction).encode()
+                : null;
+        return new CursorPageDTO<>(slice.map(this::convertToDTO).getContent(), slice.getSize(),
+                slice.hasNext(), nextCursor);
+    }
+
+    private FileDownloadDescriptor convertToDescriptor(FileMetadata metadata) {
+        // Blob-backed files are named by their content hash; older files are immutable once stored,
+        // so id + size + upload time identifies their exact bytes
+        String eTag = metadata.getBlob() != null
+                ? "\"" + metadata.getStoredFileName() + "\""
+                : "\"" + metadata.getId() + "-" + Long.toHexString(metadata.getFileSize())
+                        + "-" + Long.toHexString(metadata.getUploadedAt().toEpochMilli()) + "\"";
+        return new FileDownloadDescriptor(
+                metadata.getId(),
+                metadata.getOwner().getId(),
+                metadata.getFileName(),
+                metadata.getContentType(),
+                metadata.getFileSize(),
+                metadata.getUploadedAt(),
+                metadata.getFilePath(),
+                eTag,
+                // The content hash every blob-backed file is stored under
+                metadata.getBlob() != null ? metadata.getStoredFileName() : null
+        );
+    }
+
     private FileDTO convertToDTO(FileMetadata metadata) {
         return new FileDTO(
                 metadata.getId(),
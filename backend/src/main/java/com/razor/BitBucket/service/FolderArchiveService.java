@@ -0,0 +1,176 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.model.Folder;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.FolderRepository;
+import com.razor.BitBucket.repository.FolderRepository.ArchiveEntry;
+import com.razor.BitBucket.util.ContentTypes;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Service
+public class FolderArchiveService {
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 1000;
+
+    private final FolderRepository folderRepository;
+    private final BlobStoreService blobStoreService;
+
+    public FolderArchiveService(FolderRepository folderRepository, BlobStoreService blobStoreService) {
+        this.folderRepository = folderRepository;
+        this.blobStoreService = blobStoreService;
+    }
+
+    /**
+     * Checks the folder exists, so a missing one is reported before any of the response has
+     * been written.
+     */
+    public FolderArchive prepare(Long folderId, User owner) {
+        Folder folder = folderRepository.findByIdAndOwner(folderId, owner)
+                .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
+        return new FolderArchive(folderId, owner.getId(), segment(folder.getName()));
+    }
+
+    /**
+     * Streams the archive as it is produced. Entries are read a page at a time and only one
+     * file is open at a time, so what is held per file is its entry name, which the ZIP's
+     * central directory needs at the end anyway. No connection is held between pages.
+     */
+    public void write(FolderArchive archive, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE));
+        Set<String> names = new HashSet<>();
+        String root = archive.getName() + "/";
+        String afterPath = "";
+        String afterName = "";
+        long afterFileId = -1;
+        List<ArchiveEntry> page;
+        do {
+            page = folderRepository.findArchiveEntries(archive.getFolderId(), archive.getOwnerId(),
+                    afterPath, afterName, afterFileId, PAGE_SIZE);
+            for (ArchiveEntry entry : page) {
+                write(entry, root, names, zip);
+            }
+            if (!page.isEmpty()) {
+                ArchiveEntry last = page.get(page.size() - 1);
+                afterPath = last.getFolderPath();
+                afterName = last.getFileName() != null ? last.getFileName() : "";
+                afterFileId = last.getFileId() != null ? last.getFileId() : 0;
+            }
+        } while (page.size() == PAGE_SIZE);
+        zip.finish();
+        zip.flush();
+    }
+
+    private void write(ArchiveEntry entry, String root, Set<String> names, ZipOutputStream zip) throws IOException {
+        String folderPath = root + relativePath(entry.getFolderPath());
+        if (entry.getFileName() == null) {
+            // Keeps empty folders in the archive
+            zip.putNextEntry(new ZipEntry(folderPath));
+            zip.closeEntry();
+            return;
+        }
+        zip.putNextEntry(fileEntry(entry, unique(names, folderPath, segment(entry.getFileName())), zip));
+        try (InputStream in = blobStoreService.open(entry.getStorageKey(), entry.getFileSize())
+                .getInputStream()) {
+            in.transferTo(zip);
+        }
+        zip.closeEntry();
+    }
+
+    private static ZipEntry fileEntry(ArchiveEntry entry, String name, ZipOutputStream zip) {
+        ZipEntry zipEntry = new ZipEntry(name);
+        if (entry.getUploadedAtMillis() != null) {
+            zipEntry.setLastModifiedTime(FileTime.from(entry.getUploadedAtMillis(), TimeUnit.MILLISECONDS));
+        }
+        if (!ContentTypes.isCompressed(entry.getContentType())) {
+            zip.setLevel(Deflater.BEST_SPEED);
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+        } else if (entry.getCrc32() != null) {
+            // STORED needs size and CRC in the local header; both are known up front, so the
+            // content goes out in a single pass
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(entry.getFileSize());
+            zipEntry.setCompressedSize(entry.getFileSize());
+            zipEntry.setCrc(entry.getCrc32());
+        } else {
+            // No checksum on record; copying without compression is the next best thing to STORED
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+        }
+        return zipEntry;
+    }
+
+    private static String relativePath(String folderPath) {
+        if (folderPath.isEmpty()) {
+            return "";
+        }
+        StringBuilder path = new StringBuilder();
+        for (String name : folderPath.split("/")) {
+            path.append(segment(name)).append('/');
+        }
+        return path.toString();
+    }
+
+    // Names are used as path segments; keep them from climbing out of the archive root
+    private static String segment(String name) {
+        String cleaned = name.replace('/', '_').replace('\\', '_');
+        if (cleaned.isEmpty() || cleaned.equals(".") || cleaned.equals("..")) {
+            return "_";
+        }
+        return cleaned;
+    }
+
+    // File names are not unique within a folder, entry names in a ZIP have to be
+    private static String unique(Set<String> names, String folderPath, String fileName) {
+        String name = folderPath + fileName;
+        if (names.add(name)) {
+            return name;
+        }
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        for (int copy = 1; ; copy++) {
+            name = folderPath + base + " (" + copy + ")" + extension;
+            if (names.add(name)) {
+                return name;
+            }
+        }
+    }
+
+    public static final class FolderArchive {
+        private final Long folderId;
+        private final Long ownerId;
+        private final String name;
+
+        FolderArchive(Long folderId, Long ownerId, String name) {
+            this.folderId = folderId;
+            this.ownerId = ownerId;
+            this.name = name;
+        }
+
+        Long getFolderId() {
+            return folderId;
+        }
+
+        Long getOwnerId() {
+            return ownerId;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
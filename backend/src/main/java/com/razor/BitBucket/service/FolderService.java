@@ -1,24 +1,69 @@
 package com.razor.BitBucket.service;
 
+import com.razor.BitBucket.cache.CacheNames;
 import com.razor.BitBucket.dto.CreateFolderRequest;
 import com.razor.BitBucket.dto.FolderDTO;
+import com.razor.BitBucket.dto.FolderStatsDTO;
+import com.razor.BitBucket.dto.MoveFolderRequest;
 import com.razor.BitBucket.model.Folder;
 import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.FileMetadataRepository;
 import com.razor.BitBucket.repository.FolderRepository;
+import com.razor.BitBucket.repository.StoredBlobRepository;
+import com.razor.BitBucket.repository.UploadSessionRepository;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class FolderService {
 
     private final FolderRepository folderRepository;
+    private final FileMetadataRepository fileMetadataRepository;
+    private final StoredBlobRepository storedBlobRepository;
+    private final UploadSessionRepository uploadSessionRepository;
+    private final BlobStoreService blobStoreService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final FileMetadataCache fileMetadataCache;
+    private final CacheManager cacheManager;
+    private final TransactionTemplate transactionTemplate;
+    private final StorageUsageService storageUsageService;
 
-    public FolderService(FolderRepository folderRepository) {
+    public FolderService(
+            FolderRepository folderRepository,
+            FileMetadataRepository fileMetadataRepository,
+            StoredBlobRepository storedBlobRepository,
+            UploadSessionRepository uploadSessionRepository,
+            BlobStoreService blobStoreService,
+            ChunkedUploadService chunkedUploadService,
+            FileMetadataCache fileMetadataCache,
+            CacheManager cacheManager,
+            TransactionTemplate transactionTemplate,
+            StorageUsageService storageUsageService
+    ) {
         this.folderRepository = folderRepository;
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.storedBlobRepository = storedBlobRepository;
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.blobStoreService = blobStoreService;
+        this.chunkedUploadService = chunkedUploadService;
+        this.fileMetadataCache = fileMetadataCache;
+        this.cacheManager = cacheManager;
+        this.transactionTemplate = transactionTemplate;
+        this.storageUsageService = storageUsageService;
     }
 
+    @CacheEvict(cacheNames = CacheNames.FOLDER_CHILDREN,
+            key = "T(com.razor.BitBucket.cache.CacheNames).key(#owner.id, #request.parentId)")
     public FolderDTO createFolder(CreateFolderRequest request, User owner) {
         Folder parent = null;
         if (request.getParentId() != null) {
@@ -36,6 +81,8 @@ public class FolderService {
         return convertToDTO(folder);
     }
 
+    @Cacheable(cacheNames = CacheNames.FOLDER_CHILDREN, sync = true,
+            key = "T(com.razor.BitBucket.cache.CacheNames).key(#owner.id, #parentId)")
     public List<FolderDTO> listFolders(User owner, Long parentId) {
         List<Folder> folders;
 
@@ -52,16 +99,131 @@ public class FolderService {
                 .collect(Collectors.toList());
     }
 
+    @Cacheable(cacheNames = CacheNames.FOLDERS, sync = true,
+            key = "T(com.razor.BitBucket.cache.CacheNames).key(#owner.id, #folderId)")
     public FolderDTO getFolder(Long folderId, User owner) {
         Folder folder = folderRepository.findByIdAndOwner(folderId, owner)
                 .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
         return convertToDTO(folder);
     }
 
+    /**
+     * Deletes the folder with every folder and file below it in a fixed number of statements.
+     * Shared blobs are only released here and collected later; private copies and the part
+     * files of unfinished uploads are deleted in the background once the rows are gone.
+     */
     public void deleteFolder(Long folderId, User owner) {
         Folder folder = folderRepository.findByIdAndOwner(folderId, owner)
                 .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
-        folderRepository.delete(folder);
+        Long parentId = folder.getParent() != null ? folder.getParent().getId() : null;
+        Long ownerId = owner.getId();
+
+        SubtreeDeletion deletion = transactionTemplate.execute(status -> {
+            List<Long> folderIds = folderRepository.findSubtreeIds(folderId, ownerId);
+            List<Long> fileIds = fileMetadataRepository.findIdsInSubtree(folderId, ownerId);
+            List<String> unsharedPaths = fileMetadataRepository.findUnsharedPathsInSubtree(folderId, ownerId);
+            List<String> tempPaths = uploadSessionRepository.findTempPathsInSubtree(folderId, ownerId);
+            FolderRepository.SubtreeTotals totals = folderRepository.getSubtreeTotals(folderId, ownerId);
+
+            storedBlobRepository.releaseSubtree(folderId, ownerId);
+            uploadSessionRepository.deleteInSubtree(folderId, ownerId);
+            fileMetadataRepository.deleteInSubtree(folderId, ownerId);
+            folderRepository.deleteSubtree(folderId, ownerId);
+            storageUsageService.record(ownerId, -totals.getFiles(), -totals.getBytes());
+            return new SubtreeDeletion(folderIds, fileIds, unsharedPaths, tempPaths);
+        });
+
+        blobStoreService.deleteObjects(deletion.unsharedPaths());
+        chunkedUploadService.deleteTempFiles(deletion.tempPaths());
+
+        for (Long fileId : deletion.fileIds()) {
+            fileMetadataCache.evict(fileId);
+        }
+        for (Long id : deletion.folderIds()) {
+            String key = CacheNames.key(ownerId, id);
+            evict(CacheNames.FOLDERS, key);
+            evict(CacheNames.FOLDER_CHILDREN, key);
+            evict(CacheNames.FILE_LISTINGS, key);
+        }
+        evict(CacheNames.FOLDER_CHILDREN, CacheNames.key(ownerId, parentId));
+    }
+
+    public FolderDTO moveFolder(Long folderId, MoveFolderRequest request, User owner) {
+        MovedFolder moved = transactionTemplate.execute(status -> {
+            lockForMove(folderId, request.getParentId(), owner);
+            Folder folder = folderRepository.findByIdAndOwner(folderId, owner)
+                    .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
+            Long oldParentId = folder.getParent() != null ? folder.getParent().getId() : null;
+
+            Folder parent = null;
+            if (request.getParentId() != null) {
+                parent = folderRepository.findByIdAndOwner(request.getParentId(), owner)
+                        .orElseThrow(() -> new IllegalArgumentException("Parent folder not found"));
+                // Covers moving a folder into itself as well
+                if (folderRepository.isInSubtree(folderId, owner.getId(), parent.getId())) {
+                    throw new IllegalArgumentException("A folder cannot be moved into its own subtree");
+                }
+            }
+
+            if (Objects.equals(oldParentId, request.getParentId())) {
+                return new MovedFolder(convertToDTO(folder), oldParentId, false);
+            }
+            if (folderRepository.existsByNameAndOwnerAndParent(folder.getName(), owner, parent)) {
+                throw new IllegalStateException("Folder with this name already exists in this location");
+            }
+
+            // Only the moved row changes; everything below follows its parent pointer
+            folder.setParent(parent);
+            return new MovedFolder(convertToDTO(folderRepository.save(folder)), oldParentId, true);
+        });
+
+        if (moved.changed()) {
+            evict(CacheNames.FOLDERS, CacheNames.key(owner.getId(), folderId));
+            evict(CacheNames.FOLDER_CHILDREN, CacheNames.key(owner.getId(), moved.oldParentId()));
+            evict(CacheNames.FOLDER_CHILDREN, CacheNames.key(owner.getId(), request.getParentId()));
+        }
+        return moved.folder();
+    }
+
+    /**
+     * Locks the moved folder and every folder above the new parent, so the cycle check stays
+     * true until the move commits: a concurrent move of any folder on that chain (such as the
+     * new parent into the moved folder) waits for us and then sees the new parent pointer.
+     * A folder that moves onto the chain while we lock it makes us lock again.
+     */
+    private void lockForMove(Long folderId, Long parentId, User owner) {
+        Set<Long> locked = new HashSet<>();
+        while (true) {
+            Set<Long> needed = new HashSet<>();
+            needed.add(folderId);
+            if (parentId != null) {
+                needed.addAll(folderRepository.findAncestorIds(parentId, owner.getId()));
+            }
+            if (locked.containsAll(needed)) {
+                return;
+            }
+            folderRepository.lockAll(needed);
+            locked.addAll(needed);
+        }
+    }
+
+    private record MovedFolder(FolderDTO folder, Long oldParentId, boolean changed) {
+    }
+
+    public FolderStatsDTO getFolderStats(Long folderId, User owner) {
+        FolderRepository.SubtreeTotals totals = folderRepository.getSubtreeTotals(folderId, owner.getId());
+        // An unknown folder leaves the subtree empty, which counts as minus one subfolder
+        if (totals.getFolders() < 0) {
+            throw new IllegalArgumentException("Folder not found");
+        }
+        return new FolderStatsDTO(folderId, totals.getFolders(), totals.getFiles(), totals.getBytes());
+    }
+
+    private void evict(String cacheName, String key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            cache.evict(key);
+        }
     }
 
     private FolderDTO convertToDTO(Folder folder) {
@@ -73,4 +235,8 @@ public class FolderService {
                 folder.getCreatedAt()
         );
     }
+
+    private record SubtreeDeletion(List<Long> folderIds, List<Long> fileIds,
+                                   List<String> unsharedPaths, List<String> tempPaths) {
+    }
 }
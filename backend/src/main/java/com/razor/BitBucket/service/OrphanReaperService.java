@@ -0,0 +1,81 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.storage.StorageBackend;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reconciles storage against the database, at startup and then periodically: objects no blob
+ * refers to (an upload that crashed between writing its object and committing, a failed
+ * delete) and staging files of writes and uploads that never finished are deleted. Only
+ * objects older than the grace period are considered, so uploads still on their way to a
+ * commit are left alone.
+ * <p>
+ * Runs on its own thread, since a pass over millions of objects takes a while.
+ */
+@Service
+public class OrphanReaperService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrphanReaperService.class);
+    private static final int BATCH_SIZE = 1000;
+
+    private final StorageBackend storageBackend;
+    private final BlobStoreService blobStoreService;
+    private final Duration grace;
+    private final Duration interval;
+    private final ScheduledExecutorService runner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "orphan-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public OrphanReaperService(
+            StorageBackend storageBackend,
+            BlobStoreService blobStoreService,
+            @Value("${file.storage.orphans.grace}") Duration grace,
+            @Value("${file.storage.orphans.interval}") Duration interval
+    ) {
+        this.storageBackend = storageBackend;
+        this.blobStoreService = blobStoreService;
+        this.grace = grace;
+        this.interval = interval;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        runner.scheduleWithFixedDelay(this::reap, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    private void reap() {
+        Instant cutoff = Instant.now().minus(grace);
+        try {
+            int abandoned = storageBackend.deleteAbandonedWrites(cutoff)
+                    + blobStoreService.deleteAbandonedStaging(cutoff);
+            AtomicInteger orphans = new AtomicInteger();
+            storageBackend.listObjects(cutoff, BATCH_SIZE,
+                    keys -> orphans.addAndGet(blobStoreService.deleteUnreferenced(keys)));
+            if (abandoned > 0 || orphans.get() > 0) {
+                log.info("Deleted {} orphaned objects and {} abandoned writes", orphans.get(), abandoned);
+            }
+        } catch (Exception ex) {
+            log.warn("Orphan reaping stopped early", ex);
+        }
+    }
+}
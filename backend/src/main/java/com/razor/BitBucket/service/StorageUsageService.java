@@ -0,0 +1,106 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.StorageUsageDTO;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.StorageUsageRepository;
+import com.razor.BitBucket.repository.StorageUsageRepository.Totals;
+import com.razor.BitBucket.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps a running count of each user's files and bytes, so checking a quota costs the same
+ * however many files the user has. Every change to a user's files records its delta in the
+ * same transaction; a periodic reconciliation corrects any drift.
+ */
+@Service
+public class StorageUsageService {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageUsageService.class);
+
+    private final StorageUsageRepository storageUsageRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long defaultQuota;
+    private final int stripes;
+
+    public StorageUsageService(
+            StorageUsageRepository storageUsageRepository,
+            UserRepository userRepository,
+            TransactionTemplate transactionTemplate,
+            @Value("${file.quota.default}") DataSize defaultQuota,
+            @Value("${file.quota.stripes}") int stripes
+    ) {
+        this.storageUsageRepository = storageUsageRepository;
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.defaultQuota = defaultQuota.toBytes();
+        this.stripes = stripes;
+    }
+
+    /**
+     * Refuses an upload that would take the user past their quota, before any of it is stored.
+     * Uploads running at the same time are not counted until they finish, so together they
+     * can overshoot by what is in flight.
+     */
+    public void checkQuota(User owner, long incomingBytes) {
+        long quota = quotaOf(owner);
+        if (quota <= 0) {
+            return;
+        }
+        long used = storageUsageRepository.getTotals(owner.getId()).getBytes();
+        if (used + incomingBytes > quota) {
+            throw new IllegalArgumentException("Storage quota exceeded: " + used + " of " + quota
+                    + " bytes used, upload needs " + incomingBytes);
+        }
+    }
+
+    /**
+     * Must run inside the transaction that adds or removes the files.
+     */
+    public void record(Long ownerId, long files, long bytes) {
+        if (files == 0 && bytes == 0) {
+            return;
+        }
+        storageUsageRepository.add(ownerId, ThreadLocalRandom.current().nextInt(stripes), files, bytes);
+    }
+
+    public StorageUsageDTO getUsage(User owner) {
+        Totals totals = storageUsageRepository.getTotals(owner.getId());
+        long quota = quotaOf(owner);
+        return new StorageUsageDTO(totals.getFiles(), totals.getBytes(), quota > 0 ? quota : null);
+    }
+
+    public StorageUsageDTO setQuota(Long userId, Long quotaBytes) {
+        if (quotaBytes != null && quotaBytes < 0) {
+            throw new IllegalArgumentException("Quota must not be negative");
+        }
+        User user = transactionTemplate.execute(status -> {
+            User found = userRepository.findById(userId)
+                    .orElseThrow(() -> new IllegalArgumentException("User not found"));
+            found.setStorageQuota(quotaBytes);
+            return found;
+        });
+        return getUsage(user);
+    }
+
+    // Also runs at startup, which fills in the counters of files stored before they existed
+    @Scheduled(fixedDelayString = "${file.quota.reconcile-interval}")
+    public void reconcile() {
+        Integer corrected = transactionTemplate.execute(status -> storageUsageRepository.reconcile());
+        if (corrected != null && corrected > 0) {
+            log.info("Corrected storage usage counters of {} users", corrected);
+        }
+    }
+
+    private long quotaOf(User user) {
+        return user.getStorageQuota() != null ? user.getStorageQuota() : defaultQuota;
+    }
+}
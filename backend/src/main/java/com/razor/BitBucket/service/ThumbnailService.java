@@ -0,0 +1,210 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.cache.SingleFlight;
+import com.razor.BitBucket.dto.FileDownloadDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * JPEG thumbnails at a few fixed sizes, made once per stored object and kept in the
+ * {@link DerivativeCache}. Uploads queue them as a file job; a request for one that isn't
+ * there yet (job still queued, evicted, older file) makes it on the spot.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private final BlobStoreService blobStoreService;
+    private final DerivativeCache derivativeCache;
+    private final int[] sizes; // ascending
+    private final float quality;
+    private final long maxSourcePixels;
+    private final Set<String> readableTypes;
+    private final SingleFlight generations = new SingleFlight();
+
+    public ThumbnailService(
+            BlobStoreService blobStoreService,
+            DerivativeCache derivativeCache,
+            @Value("${file.thumbnails.sizes}") List<Integer> sizes,
+            @Value("${file.thumbnails.quality}") float quality,
+            @Value("${file.thumbnails.max-source-pixels}") long maxSourcePixels
+    ) {
+        if (sizes.isEmpty()) {
+            throw new IllegalArgumentException("file.thumbnails.sizes must not be empty");
+        }
+        this.blobStoreService = blobStoreService;
+        this.derivativeCache = derivativeCache;
+        this.sizes = sizes.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        this.quality = quality;
+        this.maxSourcePixels = maxSourcePixels;
+        this.readableTypes = Set.of(ImageIO.getReaderMIMETypes());
+    }
+
+    public boolean supports(String contentType) {
+        return contentType != null && readableTypes.contains(contentType.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The smallest configured size at least as large as requested, or the largest there is.
+     */
+    public int snap(int requested) {
+        for (int size : sizes) {
+            if (size >= requested) {
+                return size;
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Identifies a thumbnail's bytes: stored objects never change, so neither do their thumbnails.
+     */
+    public String name(String storageKey, int size) {
+        return sha256(storageKey) + "-" + size + ".jpg";
+    }
+
+    public byte[] getThumbnail(FileDownloadDescriptor file, int size) {
+        if (!supports(file.getContentType())) {
+            throw new IllegalArgumentException("No thumbnail for this file type");
+        }
+        String name = name(file.getStorageKey(), size);
+        byte[] thumbnail = derivativeCache.read(name);
+        if (thumbnail == null) {
+            try {
+                createThumbnails(file.getStorageKey(), file.getFileSize());
+            } catch (Exception ex) {
+                throw new IllegalStateException("Could not create thumbnail", ex);
+            }
+            thumbnail = derivativeCache.read(name);
+        }
+        if (thumbnail == null) {
+            throw new IllegalArgumentException("No thumbnail for this file");
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Makes every size that isn't cached yet. All sizes come out of one decode; a job and a
+     * request for the same file share it.
+     */
+    public void createThumbnails(String storageKey, long fileSize) throws Exception {
+        generations.load(storageKey, () -> {
+            if (Arrays.stream(sizes).allMatch(size -> derivativeCache.contains(name(storageKey, size)))) {
+                return null;
+            }
+            BufferedImage image = decode(storageKey, fileSize, sizes[sizes.length - 1]);
+            if (image == null) {
+                return null;
+            }
+            // Largest first, each scaled from the previous one, which is cheaper and looks better
+            // than jumping straight from the original to a small size
+            for (int i = sizes.length - 1; i >= 0; i--) {
+                image = scale(image, sizes[i]);
+                derivativeCache.write(name(storageKey, sizes[i]), encode(image));
+            }
+            return null;
+        });
+    }
+
+    private BufferedImage decode(String storageKey, long fileSize, int largestSize) throws IOException {
+        Resource resource = blobStoreService.open(storageKey, fileSize);
+        try (InputStream in = resource.getInputStream();
+             ImageInputStream images = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(images);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(images, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxSourcePixels) {
+                    log.info("Not creating thumbnails for {}: {}x{} is over the pixel limit", storageKey, width, height);
+                    return null;
+                }
+                // Skips source pixels while decoding, so a 40MP photo never exists at full size in memory.
+                // Keeps at least twice the largest thumbnail for the scaling to work with.
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (largestSize * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int size) {
+        double factor = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+
+        // JPEG has no alpha, so transparent areas become white rather than black
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+}
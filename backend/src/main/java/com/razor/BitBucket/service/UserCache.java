@@ -0,0 +1,75 @@
+package com.razor.BitBucket.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.razor.BitBucket.cache.SingleFlight;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Users by id, shared by the JWT filter and the controllers so an authenticated request
+ * normally costs no user query at all. Entries are detached entities; they only ever
+ * serve as owner references and for the role and email.
+ */
+@Component
+public class UserCache {
+
+    private final UserRepository userRepository;
+    private final Cache<Long, User> users;
+    private final SingleFlight loads = new SingleFlight();
+
+    public UserCache(
+            UserRepository userRepository,
+            @Value("${auth.user-cache.max-entries}") long maxEntries,
+            @Value("${auth.user-cache.ttl}") Duration ttl,
+            MeterRegistry meterRegistry
+    ) {
+        this.userRepository = userRepository;
+        // The TTL only bounds how long another node's account change can go unnoticed; local changes evict
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, users, "users");
+    }
+
+    public Optional<User> get(Long id) {
+        User user = users.getIfPresent(id);
+        if (user != null) {
+            return Optional.of(user);
+        }
+        // Loaded outside Caffeine's compute, which would pin a virtual thread for the query
+        try {
+            return Optional.ofNullable(loads.load(id, () -> {
+                User loaded = userRepository.findById(id).orElse(null);
+                if (loaded != null) {
+                    users.put(id, loaded);
+                }
+                return loaded;
+            }));
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // For tokens issued before they carried the user id
+    public Optional<User> getByEmail(String email) {
+        Optional<User> user = userRepository.findByEmail(email);
+        user.ifPresent(found -> users.put(found.getId(), found));
+        return user;
+    }
+
+    public void evict(Long id) {
+        users.invalidate(id);
+    }
+}
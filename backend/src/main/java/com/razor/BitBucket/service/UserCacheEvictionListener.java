@@ -0,0 +1,28 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.model.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops a user from {@link UserCache} whenever the account row changes or goes away,
+ * whichever code path made the change.
+ */
+@Component
+public class UserCacheEvictionListener {
+
+    // Looked up lazily: the cache needs the repositories, which need this listener
+    private final ObjectProvider<UserCache> userCache;
+
+    public UserCacheEvictionListener(ObjectProvider<UserCache> userCache) {
+        this.userCache = userCache;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void evict(User user) {
+        userCache.ifAvailable(cache -> cache.evict(user.getId()));
+    }
+}
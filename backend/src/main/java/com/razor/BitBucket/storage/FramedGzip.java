@@ -0,0 +1,348 @@
+package com.razor.BitBucket.storage;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Objects compressed at rest. The content is cut into fixed-size frames and each frame is
+ * written as its own gzip member, so the whole object is an ordinary (multi-member) gzip file
+ * that can be handed to any client accepting {@code Content-Encoding: gzip}. Because every
+ * frame decodes on its own, a reader positioned somewhere in the middle only has to decode
+ * the one frame it lands in; the compressed length of each frame is kept next to the object.
+ */
+public final class FramedGzip {
+
+    public static final String ENCODING = "gzip";
+
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    // Magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private FramedGzip() {
+    }
+
+    /**
+     * Bytes the sample takes up with the fastest deflate level; a cheap estimate of how
+     * well the rest of the content will compress.
+     */
+    public static long deflatedSize(byte[] sample) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] scratch = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                deflater.deflate(scratch);
+            }
+            return deflater.getBytesWritten();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] pack(int[] frameLengths) {
+        ByteBuffer buffer = ByteBuffer.allocate(frameLengths.length * Integer.BYTES);
+        buffer.asIntBuffer().put(frameLengths);
+        return buffer.array();
+    }
+
+    public static int[] unpack(byte[] frameLengths) {
+        int[] lengths = new int[frameLengths.length / Integer.BYTES];
+        ByteBuffer.wrap(frameLengths).asIntBuffer().get(lengths);
+        return lengths;
+    }
+
+    /**
+     * Compresses the source as it is read. Does not close the source.
+     */
+    public static final class Encoder extends InputStream {
+        private final InputStream source;
+        private final int frameSize;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] input;
+        private byte[] output;
+        private int outputPosition;
+        private int outputLimit;
+        private int[] frameLengths = new int[16];
+        private int frames;
+        private long encodedSize;
+        private boolean done;
+
+        public Encoder(InputStream source, int frameSize, int level) {
+            this.source = source;
+            this.frameSize = frameSize;
+            this.deflater = new Deflater(level, true);
+            this.input = new byte[frameSize];
+            // Deflate never grows incompressible input by more than a few bytes per 16KB block
+            this.output = new byte[HEADER_SIZE + frameSize + frameSize / 1000 + 64 + TRAILER_SIZE];
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return output[outputPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, outputLimit - outputPosition);
+            System.arraycopy(output, outputPosition, buffer, offset, count);
+            outputPosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+
+        public int[] getFrameLengths() {
+            return Arrays.copyOf(frameLengths, frames);
+        }
+
+        public long getEncodedSize() {
+            return encodedSize;
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        private boolean fill() throws IOException {
+            while (outputPosition == outputLimit) {
+                if (done) {
+                    return false;
+                }
+                int length = source.readNBytes(input, 0, frameSize);
+                if (length == 0) {
+                    done = true;
+                    return false;
+                }
+                encodeFrame(length);
+            }
+            return true;
+        }
+
+        private void encodeFrame(int length) {
+            System.arraycopy(HEADER, 0, output, 0, HEADER_SIZE);
+            int position = HEADER_SIZE;
+            deflater.reset();
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (position + TRAILER_SIZE == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                position += deflater.deflate(output, position, output.length - TRAILER_SIZE - position);
+            }
+            crc.reset();
+            crc.update(input, 0, length);
+            ByteBuffer trailer = ByteBuffer.wrap(output, position, TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue());
+            trailer.putInt(length);
+            position += TRAILER_SIZE;
+
+            if (frames == frameLengths.length) {
+                frameLengths = Arrays.copyOf(frameLengths, frames * 2);
+            }
+            frameLengths[frames++] = position;
+            encodedSize += position;
+            outputPosition = 0;
+            outputLimit = position;
+        }
+    }
+
+    /**
+     * The decoded content of a framed object. Skipping is free until the next read, which then
+     * starts at the frame holding the new position; that is how Spring positions a Range response.
+     */
+    public static final class DecodedResource extends AbstractResource {
+        private final Resource encoded;
+        private final long size;
+        private final int frameSize;
+        private final int[] frameLengths;
+        private final long[] frameOffsets;
+
+        /**
+         * @param encoded the object as stored
+         * @param size    the decoded length
+         */
+        public DecodedResource(Resource encoded, long size, int frameSize, int[] frameLengths) {
+            this.encoded = encoded;
+            this.size = size;
+            this.frameSize = frameSize;
+            this.frameLengths = frameLengths;
+            this.frameOffsets = new long[frameLengths.length];
+            for (int i = 1; i < frameLengths.length; i++) {
+                frameOffsets[i] = frameOffsets[i - 1] + frameLengths[i - 1];
+            }
+        }
+
+        @Override
+        public boolean exists() {
+            return encoded.exists();
+        }
+
+        @Override
+        public long contentLength() {
+            return size;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new DecodingStream();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Decoded " + encoded.getDescription();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other || (other instanceof DecodedResource that && encoded.equals(that.encoded));
+        }
+
+        @Override
+        public int hashCode() {
+            return encoded.hashCode();
+        }
+
+        private final class DecodingStream extends InputStream {
+            private final Inflater inflater = new Inflater(true);
+            private final CRC32 crc = new CRC32();
+            private long position;
+            private InputStream in;
+            private int nextFrame; // frame the underlying stream is positioned at
+            private int loadedFrame = -1;
+            private byte[] compressed;
+            private byte[] frame;
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, size - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int read() throws IOException {
+                if (!load()) {
+                    return -1;
+                }
+                return frame[(int) (position++ - (long) loadedFrame * frameSize)] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!load()) {
+                    return -1;
+                }
+                int frameStart = (int) (position - (long) loadedFrame * frameSize);
+                int count = Math.min(length, frameLength(loadedFrame) - frameStart);
+                System.arraycopy(frame, frameStart, buffer, offset, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                inflater.end();
+                if (in != null) {
+                    in.close();
+                }
+            }
+
+            private boolean load() throws IOException {
+                if (position >= size) {
+                    return false;
+                }
+                int index = (int) (position / frameSize);
+                if (index == loadedFrame) {
+                    return true;
+                }
+                if (in == null || index != nextFrame) {
+                    if (in != null) {
+                        in.close();
+                    }
+                    in = encoded.getInputStream();
+                    in.skipNBytes(frameOffsets[index]);
+                }
+                int encodedLength = frameLengths[index];
+                if (compressed == null || compressed.length < encodedLength) {
+                    compressed = new byte[encodedLength];
+                }
+                if (in.readNBytes(compressed, 0, encodedLength) != encodedLength) {
+                    throw new EOFException("Compressed object is shorter than its frame index");
+                }
+                decode(index, encodedLength);
+                nextFrame = index + 1;
+                loadedFrame = index;
+                return true;
+            }
+
+            private void decode(int index, int encodedLength) throws IOException {
+                if (compressed[0] != HEADER[0] || compressed[1] != HEADER[1] || compressed[3] != 0) {
+                    throw new ZipException("Unexpected gzip member header in frame " + index);
+                }
+                int length = frameLength(index);
+                if (frame == null) {
+                    frame = new byte[frameSize];
+                }
+                inflater.reset();
+                inflater.setInput(compressed, HEADER_SIZE, encodedLength - HEADER_SIZE - TRAILER_SIZE);
+                try {
+                    int decoded = 0;
+                    while (decoded < length && !inflater.finished()) {
+                        int count = inflater.inflate(frame, decoded, length - decoded);
+                        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        decoded += count;
+                    }
+                    if (decoded != length) {
+                        throw new ZipException("Frame " + index + " decodes to " + decoded + " bytes, expected " + length);
+                    }
+                } catch (DataFormatException ex) {
+                    throw new ZipException("Corrupt frame " + index + ": " + ex.getMessage());
+                }
+                crc.reset();
+                crc.update(frame, 0, length);
+                ByteBuffer trailer = ByteBuffer.wrap(compressed, encodedLength - TRAILER_SIZE, TRAILER_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (trailer.getInt() != (int) crc.getValue()) {
+                    throw new ZipException("Checksum mismatch in frame " + index);
+                }
+            }
+
+            private int frameLength(int index) {
+                return (int) Math.min(frameSize, size - (long) index * frameSize);
+            }
+        }
+    }
+}
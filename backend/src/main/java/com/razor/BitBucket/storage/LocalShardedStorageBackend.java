@@ -0,0 +1,276 @@
+package com.razor.BitBucket.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Stores objects on one or more local mount points. Keys look like {@code 2/a7/3f/<uuid>}:
+ * the mount index followed by two levels of 256 shard directories, so no directory ever
+ * grows past a few thousand entries. New objects go to a mount picked at random weighted
+ * by usable space, skipping mounts that are down to their reserve.
+ * <p>
+ * Mounts are addressed by position, so the configured list may only be appended to.
+ * Absolute keys are paths written before this backend existed and are read as-is.
+ * <p>
+ * Objects are written to a staging file on the same mount and renamed into place, so a key
+ * never names a partial object. How much survives a power loss depends on the {@link Fsync} policy.
+ */
+public class LocalShardedStorageBackend implements StorageBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalShardedStorageBackend.class);
+    private static final String STAGING_DIR = ".staging";
+    private static final Pattern SHARD_NAME = Pattern.compile("[0-9a-f]{2}");
+    private static final Pattern OBJECT_NAME = Pattern.compile("[0-9a-f]{32}");
+
+    public enum Fsync {
+        NONE, // the OS flushes when it likes; a crash can leave keys pointing at empty or partial files
+        FILE, // contents reach the disk before the rename; a crash can still lose the rename itself
+        FULL  // the rename's directory is flushed too, so a committed key survives any crash
+    }
+
+    private final List<Mount> mounts = new ArrayList<>();
+    private final long minFreeBytes;
+    private final Fsync fsync;
+
+    public LocalShardedStorageBackend(List<Path> roots, DataSize minFreeSpace, Fsync fsync) {
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("At least one storage mount is required");
+        }
+        this.minFreeBytes = minFreeSpace.toBytes();
+        this.fsync = fsync;
+
+        for (Path root : roots) {
+            Path normalized = root.toAbsolutePath().normalize();
+            try {
+                Files.createDirectories(normalized.resolve(STAGING_DIR));
+                mounts.add(new Mount(mounts.size(), normalized, Files.getFileStore(normalized)));
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not initialise storage mount " + normalized, ex);
+            }
+        }
+    }
+
+    @Override
+    public String write(InputStream content) throws IOException {
+        Mount mount = chooseMount(null);
+        Path staged = Files.createTempFile(mount.root.resolve(STAGING_DIR), "write-", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.WRITE)) {
+                content.transferTo(Channels.newOutputStream(channel));
+                if (fsync != Fsync.NONE) {
+                    channel.force(false); // the data and the length are all a reader needs
+                }
+            }
+            return publish(mount, staged);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(staged);
+            throw ex;
+        }
+    }
+
+    @Override
+    public String importFile(Path source) throws IOException {
+        // A mount on the same file system as the source turns the import into a rename
+        Mount mount = chooseMount(Files.getFileStore(source));
+        if (!mount.store.equals(Files.getFileStore(source))) {
+            Path staged = Files.createTempFile(mount.root.resolve(STAGING_DIR), "import-", ".tmp");
+            try {
+                Files.copy(source, staged, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(staged);
+                throw ex;
+            }
+            Files.delete(source);
+            source = staged;
+        }
+        if (fsync != Fsync.NONE) {
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+        }
+        // A rename keeps the modification time, and the orphan reaper only spares recent objects
+        Files.setLastModifiedTime(source, FileTime.from(Instant.now()));
+        return publish(mount, source);
+    }
+
+    @Override
+    public Resource getResource(String key, long size) {
+        return new FileSystemResource(resolve(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    // Directory streams read entries as they go, so this works the same for millions of objects
+    @Override
+    public void listObjects(Instant writtenBefore, int batchSize, Consumer<List<String>> batches) throws IOException {
+        List<String> batch = new ArrayList<>(batchSize);
+        for (Mount mount : mounts) {
+            try (DirectoryStream<Path> level1 = shards(mount.root)) {
+                for (Path first : level1) {
+                    try (DirectoryStream<Path> level2 = shards(first)) {
+                        for (Path second : level2) {
+                            try (DirectoryStream<Path> objects = Files.newDirectoryStream(second,
+                                    path -> OBJECT_NAME.matcher(path.getFileName().toString()).matches())) {
+                                for (Path object : objects) {
+                                    if (!writtenBefore(object, writtenBefore)) {
+                                        continue;
+                                    }
+                                    batch.add(mount.index + "/" + first.getFileName() + "/"
+                                            + second.getFileName() + "/" + object.getFileName());
+                                    if (batch.size() == batchSize) {
+                                        batches.accept(List.copyOf(batch));
+                                        batch.clear();
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.accept(List.copyOf(batch));
+        }
+    }
+
+    @Override
+    public int deleteAbandonedWrites(Instant startedBefore) throws IOException {
+        int deleted = 0;
+        for (Mount mount : mounts) {
+            try (DirectoryStream<Path> staged = Files.newDirectoryStream(mount.root.resolve(STAGING_DIR))) {
+                for (Path file : staged) {
+                    if (writtenBefore(file, startedBefore) && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private String publish(Mount mount, Path staged) throws IOException {
+        String name = UUID.randomUUID().toString().replace("-", "");
+        String key = mount.index + "/" + name.substring(0, 2) + "/" + name.substring(2, 4) + "/" + name;
+        Path target = mount.root.resolve(key.substring(key.indexOf('/') + 1));
+        boolean newShard = !Files.isDirectory(target.getParent());
+        Files.createDirectories(target.getParent());
+        Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+        if (fsync == Fsync.FULL) {
+            syncDirectory(target.getParent());
+            if (newShard) {
+                syncDirectory(target.getParent().getParent());
+                syncDirectory(mount.root);
+            }
+        }
+        return key;
+    }
+
+    private static DirectoryStream<Path> shards(Path directory) throws IOException {
+        return Files.newDirectoryStream(directory,
+                path -> SHARD_NAME.matcher(path.getFileName().toString()).matches() && Files.isDirectory(path));
+    }
+
+    private static boolean writtenBefore(Path file, Instant cutoff) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() && attributes.lastModifiedTime().toInstant().isBefore(cutoff);
+        } catch (NoSuchFileException ex) {
+            return false; // deleted while we were listing
+        }
+    }
+
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private Path resolve(String key) {
+        if (key.startsWith("/")) {
+            return Paths.get(key);
+        }
+        int slash = key.indexOf('/');
+        int index;
+        try {
+            index = Integer.parseInt(key.substring(0, slash));
+        } catch (IndexOutOfBoundsException | NumberFormatException ex) {
+            throw new IllegalArgumentException("Malformed storage key: " + key);
+        }
+        if (index < 0 || index >= mounts.size()) {
+            throw new IllegalStateException("Storage key " + key + " refers to a mount that is not configured");
+        }
+        Path path = mounts.get(index).root.resolve(key.substring(slash + 1)).normalize();
+        if (!path.startsWith(mounts.get(index).root)) {
+            throw new IllegalArgumentException("Malformed storage key: " + key);
+        }
+        return path;
+    }
+
+    private Mount chooseMount(FileStore preferred) throws IOException {
+        long[] headroom = new long[mounts.size()];
+        long total = 0;
+        for (Mount mount : mounts) {
+            long usable = mount.store.getUsableSpace() - minFreeBytes;
+            if (usable > 0) {
+                if (mount.store.equals(preferred)) {
+                    return mount;
+                }
+                headroom[mount.index] = usable;
+                total += usable;
+            }
+        }
+        if (total == 0) {
+            log.error("All {} storage mounts are below the {} byte reserve", mounts.size(), minFreeBytes);
+            throw new IOException("No storage mount has free space");
+        }
+
+        long pick = ThreadLocalRandom.current().nextLong(total);
+        for (Mount mount : mounts) {
+            pick -= headroom[mount.index];
+            if (pick < 0) {
+                return mount;
+            }
+        }
+        return mounts.get(mounts.size() - 1);
+    }
+
+    private static final class Mount {
+        private final int index;
+        private final Path root;
+        private final FileStore store;
+
+        private Mount(int index, Path root, FileStore store) {
+            this.index = index;
+            this.root = root;
+            this.store = store;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.razor.BitBucket.storage;
+
+import org.springframework.core.io.AbstractResource;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An S3 object as a Spring Resource. The size comes from our own metadata so serving a
+ * download needs no HEAD request, and the GET is only sent on the first read: skipping
+ * before that (which is how Spring positions a Range response) turns into a ranged GET.
+ */
+class S3ObjectResource extends AbstractResource {
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+    private final long size;
+
+    S3ObjectResource(S3Client s3, String bucket, String key, long size) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.size = size;
+    }
+
+    // Keys come from blob rows, so a missing object only surfaces when the GET fails
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ObjectInputStream();
+    }
+
+    @Override
+    public String getDescription() {
+        return "S3 object [s3://" + bucket + "/" + key + "]";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof S3ObjectResource that
+                && bucket.equals(that.bucket) && key.equals(that.key));
+    }
+
+    @Override
+    public int hashCode() {
+        return bucket.hashCode() * 31 + key.hashCode();
+    }
+
+    private final class ObjectInputStream extends InputStream {
+        private long position;
+        private ResponseInputStream<GetObjectResponse> body;
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (body != null) {
+                long skipped = body.skip(n);
+                position += skipped;
+                return skipped;
+            }
+            long skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!open()) {
+                return -1;
+            }
+            int b = body.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (!open()) {
+                return -1;
+            }
+            int read = body.read(buffer, offset, length);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                // Draining the rest of a large object just to reuse the connection costs more than a new one
+                if (position < size) {
+                    body.abort();
+                }
+                body.close();
+            }
+        }
+
+        private boolean open() {
+            if (body == null) {
+                if (position >= size) {
+                    return false;
+                }
+                GetObjectRequest.Builder request = GetObjectRequest.builder().bucket(bucket).key(key);
+                if (position > 0) {
+                    request.range("bytes=" + position + "-");
+                }
+                body = s3.getObject(request.build());
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.razor.BitBucket.storage;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stores objects in an S3-compatible bucket. Writes are cut into parts as the request body
+ * arrives and the parts are uploaded in parallel while the next one is being read, so a
+ * large upload finishes shortly after its last byte comes in. Memory per upload is bounded
+ * by {@code (partsInFlight + 1) * partSize}. Bodies smaller than one part go up in a single PUT.
+ * <p>
+ * Downloads are streamed GETs that start at the requested offset, and can optionally be
+ * handed to the client as a presigned URL so the bytes never pass through this service.
+ */
+public class S3StorageBackend implements StorageBackend, AutoCloseable {
+
+    // S3 rejects multipart parts under 5 MiB (except the last)
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3;
+    private final S3Presigner presigner;
+    private final String bucket;
+    private final String keyPrefix;
+    private final int partSize;
+    private final int partsInFlight;
+    private final Duration presignTtl;
+    private final ExecutorService partUploader;
+
+    /**
+     * @param presigner signs download URLs, or null to always stream downloads through the service
+     */
+    public S3StorageBackend(S3Client s3, S3Presigner presigner, String bucket, String keyPrefix,
+                            int partSize, int partsInFlight, int uploadThreads, Duration presignTtl) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("S3 part size must be at least " + MIN_PART_SIZE + " bytes");
+        }
+        this.s3 = s3;
+        this.presigner = presigner;
+        this.bucket = bucket;
+        this.keyPrefix = keyPrefix;
+        this.partSize = partSize;
+        this.partsInFlight = partsInFlight;
+        this.presignTtl = presignTtl;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.partUploader = Executors.newFixedThreadPool(uploadThreads, runnable -> {
+            Thread thread = new Thread(runnable, "s3-part-upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String write(InputStream content) throws IOException {
+        String key = keyPrefix + UUID.randomUUID().toString().replace("-", "");
+
+        byte[] part = content.readNBytes(partSize);
+        if (part.length < partSize) {
+            s3.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(), RequestBody.fromBytes(part));
+            return key;
+        }
+
+        String uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket).key(key).build()).uploadId();
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        try {
+            Semaphore slots = new Semaphore(partsInFlight);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            int partNumber = 1;
+            while (part.length > 0) {
+                slots.acquire();
+                if (failure.get() != null) {
+                    break;
+                }
+                parts.add(partUploader.submit(uploadPart(key, uploadId, partNumber++, part, slots, failure)));
+                part = content.readNBytes(partSize);
+            }
+
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> future : parts) {
+                completed.add(future.get());
+            }
+            s3.completeMultipartUpload(builder -> builder
+                    .bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build()));
+            return key;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            abort(key, uploadId, parts);
+            throw new InterruptedIOException("Interrupted while uploading " + key);
+        } catch (ExecutionException ex) {
+            abort(key, uploadId, parts);
+            throw new IOException("Failed to upload part of " + key, ex.getCause());
+        } catch (IOException | RuntimeException ex) {
+            abort(key, uploadId, parts);
+            throw ex;
+        }
+    }
+
+    @Override
+    public String importFile(Path source) throws IOException {
+        String key;
+        try (InputStream in = Files.newInputStream(source)) {
+            key = write(in);
+        }
+        Files.delete(source);
+        return key;
+    }
+
+    @Override
+    public Resource getResource(String key, long size) {
+        return new S3ObjectResource(s3, bucket, key, size);
+    }
+
+    @Override
+    public void delete(String key) {
+        // Deleting a missing key succeeds, same as deleteIfExists
+        s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+    }
+
+    @Override
+    public Optional<URI> getDownloadUrl(String key, String fileName, String contentType) {
+        if (presigner == null) {
+            return Optional.empty();
+        }
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .responseContentType(contentType)
+                .responseContentDisposition(ContentDisposition.attachment()
+                        .filename(fileName, StandardCharsets.UTF_8).build().toString())
+                .build();
+        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(presignTtl)
+                .getObjectRequest(request)
+                .build();
+        try {
+            return Optional.of(presigner.presignGetObject(presignRequest).url().toURI());
+        } catch (URISyntaxException ex) {
+            throw new IllegalStateException("Presigned URL is not a valid URI", ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        partUploader.shutdownNow();
+        if (presigner != null) {
+            presigner.close();
+        }
+        s3.close();
+    }
+
+    private Callable<CompletedPart> uploadPart(String key, String uploadId, int partNumber, byte[] bytes,
+                                               Semaphore slots, AtomicReference<Exception> failure) {
+        return () -> {
+            try {
+                String eTag = s3.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber)
+                        .contentLength((long) bytes.length)
+                        .build(), RequestBody.fromBytes(bytes)).eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (RuntimeException ex) {
+                failure.compareAndSet(null, ex);
+                throw ex;
+            } finally {
+                slots.release();
+            }
+        };
+    }
+
+    private void abort(String key, String uploadId, List<Future<CompletedPart>> parts) {
+        parts.forEach(part -> part.cancel(true));
+        try {
+            s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId).build());
+        } catch (RuntimeException ignored) {
+            // The bucket's lifecycle rule for incomplete uploads is the backstop
+        }
+    }
+}
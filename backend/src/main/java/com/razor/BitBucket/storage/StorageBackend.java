@@ -0,0 +1,61 @@
+package com.razor.BitBucket.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Where file contents live. Callers only ever hold the opaque key returned by a write;
+ * objects are immutable once written.
+ */
+public interface StorageBackend {
+
+    /**
+     * Writes the stream to a new object and returns its key. Nothing is visible under
+     * the key until the stream has been fully written.
+     */
+    String write(InputStream content) throws IOException;
+
+    /**
+     * Takes ownership of a local file (e.g. an assembled chunked upload), moving it into
+     * storage when possible. The source no longer exists afterwards.
+     */
+    String importFile(Path source) throws IOException;
+
+    /**
+     * @param size the object's length as recorded when it was written
+     */
+    Resource getResource(String key, long size);
+
+    void delete(String key) throws IOException;
+
+    /**
+     * A URL the client can fetch the object from directly, for backends that can hand out one.
+     */
+    default Optional<URI> getDownloadUrl(String key, String fileName, String contentType) {
+        return Optional.empty();
+    }
+
+    /**
+     * Hands the keys of objects written before the cutoff to the consumer a batch at a time,
+     * without holding the whole listing in memory. Backends that can't list cheaply return at once.
+     */
+    default void listObjects(Instant writtenBefore, int batchSize, Consumer<List<String>> batches) throws IOException {
+    }
+
+    /**
+     * Deletes what writes started before the cutoff and never finished (e.g. cut off by a crash) left behind.
+     *
+     * @return the number of leftovers deleted
+     */
+    default int deleteAbandonedWrites(Instant startedBefore) throws IOException {
+        return 0;
+    }
+}
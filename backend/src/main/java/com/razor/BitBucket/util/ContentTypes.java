@@ -0,0 +1,49 @@
+package com.razor.BitBucket.util;
+
+import java.util.Locale;
+import java.util.Set;
+
+public final class ContentTypes {
+
+    // Formats that carry their own compression; deflating them again costs CPU and saves nothing
+    private static final Set<String> COMPRESSED = Set.of(
+            "application/zip",
+            "application/gzip",
+            "application/x-gzip",
+            "application/x-bzip2",
+            "application/x-xz",
+            "application/zstd",
+            "application/x-7z-compressed",
+            "application/x-rar-compressed",
+            "application/vnd.rar",
+            "application/java-archive",
+            "application/epub+zip",
+            "image/jpeg",
+            "image/png",
+            "image/gif",
+            "image/webp",
+            "image/avif",
+            "image/heic"
+    );
+
+    private ContentTypes() {
+    }
+
+    public static boolean isCompressed(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters);
+        }
+        type = type.trim();
+        return COMPRESSED.contains(type)
+                || type.startsWith("video/")
+                || (type.startsWith("audio/") && !type.equals("audio/wav") && !type.equals("audio/x-wav"))
+                // docx, xlsx, pptx and friends are zip containers
+                || type.startsWith("application/vnd.openxmlformats-officedocument.")
+                || type.startsWith("application/vnd.oasis.opendocument.");
+    }
+}
@@ -1,5 +1,8 @@
 package com.razor.BitBucket.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.razor.BitBucket.model.User;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
@@ -7,25 +10,44 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Date;
+import java.util.HexFormat;
+import java.util.Optional;
 
 @Component
 public class JwtUtil {
 
     private final SecretKey key;
     private final long expirationMs;
+    private final JwtParser parser;
+    private final Cache<String, Claims> verified;
 
     public JwtUtil(
             @Value("${jwt.secret}") String secret,
-            @Value("${jwt.expiration}") long expirationMs
+            @Value("${jwt.expiration}") long expirationMs,
+            @Value("${jwt.verified-cache.max-entries}") long verifiedCacheSize
     ) {
         this.key = Keys.hmacShaKeyFor(secret.getBytes());
         this.expirationMs = expirationMs;
+        this.parser = Jwts.parser()
+                .verifyWith(key)
+                .build();
+        // Claims are immutable and a token's signature can't change, so an entry is good until the token expires
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                .expireAfter(Expiry.creating((String digest, Claims claims) ->
+                        Duration.ofMillis(claims.getExpiration().getTime() - System.currentTimeMillis())))
+                .build();
     }
 
     public String generateToken(User user) {
         return Jwts.builder()
                 .subject(user.getEmail())
+                .claim("uid", user.getId())
                 .claim("role", user.getRole().name())
                 .issuedAt(new Date())
                 .expiration(new Date(System.currentTimeMillis() + expirationMs))
@@ -34,11 +56,15 @@ public class JwtUtil {
     }
 
     public Claims extractClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        String digest = digest(token);
+        Claims claims = verified.getIfPresent(digest);
+        if (claims == null) {
+            claims = parser.parseSignedClaims(token).getPayload();
+            if (claims.getExpiration() != null) {
+                verified.put(digest, claims);
+            }
+        }
+        return claims;
     }
 
     public String extractEmail(String token) {
@@ -49,13 +75,35 @@ public class JwtUtil {
         return extractClaims(token).get("role", String.class);
     }
 
-    public boolean isTokenValid(String token) {
+    /**
+     * @return the user id, or null for tokens issued before they carried one
+     */
+    public Long extractUserId(Claims claims) {
+        return claims.get("uid", Long.class);
+    }
+
+    /**
+     * Parses and verifies the token once, for callers that need more than one claim.
+     */
+    public Optional<Claims> verify(String token) {
         try {
-            extractClaims(token);
-            return true;
+            return Optional.of(extractClaims(token));
         } catch (JwtException | IllegalArgumentException ex) {
-            return false;
+            return Optional.empty();
         }
     }
-}
 
+    public boolean isTokenValid(String token) {
+        return verify(token).isPresent();
+    }
+
+    // Keyed by digest so the cache never holds usable bearer tokens
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.razor.BitBucket.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.LongPredicate;
+
+public final class ZeroCopyTransfer {
+
+    // Request attributes understood by Tomcat's NIO/NIO2 connectors (see Http11Processor#prepareSendfile)
+    public static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    public static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    public static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    public static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // A LongPredicate set by a filter that has to account for the bytes; it is asked for the byte
+    // count and a transfer it turns down is streamed instead
+    public static final String SENDFILE_ADMISSION_ATTR = ZeroCopyTransfer.class.getName() + ".admission";
+
+    private ZeroCopyTransfer() {
+    }
+
+    /**
+     * Hands the byte range to the connector, which moves it to the socket with FileChannel.transferTo
+     * (kernel sendfile) once the response is committed. Returns false if the current connector cannot
+     * do that (e.g. TLS) or the request's admission check turns the transfer down; nothing has been
+     * written then.
+     */
+    public static boolean trySendfile(File file, long start, long count) throws IOException {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes servletAttributes)) {
+            return false;
+        }
+        HttpServletRequest request = servletAttributes.getRequest();
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            return false;
+        }
+        if (request.getAttribute(SENDFILE_ADMISSION_ATTR) instanceof LongPredicate admission
+                && !admission.test(count)) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME_ATTR, file.getCanonicalPath());
+        request.setAttribute(SENDFILE_START_ATTR, start);
+        request.setAttribute(SENDFILE_END_ATTR, start + count);
+        return true;
+    }
+}
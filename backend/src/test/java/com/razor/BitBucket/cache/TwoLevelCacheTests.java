@@ -0,0 +1,96 @@
+package com.razor.BitBucket.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TwoLevelCacheTests {
+
+    private final Cache shared = new ConcurrentMapCache("shared");
+    private final TwoLevelCache cache = new TwoLevelCache(
+            new CaffeineCache("folders", Caffeine.newBuilder().build()), shared, (name, key) -> { });
+
+    @Test
+    void fillIsKeptWithoutInvalidation() {
+        assertEquals("v1", cache.get("k", () -> "v1"));
+
+        assertEquals("v1", cache.get("k").get());
+        assertEquals("v1", shared.get("k").get());
+    }
+
+    @Test
+    void evictDuringLoadDropsTheFill() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+
+        CompletableFuture<String> reader = CompletableFuture.supplyAsync(() -> cache.get("k", () -> {
+            loading.countDown();
+            evicted.await(5, TimeUnit.SECONDS);
+            return "stale";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        cache.evict("k");
+        evicted.countDown();
+
+        assertEquals("stale", reader.get(5, TimeUnit.SECONDS));
+        assertNull(cache.get("k"));
+        assertNull(shared.get("k"));
+    }
+
+    @Test
+    void remoteInvalidationDuringLoadDropsTheFill() {
+        String value = cache.get("k", () -> {
+            cache.evictLocal("k");
+            return "stale";
+        });
+
+        assertEquals("stale", value);
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    void clearDuringLoadDropsTheFill() {
+        cache.get("k", () -> {
+            cache.clear();
+            return "stale";
+        });
+
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    void evictOfAnotherStripeKeepsTheFill() {
+        String other = "other";
+        for (int i = 0; TwoLevelCache.stripe(other) == TwoLevelCache.stripe("k"); i++) {
+            other = "other" + i;
+        }
+        String unrelated = other;
+
+        cache.get("k", () -> {
+            cache.evict(unrelated);
+            return "fresh";
+        });
+
+        assertNotNull(cache.get("k"));
+    }
+
+    @Test
+    void loadAfterEvictIsCached() {
+        cache.put("k", "v1");
+        cache.evict("k");
+
+        assertEquals("v2", cache.get("k", () -> "v2"));
+        assertEquals("v2", cache.get("k").get());
+    }
+}
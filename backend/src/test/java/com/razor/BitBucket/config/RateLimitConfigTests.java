@@ -0,0 +1,72 @@
+package com.razor.BitBucket.config;
+
+import io.lettuce.core.RedisURI;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisConnectionDetails;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RateLimitConfigTests {
+
+    @Test
+    void passwordOnlyAuthenticatesAsTheDefaultUser() {
+        RedisURI uri = RateLimitConfig.redisUri(connection(null, "secret"));
+
+        assertNull(uri.getUsername());
+        assertArrayEquals("secret".toCharArray(), uri.getPassword());
+    }
+
+    @Test
+    void emptyUsernameCountsAsNone() {
+        RedisURI uri = RateLimitConfig.redisUri(connection("", "secret"));
+
+        assertNull(uri.getUsername());
+        assertArrayEquals("secret".toCharArray(), uri.getPassword());
+    }
+
+    @Test
+    void usernameAndPasswordUseAcl() {
+        RedisURI uri = RateLimitConfig.redisUri(connection("limiter", "secret"));
+
+        assertEquals("limiter", uri.getUsername());
+        assertArrayEquals("secret".toCharArray(), uri.getPassword());
+    }
+
+    @Test
+    void noPasswordMeansNoAuthentication() {
+        RedisURI uri = RateLimitConfig.redisUri(connection(null, null));
+
+        assertNull(uri.getUsername());
+        assertNull(uri.getPassword());
+    }
+
+    @Test
+    void hostPortAndDatabaseComeFromTheConnection() {
+        RedisURI uri = RateLimitConfig.redisUri(connection(null, null));
+
+        assertEquals("redis.internal", uri.getHost());
+        assertEquals(6380, uri.getPort());
+        assertEquals(3, uri.getDatabase());
+    }
+
+    private static RedisConnectionDetails connection(String username, String password) {
+        return new RedisConnectionDetails() {
+            @Override
+            public String getUsername() {
+                return username;
+            }
+
+            @Override
+            public String getPassword() {
+                return password;
+            }
+
+            @Override
+            public Standalone getStandalone() {
+                return Standalone.of("redis.internal", 6380, 3);
+            }
+        };
+    }
+}
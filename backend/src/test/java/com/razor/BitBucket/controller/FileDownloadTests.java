@@ -0,0 +1,227 @@
+package com.razor.BitBucket.controller;
+
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import com.razor.BitBucket.service.FileStorageService;
+import com.razor.BitBucket.util.JwtUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+// Runs against the configured database, like BitBucketApplicationTests
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads", "rate-limit.enabled=false"})
+@AutoConfigureMockMvc
+class FileDownloadTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    private User owner;
+    private byte[] content;
+    private Long fileId;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+        // Random, so it is stored as is and never shares a blob with an earlier run's
+        content = new byte[10_000];
+        ThreadLocalRandom.current().nextBytes(content);
+        fileId = upload("data.bin", "application/octet-stream", content);
+    }
+
+    @Test
+    void wholeFileCarriesItsValidators() throws Exception {
+        MockHttpServletResponse response = download(fileId);
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(content, response.getContentAsByteArray());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertTrue(response.getHeader(HttpHeaders.ETAG).startsWith("\""));
+        assertTrue(response.getHeader(HttpHeaders.LAST_MODIFIED) != null);
+        assertEquals("sha-256=" + Base64.getEncoder().encodeToString(
+                MessageDigest.getInstance("SHA-256").digest(content)), response.getHeader("Digest"));
+    }
+
+    @Test
+    void rangeGetsOnlyThoseBytes() throws Exception {
+        MockHttpServletResponse response = download(fileId, HttpHeaders.RANGE, "bytes=100-199");
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 100-199/10000", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 200), response.getContentAsByteArray());
+    }
+
+    @Test
+    void suffixRangeGetsTheEnd() throws Exception {
+        MockHttpServletResponse response = download(fileId, HttpHeaders.RANGE, "bytes=-50");
+
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOfRange(content, 9_950, 10_000), response.getContentAsByteArray());
+    }
+
+    @Test
+    void severalRangesComeBackAsMultipart() throws Exception {
+        MockHttpServletResponse response = download(fileId, HttpHeaders.RANGE, "bytes=0-9,500-509");
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges"));
+        String body = new String(response.getContentAsByteArray(), StandardCharsets.ISO_8859_1);
+        assertTrue(body.contains("Content-Range: bytes 0-9/10000"));
+        assertTrue(body.contains("Content-Range: bytes 500-509/10000"));
+        assertTrue(body.contains(new String(Arrays.copyOfRange(content, 500, 510), StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void rangePastTheEndIsUnsatisfiable() throws Exception {
+        assertEquals(416, download(fileId, HttpHeaders.RANGE, "bytes=20000-20010").getStatus());
+    }
+
+    @Test
+    void ifRangeWithTheCurrentETagGetsTheRange() throws Exception {
+        String etag = download(fileId).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletResponse response = download(fileId,
+                HttpHeaders.RANGE, "bytes=0-9", HttpHeaders.IF_RANGE, etag);
+
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOf(content, 10), response.getContentAsByteArray());
+    }
+
+    @Test
+    void ifRangeWithAnotherETagGetsTheWholeFile() throws Exception {
+        MockHttpServletResponse response = download(fileId,
+                HttpHeaders.RANGE, "bytes=0-9", HttpHeaders.IF_RANGE, "\"something-else\"");
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    void ifRangeWithAWeakETagGetsTheWholeFile() throws Exception {
+        String etag = download(fileId).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletResponse response = download(fileId,
+                HttpHeaders.RANGE, "bytes=0-9", HttpHeaders.IF_RANGE, "W/" + etag);
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    void ifRangeWithTheLastModifiedDate() throws Exception {
+        String lastModified = download(fileId).getHeader(HttpHeaders.LAST_MODIFIED);
+        String earlier = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.now(ZoneOffset.UTC).minusDays(1));
+
+        assertEquals(206, download(fileId,
+                HttpHeaders.RANGE, "bytes=0-9", HttpHeaders.IF_RANGE, lastModified).getStatus());
+        assertEquals(200, download(fileId,
+                HttpHeaders.RANGE, "bytes=0-9", HttpHeaders.IF_RANGE, earlier).getStatus());
+    }
+
+    @Test
+    void ifNoneMatchWithTheCurrentETagIsNotModified() throws Exception {
+        String etag = download(fileId).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletResponse response = download(fileId, HttpHeaders.IF_NONE_MATCH, etag);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(200, download(fileId, HttpHeaders.IF_NONE_MATCH, "\"something-else\"").getStatus());
+    }
+
+    @Test
+    void ifModifiedSinceTheUploadIsNotModified() throws Exception {
+        String lastModified = download(fileId).getHeader(HttpHeaders.LAST_MODIFIED);
+
+        assertEquals(304, download(fileId, HttpHeaders.IF_MODIFIED_SINCE, lastModified).getStatus());
+    }
+
+    @Test
+    void compressedFileGoesOutAsStoredToClientsThatAcceptGzip() throws Exception {
+        byte[] text = (UUID.randomUUID() + " compressible line\n".repeat(1_000)).getBytes(StandardCharsets.UTF_8);
+        Long textId = upload("notes.txt", "text/plain", text);
+        String plainETag = download(textId).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletResponse response = download(textId, HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("none", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertTrue(response.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT_ENCODING));
+        assertNotEquals(plainETag, response.getHeader(HttpHeaders.ETAG));
+        assertTrue(response.getContentAsByteArray().length < text.length);
+        assertArrayEquals(text, gunzip(response.getContentAsByteArray()));
+    }
+
+    @Test
+    void rangeOfACompressedFileIsAnsweredDecoded() throws Exception {
+        byte[] text = (UUID.randomUUID() + " compressible line\n".repeat(1_000)).getBytes(StandardCharsets.UTF_8);
+        Long textId = upload("notes.txt", "text/plain", text);
+
+        MockHttpServletResponse response = download(textId,
+                HttpHeaders.ACCEPT_ENCODING, "gzip", HttpHeaders.RANGE, "bytes=1000-1099");
+
+        assertEquals(206, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(Arrays.copyOfRange(text, 1000, 1100), response.getContentAsByteArray());
+    }
+
+    private Long upload(String name, String contentType, byte[] bytes) {
+        return fileStorageService.uploadFile(new MockMultipartFile("file", name, contentType, bytes), null, owner)
+                .getId();
+    }
+
+    private MockHttpServletResponse download(Long id, String... headers) throws Exception {
+        MockHttpServletRequestBuilder request = get("/api/files/{id}/download", id)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwtUtil.generateToken(owner));
+        for (int i = 0; i < headers.length; i += 2) {
+            request.header(headers[i], headers[i + 1]);
+        }
+        return mockMvc.perform(request).andReturn().getResponse();
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.razor.BitBucket.controller;
+
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import com.razor.BitBucket.service.FileStorageService;
+import com.razor.BitBucket.util.JwtUtil;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+// Runs against the configured database, like BitBucketApplicationTests
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads", "rate-limit.enabled=false"})
+@AutoConfigureMockMvc
+class FileThumbnailTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    private User owner;
+    private Long imageId;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+        imageId = upload("photo.png", "image/png", png(800, 400));
+    }
+
+    @Test
+    void thumbnailIsAScaledDownJpeg() throws Exception {
+        MockHttpServletResponse response = thumbnail(imageId, 256);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("image/jpeg", response.getContentType());
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray()));
+        assertEquals(256, thumbnail.getWidth());
+        assertEquals(128, thumbnail.getHeight());
+    }
+
+    @Test
+    void requestedSizeSnapsToTheNextOneMade() throws Exception {
+        assertEquals(128, width(thumbnail(imageId, 10)));
+        assertEquals(512, width(thumbnail(imageId, 300)));
+        assertEquals(512, width(thumbnail(imageId, 5000)));
+    }
+
+    @Test
+    void thumbnailMayBeCachedForGood() throws Exception {
+        MockHttpServletResponse response = thumbnail(imageId, 256);
+
+        String cacheControl = response.getHeader(HttpHeaders.CACHE_CONTROL);
+        assertTrue(cacheControl.contains("max-age=31536000"), cacheControl);
+        assertTrue(cacheControl.contains("private"), cacheControl);
+        assertTrue(cacheControl.contains("immutable"), cacheControl);
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, thumbnail(imageId, 128).getHeader(HttpHeaders.ETAG));
+
+        MockHttpServletResponse revalidated = perform(thumbnailRequest(imageId, 256)
+                .header(HttpHeaders.IF_NONE_MATCH, etag));
+        assertEquals(304, revalidated.getStatus());
+        assertEquals(0, revalidated.getContentAsByteArray().length);
+    }
+
+    @Test
+    void fileThatIsNoImageHasNoThumbnail() {
+        Long textId = upload("notes.txt", "text/plain", (UUID.randomUUID() + " notes").getBytes());
+
+        // No exception handler is registered, so the IllegalArgumentException surfaces as is
+        ServletException ex = assertThrows(ServletException.class, () -> thumbnail(textId, 256));
+        assertTrue(ex.getCause() instanceof IllegalArgumentException, ex.getCause().toString());
+    }
+
+    private Long upload(String name, String contentType, byte[] bytes) {
+        return fileStorageService.uploadFile(new MockMultipartFile("file", name, contentType, bytes), null, owner)
+                .getId();
+    }
+
+    private MockHttpServletResponse thumbnail(Long id, int size) throws Exception {
+        return perform(thumbnailRequest(id, size));
+    }
+
+    private MockHttpServletRequestBuilder thumbnailRequest(Long id, int size) {
+        return get("/api/files/{id}/thumbnail", id)
+                .param("size", String.valueOf(size))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwtUtil.generateToken(owner));
+    }
+
+    private MockHttpServletResponse perform(MockHttpServletRequestBuilder request) throws Exception {
+        return mockMvc.perform(request).andReturn().getResponse();
+    }
+
+    private static int width(MockHttpServletResponse response) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray())).getWidth();
+    }
+
+    // Noise, so the content is new to the store on every run
+    private static byte[] png(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ThreadLocalRandom.current().nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
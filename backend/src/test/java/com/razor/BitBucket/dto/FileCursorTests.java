@@ -0,0 +1,86 @@
+package com.razor.BitBucket.dto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileCursorTests {
+
+    @Test
+    void roundTripsEachSortKey() {
+        assertRoundTrip(new FileCursor(FileSortKey.UPLOADED_AT, Sort.Direction.DESC,
+                Instant.parse("2024-05-01T12:30:45.123456Z"), 42L));
+        assertRoundTrip(new FileCursor(FileSortKey.FILE_NAME, Sort.Direction.ASC, "report.pdf", 7L));
+        assertRoundTrip(new FileCursor(FileSortKey.FILE_SIZE, Sort.Direction.ASC, 0L, 1L));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"a:b", ":", "::::", "trailing:", ":leading", "12:00:00.txt", "ünïcödé:名前", "null", ""})
+    void roundTripsFileNamesWithSeparators(String fileName) {
+        assertRoundTrip(new FileCursor(FileSortKey.FILE_NAME, Sort.Direction.ASC, fileName, 99L));
+    }
+
+    @Test
+    void tiedValuesAreToldApartById() {
+        FileCursor first = new FileCursor(FileSortKey.FILE_SIZE, Sort.Direction.ASC, 1024L, 1L);
+        FileCursor second = new FileCursor(FileSortKey.FILE_SIZE, Sort.Direction.ASC, 1024L, 2L);
+
+        assertEquals(1L, FileCursor.decode(first.encode()).getId());
+        assertEquals(2L, FileCursor.decode(second.encode()).getId());
+    }
+
+    @Test
+    void rejectsNullValueOrId() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileCursor(FileSortKey.FILE_NAME, Sort.Direction.ASC, null, 1L));
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileCursor(FileSortKey.FILE_NAME, Sort.Direction.ASC, "a", null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "not base64!",
+            "fileName:ASC:1",                 // value missing
+            "fileName:SIDEWAYS:1:a",          // unknown direction
+            "fileName:ASC:one:a",             // id not a number
+            "fileSize:ASC:1:big",             // value not a number
+            "uploadedAt:ASC:1:yesterday",     // value not an instant
+            "uploadedAt:ASC:1:null",          // what a null value would have encoded to
+            "ownerId:ASC:1:5",                // not a sortable property
+            "file_name:ASC:1:a",              // column name rather than property
+            ""
+    })
+    void rejectsTamperedOrForeignCursors(String raw) {
+        String token = raw.equals("not base64!") ? raw : encode(raw);
+
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> FileCursor.decode(token));
+        assertEquals("Invalid cursor", ex.getMessage());
+    }
+
+    @Test
+    void rejectsTruncatedToken() {
+        String token = new FileCursor(FileSortKey.FILE_SIZE, Sort.Direction.ASC, 5L, 3L).encode();
+
+        assertThrows(IllegalArgumentException.class, () -> FileCursor.decode(token.substring(0, token.length() / 2)));
+    }
+
+    private static void assertRoundTrip(FileCursor cursor) {
+        FileCursor decoded = FileCursor.decode(cursor.encode());
+        assertEquals(cursor.getSortKey(), decoded.getSortKey());
+        assertEquals(cursor.getDirection(), decoded.getDirection());
+        assertEquals(cursor.getValue(), decoded.getValue());
+        assertEquals(cursor.getId(), decoded.getId());
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,123 @@
+package com.razor.BitBucket.metrics;
+
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import com.razor.BitBucket.service.FileStorageService;
+import com.razor.BitBucket.util.JwtUtil;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalManagementPort;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A real server, since the Prometheus endpoint is served on its own management port
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "file.upload-dir=target/test-uploads",
+        "rate-limit.enabled=false",
+        "management.server.port=0"
+})
+@AutoConfigureObservability(tracing = false)
+class MetricsEndpointTests {
+
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @LocalServerPort
+    private int port;
+
+    @LocalManagementPort
+    private int managementPort;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+    }
+
+    @Test
+    void prometheusIsServedOnTheManagementPortOnly() throws Exception {
+        HttpResponse<String> scrape = get(managementPort, "/actuator/prometheus", null);
+
+        assertEquals(200, scrape.statusCode());
+        assertTrue(scrape.body().contains("jvm_memory_used_bytes{"));
+        assertTrue(scrape.body().contains("hikaricp_connections_active{"));
+        assertTrue(scrape.body().contains("application=\"BitBucket\""));
+        assertNotEquals(200, get(port, "/actuator/prometheus", null).statusCode());
+    }
+
+    @Test
+    void fileOperationsAreTimedByOutcome() throws Exception {
+        byte[] content = new byte[1000];
+        ThreadLocalRandom.current().nextBytes(content);
+        fileStorageService.uploadFile(new MockMultipartFile("file", "data.bin", "application/octet-stream",
+                content), null, owner);
+        assertThrows(IllegalArgumentException.class, () -> fileStorageService.uploadFile(
+                new MockMultipartFile("file", "empty.bin", "application/octet-stream", new byte[0]), null, owner));
+
+        String scrape = get(managementPort, "/actuator/prometheus", null).body();
+
+        assertTrue(scrape.contains("bitbucket_files_operations_seconds_bucket{"), "histogram buckets");
+        assertTrue(scrape.matches("(?s).*bitbucket_files_operations_seconds_count\\{[^}]*"
+                + "operation=\"upload\",outcome=\"success\"} \\d.*"));
+        assertTrue(scrape.matches("(?s).*bitbucket_files_operations_seconds_count\\{[^}]*"
+                + "operation=\"upload\",outcome=\"error\"} \\d.*"));
+        assertTrue(scrape.contains("bitbucket_upload_size_bytes_count{"));
+        assertTrue(scrape.contains("bitbucket_storage_written_bytes_total{"));
+    }
+
+    @Test
+    void apiRequestsRecordStatementsAndBytesSent() throws Exception {
+        double sentBefore = meterRegistry.get("bitbucket.transfer.sent").counter().count();
+
+        HttpResponse<String> response = get(port, "/api/files", jwtUtil.generateToken(owner));
+
+        assertEquals(200, response.statusCode());
+        DistributionSummary statements = meterRegistry.get("bitbucket.db.statements")
+                .tag("uri", "/api/files").summary();
+        assertTrue(statements.count() >= 1);
+        assertTrue(statements.max() >= 1, "the listing is at least one query");
+        assertEquals(response.body().length(),
+                meterRegistry.get("bitbucket.transfer.sent").counter().count() - sentBefore);
+        assertTrue(get(managementPort, "/actuator/prometheus", null).body()
+                .contains("http_server_requests_seconds_bucket{"));
+    }
+
+    private HttpResponse<String> get(int port, String path, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
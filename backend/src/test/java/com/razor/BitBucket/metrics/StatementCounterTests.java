@@ -0,0 +1,39 @@
+package com.razor.BitBucket.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StatementCounterTests {
+
+    @Test
+    void countsStatementsBetweenStartAndStop() {
+        StatementCounter counter = new StatementCounter();
+        counter.inspect("SELECT 0");
+
+        counter.start();
+        counter.inspect("SELECT 1");
+        counter.inspect("SELECT 2");
+
+        assertEquals(2, counter.stop());
+        assertEquals(0, counter.stop());
+    }
+
+    @Test
+    void statementsOfOtherThreadsAreNotCounted() {
+        StatementCounter counter = new StatementCounter();
+        counter.start();
+
+        CompletableFuture.runAsync(() -> counter.inspect("SELECT 1")).join();
+        counter.inspect("SELECT 2");
+
+        assertEquals(1, counter.stop());
+    }
+
+    @Test
+    void inspectLeavesTheStatementAlone() {
+        assertEquals("SELECT 1", new StatementCounter().inspect("SELECT 1"));
+    }
+}
@@ -0,0 +1,356 @@
+package com.razor.BitBucket.ratelimit;
+
+import com.razor.BitBucket.dto.AuthenticatedUser;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.util.ZeroCopyTransfer;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitFilterTests {
+
+    private static final String ANONYMOUS = "ip:127.0.0.1";
+
+    // Distinct capacities, so the bucket a request drew from can be told from the others
+    private static final long READ_CAPACITY = 10;
+    private static final long SEARCH_CAPACITY = 20;
+    private static final long UPLOAD_CAPACITY = 1000;
+    private static final long DOWNLOAD_CAPACITY = 1000;
+
+    private final RateLimiter rateLimiter = new RateLimiter(limits(Duration.ofHours(1)), null);
+    private final RateLimitFilter filter = new RateLimitFilter(rateLimiter);
+
+    @AfterEach
+    void clearSecurityContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "GET, /api/files, READ",
+            "HEAD, /api/folders/3, READ",
+            "GET, /api/files/search, SEARCH",
+            "POST, /api/files/upload, UPLOAD_BYTES",
+            "POST, /api/files/upload/batch, UPLOAD_BYTES",
+            "PUT, /api/uploads/abc, UPLOAD_BYTES",
+            "GET, /api/files/7/download, DOWNLOAD_BYTES",
+            "HEAD, /api/files/7/download, DOWNLOAD_BYTES",
+            "GET, /api/folders/3/archive, DOWNLOAD_BYTES"
+    })
+    void mapsRequestsToTrafficClasses(String method, String path, RateLimitClass expected) throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request(method, path), new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        for (RateLimitClass limitClass : RateLimitClass.values()) {
+            long available = rateLimiter.bucket(ANONYMOUS, limitClass).getAvailableTokens();
+            // Downloads pay per byte written, and nothing was written
+            boolean charged = limitClass == expected && expected != RateLimitClass.DOWNLOAD_BYTES;
+            assertEquals(capacity(limitClass) - (charged ? 1 : 0), available, limitClass.name());
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "GET, /actuator/health",
+            "GET, /index.html",
+            "POST, /api/folders",
+            "DELETE, /api/files/7",
+            "POST, /api/uploads/abc/commit"
+    })
+    void leavesOtherRequestsAlone(String method, String path) throws Exception {
+        MockHttpServletRequest request = request(method, path);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+
+        assertSame(request, chain.getRequest());
+        assertSame(response, chain.getResponse());
+        for (RateLimitClass limitClass : RateLimitClass.values()) {
+            assertEquals(capacity(limitClass), rateLimiter.bucket(ANONYMOUS, limitClass).getAvailableTokens());
+        }
+    }
+
+    @Test
+    void bucketsAreKeyedByUserWhenAuthenticated() throws Exception {
+        AuthenticatedUser user = new AuthenticatedUser(42L, "user@example.com", Role.USER);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, List.of()));
+
+        filter.doFilter(request("GET", "/api/files"), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertEquals(READ_CAPACITY - 1, rateLimiter.bucket("user:42", RateLimitClass.READ).getAvailableTokens());
+        assertEquals(READ_CAPACITY, rateLimiter.bucket(ANONYMOUS, RateLimitClass.READ).getAvailableTokens());
+    }
+
+    @Test
+    void readsReportRemainingThenAreRejectedWithRetryAfter() throws Exception {
+        for (long i = READ_CAPACITY - 1; i >= 0; i--) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request("GET", "/api/files"), response, new MockFilterChain());
+            assertEquals(200, response.getStatus());
+            assertEquals(Long.toString(i), response.getHeader(RateLimitFilter.REMAINING_HEADER));
+        }
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request("GET", "/api/files"), response, chain);
+
+        assertNull(chain.getRequest(), "a rejected request must not reach the controller");
+        assertEquals(429, response.getStatus());
+        // One token back takes an hour / capacity = 6 minutes
+        assertEquals("360", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals("0", response.getHeader(RateLimitFilter.REMAINING_HEADER));
+        assertTrue(response.getContentAsString().contains("\"retryAfterSeconds\":360"));
+    }
+
+    @Test
+    void searchesHaveTheirOwnBucket() throws Exception {
+        for (int i = 0; i < READ_CAPACITY; i++) {
+            filter.doFilter(request("GET", "/api/files"), new MockHttpServletResponse(), new MockFilterChain());
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request("GET", "/api/files/search"), response, new MockFilterChain());
+
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    void uploadIsAdmittedThenChargedItsFullLength() throws Exception {
+        MockHttpServletRequest request = request("POST", "/api/files/upload");
+        request.setContent(new byte[400]);
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        assertEquals(UPLOAD_CAPACITY - 400, bucket(RateLimitClass.UPLOAD_BYTES).getAvailableTokens());
+    }
+
+    @Test
+    void uploadLargerThanTheBucketIsAdmittedAndLeavesADebt() throws Exception {
+        MockHttpServletRequest first = request("PUT", "/api/uploads/abc");
+        first.setContent(new byte[(int) UPLOAD_CAPACITY * 3]);
+        MockFilterChain firstChain = new MockFilterChain();
+        filter.doFilter(first, new MockHttpServletResponse(), firstChain);
+
+        assertNotNull(firstChain.getRequest());
+        assertEquals(-2 * UPLOAD_CAPACITY, bucket(RateLimitClass.UPLOAD_BYTES).getAvailableTokens());
+
+        // The next upload waits until the debt is paid off, however small it is
+        MockHttpServletRequest second = request("PUT", "/api/uploads/abc");
+        second.setContent(new byte[1]);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain secondChain = new MockFilterChain();
+        filter.doFilter(second, response, secondChain);
+
+        assertNull(secondChain.getRequest());
+        assertEquals(429, response.getStatus());
+        long retryAfter = Long.parseLong(response.getHeader(HttpHeaders.RETRY_AFTER));
+        // About 2001 bytes at 1000 per hour, less whatever refilled while the test ran
+        assertTrue(retryAfter > 7100 && retryAfter <= 7204, "Retry-After " + retryAfter);
+    }
+
+    @Test
+    void uploadWithoutContentLengthOnlyPaysAdmission() throws Exception {
+        MockHttpServletRequest request = request("PUT", "/api/uploads/abc");
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        assertEquals(UPLOAD_CAPACITY - 1, bucket(RateLimitClass.UPLOAD_BYTES).getAvailableTokens());
+    }
+
+    @Test
+    void streamedDownloadPaysForWrittenBytes() throws Exception {
+        MockHttpServletRequest request = request("GET", "/api/files/7/download");
+        request.setAttribute("other", "kept");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        byte[] body = new byte[300];
+        body[299] = 7;
+        CapturingChain chain = new CapturingChain(body);
+
+        filter.doFilter(request, response, chain);
+
+        assertEquals("kept", chain.request.getAttribute("other"));
+        assertInstanceOf(ThrottledResponse.class, chain.response);
+        assertEquals(300, response.getContentAsByteArray().length);
+        assertEquals(7, response.getContentAsByteArray()[299]);
+        // Paid in one grant of the bucket's capacity; what isn't written yet is credit
+        assertEquals(0, bucket(RateLimitClass.DOWNLOAD_BYTES).getAvailableTokens());
+    }
+
+    @Test
+    void downloadUnderTheLimitKeepsSendfileAndPaysUpFront(@TempDir Path dir) throws Exception {
+        File file = file(dir, 300);
+        MockHttpServletRequest request = sendfileRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        SendfileChain chain = new SendfileChain(file);
+
+        filter.doFilter(request, response, chain);
+
+        assertTrue(chain.sent);
+        assertEquals(file.getCanonicalPath(), request.getAttribute(ZeroCopyTransfer.SENDFILE_FILENAME_ATTR));
+        assertEquals(0L, request.getAttribute(ZeroCopyTransfer.SENDFILE_START_ATTR));
+        assertEquals(300L, request.getAttribute(ZeroCopyTransfer.SENDFILE_END_ATTR));
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(DOWNLOAD_CAPACITY - 300, bucket(RateLimitClass.DOWNLOAD_BYTES).getAvailableTokens());
+    }
+
+    @Test
+    void downloadTheBucketCannotCoverIsStreamedInstead(@TempDir Path dir) throws Exception {
+        // 1000 bytes every 2s, so the stream only waits for the 800 the first download took
+        RateLimitFilter paced = new RateLimitFilter(new RateLimiter(limits(Duration.ofSeconds(2)), null));
+        SendfileChain first = new SendfileChain(file(dir, 800));
+        paced.doFilter(sendfileRequest(), new MockHttpServletResponse(), first);
+
+        MockHttpServletRequest request = sendfileRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        SendfileChain second = new SendfileChain(file(dir, 300));
+        paced.doFilter(request, response, second);
+
+        assertTrue(first.sent);
+        assertFalse(second.sent);
+        assertNull(request.getAttribute(ZeroCopyTransfer.SENDFILE_FILENAME_ATTR));
+        assertEquals(300, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void downloadLargerThanTheBucketIsNeverSentWithSendfile(@TempDir Path dir) throws Exception {
+        RateLimitFilter paced = new RateLimitFilter(new RateLimiter(limits(Duration.ofSeconds(2)), null));
+        MockHttpServletRequest request = sendfileRequest();
+        SendfileChain chain = new SendfileChain(file(dir, (int) DOWNLOAD_CAPACITY + 1));
+
+        paced.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertFalse(chain.sent);
+        assertNull(request.getAttribute(ZeroCopyTransfer.SENDFILE_FILENAME_ATTR));
+    }
+
+    @Test
+    void downloadIsPacedToTheRefillRate() throws Exception {
+        // 1000 bytes now, then 1000 more every 200ms
+        RateLimiter fast = new RateLimiter(limits(Duration.ofMillis(200)), null);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        long start = System.nanoTime();
+
+        new RateLimitFilter(fast).doFilter(request("GET", "/api/files/7/download"), response,
+                new CapturingChain(new byte[3000]));
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(3000, response.getContentAsByteArray().length);
+        assertTrue(elapsedMillis >= 350, "took " + elapsedMillis + "ms");
+    }
+
+    private Bucket bucket(RateLimitClass limitClass) {
+        return rateLimiter.bucket(ANONYMOUS, limitClass);
+    }
+
+    private static MockHttpServletRequest request(String method, String path) {
+        return new MockHttpServletRequest(method, path);
+    }
+
+    private static MockHttpServletRequest sendfileRequest() {
+        MockHttpServletRequest request = request("GET", "/api/files/7/download");
+        request.setAttribute(ZeroCopyTransfer.SENDFILE_SUPPORT_ATTR, Boolean.TRUE);
+        return request;
+    }
+
+    private static File file(Path dir, int size) throws IOException {
+        return Files.write(Files.createTempFile(dir, "download", ".bin"), new byte[size]).toFile();
+    }
+
+    private static long capacity(RateLimitClass limitClass) {
+        return switch (limitClass) {
+            case READ -> READ_CAPACITY;
+            case SEARCH -> SEARCH_CAPACITY;
+            case UPLOAD_BYTES -> UPLOAD_CAPACITY;
+            case DOWNLOAD_BYTES -> DOWNLOAD_CAPACITY;
+        };
+    }
+
+    // Each bucket refills its full capacity once per period
+    private static Map<RateLimitClass, BucketConfiguration> limits(Duration period) {
+        Map<RateLimitClass, BucketConfiguration> limits = new EnumMap<>(RateLimitClass.class);
+        for (RateLimitClass limitClass : RateLimitClass.values()) {
+            long capacity = capacity(limitClass);
+            limits.put(limitClass, BucketConfiguration.builder()
+                    .addLimit(Bandwidth.builder().capacity(capacity).refillGreedy(capacity, period).build())
+                    .build());
+        }
+        return limits;
+    }
+
+    // Writes the body the way a controller streaming a download would
+    private static final class CapturingChain extends MockFilterChain {
+        private final byte[] body;
+        private ServletRequest request;
+        private ServletResponse response;
+
+        private CapturingChain(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            this.request = request;
+            this.response = response;
+            response.getOutputStream().write(body);
+            response.flushBuffer();
+        }
+    }
+
+    // Tries sendfile the way the zero-copy converters do, and streams the file if it is turned down
+    private static final class SendfileChain extends MockFilterChain {
+        private final File file;
+        private boolean sent;
+
+        private SendfileChain(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes((HttpServletRequest) request));
+            try {
+                sent = ZeroCopyTransfer.trySendfile(file, 0, file.length());
+            } finally {
+                RequestContextHolder.resetRequestAttributes();
+            }
+            if (!sent) {
+                response.getOutputStream().write(Files.readAllBytes(file.toPath()));
+                response.flushBuffer();
+            }
+        }
+    }
+}
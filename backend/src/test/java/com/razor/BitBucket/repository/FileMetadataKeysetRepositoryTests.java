@@ -0,0 +1,152 @@
+package com.razor.BitBucket.repository;
+
+import com.razor.BitBucket.dto.FileCursor;
+import com.razor.BitBucket.dto.FileSortKey;
+import com.razor.BitBucket.model.FileMetadata;
+import com.razor.BitBucket.model.Folder;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Only JPQL runs here, so an in-memory database stands in for Postgres
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false"
+})
+class FileMetadataKeysetRepositoryTests {
+
+    private static final int PAGE_SIZE = 3;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private FileMetadataRepository fileMetadataRepository;
+
+    private User owner;
+    private Folder folder;
+
+    @BeforeEach
+    void setUp() {
+        owner = entityManager.persist(new User("owner@example.com", "secret", Role.USER));
+        User other = entityManager.persist(new User("other@example.com", "secret", Role.USER));
+        folder = entityManager.persist(new Folder("docs", null, owner));
+
+        // Long runs of equal names and sizes, so most page boundaries fall inside a tie
+        String[] names = {"a.txt", "b:c.txt", "b:c.txt", "b:c.txt", "b:c.txt", "d.txt", "d.txt", "e.txt"};
+        long[] sizes = {10, 10, 10, 10, 20, 20, 20, 5};
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < names.length; i++) {
+                entityManager.persist(file(names[i], sizes[i], folder, owner));
+                entityManager.persist(file(names[i], sizes[i], null, owner));
+                entityManager.persist(file(names[i], sizes[i], folder, other));
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    static Stream<Arguments> sorts() {
+        return Stream.of(FileSortKey.FILE_NAME, FileSortKey.FILE_SIZE, FileSortKey.UPLOADED_AT)
+                .flatMap(key -> Stream.of(Arguments.of(key, Sort.Direction.ASC), Arguments.of(key, Sort.Direction.DESC)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("sorts")
+    void pagesThroughFolderWithoutSkippingOrRepeating(FileSortKey sortKey, Sort.Direction direction) {
+        List<FileMetadata> paged = pageThrough(after ->
+                fileMetadataRepository.findSliceInFolder(owner, folder, sortKey, direction, after, PAGE_SIZE),
+                sortKey, direction);
+
+        assertInOrder(expected(true, sortKey, direction), paged);
+    }
+
+    @ParameterizedTest
+    @MethodSource("sorts")
+    void pagesThroughTopLevel(FileSortKey sortKey, Sort.Direction direction) {
+        List<FileMetadata> paged = pageThrough(after ->
+                fileMetadataRepository.findSliceInFolder(owner, null, sortKey, direction, after, PAGE_SIZE),
+                sortKey, direction);
+
+        assertInOrder(expected(false, sortKey, direction), paged);
+    }
+
+    @ParameterizedTest
+    @MethodSource("sorts")
+    void pagesThroughSearchResults(FileSortKey sortKey, Sort.Direction direction) {
+        List<FileMetadata> paged = pageThrough(after ->
+                fileMetadataRepository.findSliceByFileName(owner, "b:c%", sortKey, direction, after, PAGE_SIZE),
+                sortKey, direction);
+
+        List<FileMetadata> all = fileMetadataRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(owner.getId()) && f.getFileName().equals("b:c.txt"))
+                .sorted(order(sortKey, direction))
+                .toList();
+        assertInOrder(all, paged);
+    }
+
+    private List<FileMetadata> pageThrough(PageFetcher fetcher, FileSortKey sortKey, Sort.Direction direction) {
+        List<FileMetadata> rows = new ArrayList<>();
+        FileCursor after = null;
+        for (int pages = 0; pages < 100; pages++) {
+            Slice<FileMetadata> slice = fetcher.fetch(after);
+            rows.addAll(slice.getContent());
+            if (!slice.hasNext()) {
+                return rows;
+            }
+            // Through the token, as a client would send it back
+            after = FileCursor.decode(FileCursor.after(slice.getContent().get(PAGE_SIZE - 1), sortKey, direction).encode());
+        }
+        throw new AssertionError("Paging did not finish");
+    }
+
+    private List<FileMetadata> expected(boolean inFolder, FileSortKey sortKey, Sort.Direction direction) {
+        return fileMetadataRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(owner.getId()))
+                .filter(f -> inFolder ? f.getFolder() != null : f.getFolder() == null)
+                .sorted(order(sortKey, direction))
+                .toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<FileMetadata> order(FileSortKey sortKey, Sort.Direction direction) {
+        Comparator<FileMetadata> bySortKey = (a, b) ->
+                ((Comparable<Object>) sortKey.valueOf(a)).compareTo(sortKey.valueOf(b));
+        Comparator<FileMetadata> comparator = bySortKey.thenComparing(FileMetadata::getId);
+        return direction.isAscending() ? comparator : comparator.reversed();
+    }
+
+    private static void assertInOrder(List<FileMetadata> expected, List<FileMetadata> paged) {
+        List<Long> ids = paged.stream().map(FileMetadata::getId).toList();
+        assertEquals(ids.size(), new HashSet<>(ids).size(), "a row was returned twice");
+        assertEquals(expected.stream().map(FileMetadata::getId).toList(), ids);
+        assertTrue(ids.size() > PAGE_SIZE);
+    }
+
+    private static FileMetadata file(String name, long size, Folder folder, User owner) {
+        return new FileMetadata(name, "hash", "key", size, "text/plain", null, folder, owner);
+    }
+
+    @FunctionalInterface
+    private interface PageFetcher {
+        Slice<FileMetadata> fetch(FileCursor after);
+    }
+}
@@ -0,0 +1,202 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.FileUploadResponse;
+import com.razor.BitBucket.dto.InitUploadRequest;
+import com.razor.BitBucket.dto.UploadSessionDTO;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+
+// The session updates are native Postgres SQL, so this runs against the configured database
+@SpringBootTest(properties = {
+        "file.upload-dir=target/test-uploads/chunked",
+        "file.chunked.chunk-size=4096"
+})
+class ChunkedUploadServiceTests {
+
+    private static final int CHUNK = 4096;
+    private static final Path SESSIONS = Paths.get("target/test-uploads/chunked/.sessions");
+    private static final Path STAGING = Paths.get("target/test-uploads/chunked/.incoming");
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @MockitoSpyBean
+    private StorageUsageService storageUsageService;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+    }
+
+    @Test
+    void chunksOutOfOrderAndRepeatedAssembleTheFile() throws IOException {
+        byte[] content = random(2 * CHUNK + 1000);
+        UploadSessionDTO session = init(content.length, "application/octet-stream");
+
+        write(session, content, 2);
+        write(session, content, 0);
+        UploadSessionDTO progress = write(session, content, 0);
+        assertEquals(CHUNK + 1000, progress.getReceivedBytes());
+        assertEquals(List.of(1), progress.getMissingChunks());
+        progress = write(session, content, 1);
+        assertEquals(content.length, progress.getReceivedBytes());
+        assertTrue(progress.getMissingChunks().isEmpty());
+
+        FileUploadResponse file = chunkedUploadService.commit(session.getId(), owner);
+
+        assertArrayEquals(content, read(file));
+        assertEquals(content.length, file.getFileSize());
+    }
+
+    @Test
+    void incompleteUploadIsNotCommitted() {
+        byte[] content = random(2 * CHUNK);
+        UploadSessionDTO session = init(content.length, "application/octet-stream");
+        write(session, content, 1);
+
+        assertThrows(IllegalStateException.class, () -> chunkedUploadService.commit(session.getId(), owner));
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    void commitAfterAFinishedOneReturnsTheSameFile() throws IOException {
+        // Compressible, so the part file is read through the encoder rather than linked
+        byte[] content = (UUID.randomUUID() + "0123456789abcdef".repeat(1000)).getBytes(StandardCharsets.UTF_8);
+        UploadSessionDTO session = init(content.length, "text/plain");
+        for (int chunk = 0; chunk * CHUNK < content.length; chunk++) {
+            write(session, content, chunk);
+        }
+
+        FileUploadResponse first = chunkedUploadService.commit(session.getId(), owner);
+        FileUploadResponse again = chunkedUploadService.commit(session.getId(), owner);
+
+        assertEquals(first.getId(), again.getId());
+        assertEquals(1, fileCount());
+        assertArrayEquals(content, read(first));
+        assertFalse(Files.exists(SESSIONS.resolve(session.getId() + ".part")));
+        assertThrows(IllegalStateException.class, () -> write(session, content, 0));
+    }
+
+    @Test
+    void failedCommitKeepsThePartFileAndCanBeRetried() throws IOException {
+        byte[] content = random(CHUNK + 10);
+        UploadSessionDTO session = init(content.length, "application/octet-stream");
+        write(session, content, 0);
+        write(session, content, 1);
+        // Fails inside the transaction that saves the file's row, after the content was published
+        doThrow(new IllegalStateException("Database unavailable")).doCallRealMethod()
+                .when(storageUsageService).record(any(), anyLong(), anyLong());
+
+        assertThrows(IllegalStateException.class, () -> chunkedUploadService.commit(session.getId(), owner));
+
+        assertEquals(0, fileCount());
+        assertTrue(Files.exists(SESSIONS.resolve(session.getId() + ".part")));
+        assertEquals(List.of(), stagingFiles());
+        // Reopened, so chunks are accepted again
+        write(session, content, 1);
+
+        FileUploadResponse file = chunkedUploadService.commit(session.getId(), owner);
+        assertArrayEquals(content, read(file));
+        assertEquals(1, fileCount());
+    }
+
+    @Test
+    void quotaIsCheckedAgainAtCommit() throws IOException {
+        owner.setStorageQuota((long) 3 * CHUNK);
+        byte[] content = random(2 * CHUNK);
+        UploadSessionDTO session = init(content.length, "application/octet-stream");
+        write(session, content, 0);
+        write(session, content, 1);
+        // Another upload takes most of the quota before this one commits
+        fileStorageService.uploadFile(new MockMultipartFile("file", "other.bin",
+                "application/octet-stream", random(2 * CHUNK)), null, owner);
+
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> chunkedUploadService.commit(session.getId(), owner));
+        assertTrue(ex.getMessage().startsWith("Storage quota exceeded"));
+        assertEquals(1, fileCount());
+
+        // Still open: once there is room again the same session commits
+        owner.setStorageQuota(null);
+        FileUploadResponse file = chunkedUploadService.commit(session.getId(), owner);
+        assertArrayEquals(content, read(file));
+    }
+
+    private UploadSessionDTO init(long totalSize, String contentType) {
+        InitUploadRequest request = new InitUploadRequest();
+        request.setFileName("upload.bin");
+        request.setTotalSize(totalSize);
+        request.setContentType(contentType);
+        return chunkedUploadService.initSession(request, owner);
+    }
+
+    private UploadSessionDTO write(UploadSessionDTO session, byte[] content, int chunk) {
+        int start = chunk * CHUNK;
+        int end = Math.min(start + CHUNK, content.length);
+        String range = "bytes " + start + "-" + (end - 1) + "/" + content.length;
+        InputStream body = new ByteArrayInputStream(Arrays.copyOfRange(content, start, end));
+        return chunkedUploadService.writeChunk(session.getId(), range, body, owner);
+    }
+
+    private byte[] read(FileUploadResponse file) throws IOException {
+        try (InputStream in = fileStorageService.downloadFile(
+                fileStorageService.getDownloadDescriptor(file.getId(), owner)).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private long fileCount() {
+        return fileStorageService.listFiles(owner, null, PageRequest.of(0, 10)).getTotalElements();
+    }
+
+    private static List<Path> stagingFiles() throws IOException {
+        try (Stream<Path> files = Files.list(STAGING)) {
+            return files.toList();
+        }
+    }
+
+    // Never seen before, so it can't be deduplicated against what earlier runs left in the database
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+}
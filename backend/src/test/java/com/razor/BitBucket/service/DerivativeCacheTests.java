@@ -0,0 +1,102 @@
+package com.razor.BitBucket.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DerivativeCacheTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writtenFileIsReadBack() throws IOException {
+        DerivativeCache cache = cache(DataSize.ofKilobytes(100));
+        byte[] content = {1, 2, 3};
+
+        cache.write("a.jpg", content);
+
+        assertTrue(cache.contains("a.jpg"));
+        assertArrayEquals(content, cache.read("a.jpg"));
+        assertNull(cache.read("missing.jpg"));
+        assertEquals(List.of("a.jpg"), files());
+    }
+
+    @Test
+    void diskUseStaysWithinTheLimit() throws Exception {
+        DerivativeCache cache = cache(DataSize.ofBytes(3000));
+
+        for (int i = 0; i < 10; i++) {
+            cache.write(i + ".jpg", new byte[1000]);
+        }
+
+        // Evictions run on another thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (diskUse() > 3000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(diskUse() <= 3000, diskUse() + " bytes on disk");
+        assertTrue(cache.getSize() <= 3000);
+        for (String name : files()) {
+            assertTrue(cache.contains(name), name + " is on disk but not tracked");
+        }
+    }
+
+    @Test
+    void fileDeletedBehindItsBackIsAMiss() throws IOException {
+        DerivativeCache cache = cache(DataSize.ofKilobytes(100));
+        cache.write("a.jpg", new byte[10]);
+        Files.delete(directory.resolve("a.jpg"));
+
+        assertNull(cache.read("a.jpg"));
+        assertFalse(cache.contains("a.jpg"));
+    }
+
+    @Test
+    void restartAdoptsFinishedFilesAndDropsPartialOnes() throws Exception {
+        Files.write(directory.resolve("kept.jpg"), new byte[100]);
+        Files.write(directory.resolve("derivative-123.tmp"), new byte[100]);
+
+        DerivativeCache cache = cache(DataSize.ofKilobytes(100));
+
+        assertTrue(cache.contains("kept.jpg"));
+        // The weighed size catches up on another thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getSize() != 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, cache.getSize());
+        assertEquals(List.of("kept.jpg"), files());
+    }
+
+    private DerivativeCache cache(DataSize maxSize) throws IOException {
+        return new DerivativeCache(directory, maxSize, new SimpleMeterRegistry());
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private long diskUse() throws IOException {
+        long total = 0;
+        for (String name : files()) {
+            total += Files.size(directory.resolve(name));
+        }
+        return total;
+    }
+}
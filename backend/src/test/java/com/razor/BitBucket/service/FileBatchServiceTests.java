@@ -0,0 +1,222 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.BatchItemResultDTO;
+import com.razor.BitBucket.dto.BatchResultDTO;
+import com.razor.BitBucket.dto.CreateFolderRequest;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.StoredBlobRepository;
+import com.razor.BitBucket.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+
+// The blob reference updates are native Postgres SQL, so this runs against the configured database
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads/batch", "rate-limit.enabled=false"})
+class FileBatchServiceTests {
+
+    private static final Path UPLOAD_DIR = Paths.get("target/test-uploads/batch");
+
+    @Autowired
+    private FileBatchService fileBatchService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private StoredBlobRepository storedBlobRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @MockitoSpyBean
+    private FileJobService fileJobService;
+
+    @MockitoSpyBean
+    private StorageUsageService storageUsageService;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+    }
+
+    @Test
+    void badItemsAreReportedWhileTheRestAreStored() {
+        BatchResultDTO result = fileBatchService.uploadFiles(List.of(
+                file("one.bin", random(100)),
+                file("empty.bin", new byte[0]),
+                file("two.bin", random(200))), null, owner);
+
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, result.getFailed());
+        BatchItemResultDTO empty = result.getItems().get(1);
+        assertFalse(empty.isSuccess());
+        assertEquals("Cannot upload empty file", empty.getError());
+        assertEquals(List.of("one.bin", "empty.bin", "two.bin"),
+                result.getItems().stream().map(BatchItemResultDTO::getFileName).toList());
+        assertEquals(2, fileCount(null));
+        assertEquals(300, storageUsageService.getUsage(owner).getUsedBytes());
+    }
+
+    @Test
+    void failedUploadBatchRollsBackAsOne() throws IOException {
+        byte[] first = random(100);
+        byte[] second = random(200);
+        List<Path> before = storedFiles();
+        doThrow(new IllegalStateException("Database unavailable")).when(fileJobService).enqueue(any());
+
+        assertThrows(IllegalStateException.class, () -> fileBatchService.uploadFiles(
+                List.of(file("one.bin", first), file("two.bin", second)), null, owner));
+
+        assertEquals(0, fileCount(null));
+        assertEquals(0, storageUsageService.getUsage(owner).getUsedBytes());
+        assertTrue(storedBlobRepository.findByHash(sha256(first)).isEmpty());
+        assertTrue(storedBlobRepository.findByHash(sha256(second)).isEmpty());
+        // Neither the published content nor its staging files are left behind
+        assertEquals(before, storedFiles());
+    }
+
+    @Test
+    void deleteReportsWhatItCouldNotFind() {
+        User other = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+        Long mine = upload(owner, random(100));
+        Long theirs = upload(other, random(100));
+
+        BatchResultDTO result = fileBatchService.deleteFiles(List.of(mine, theirs, -1L, mine), owner);
+
+        assertEquals(List.of(true, false, false), result.getItems().stream().map(BatchItemResultDTO::isSuccess)
+                .toList());
+        assertEquals(0, fileCount(null));
+        assertEquals(0, storageUsageService.getUsage(owner).getFiles());
+        assertEquals(1, storageUsageService.getUsage(other).getFiles());
+    }
+
+    @Test
+    void failedDeleteBatchKeepsEveryFile() {
+        byte[] content = random(100);
+        Long first = upload(owner, content);
+        Long second = upload(owner, random(100));
+        long refs = storedBlobRepository.findByHash(sha256(content)).orElseThrow().getRefCount();
+        doThrow(new IllegalStateException("Database unavailable"))
+                .when(storageUsageService).record(any(), anyLong(), anyLong());
+
+        assertThrows(IllegalStateException.class, () -> fileBatchService.deleteFiles(List.of(first, second), owner));
+
+        assertEquals(2, fileCount(null));
+        assertEquals(refs, storedBlobRepository.findByHash(sha256(content)).orElseThrow().getRefCount());
+    }
+
+    @Test
+    void moveTakesOnlyTheCallersFiles() {
+        Long target = folder("target");
+        Long first = upload(owner, random(100));
+        Long second = upload(owner, random(100));
+
+        BatchResultDTO result = fileBatchService.moveFiles(List.of(first, second, -1L), target, owner);
+
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, result.getFailed());
+        assertEquals(0, fileCount(null));
+        assertEquals(2, fileCount(target));
+    }
+
+    @Test
+    void moveIntoAnotherUsersFolderIsRefused() {
+        User other = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+        CreateFolderRequest request = new CreateFolderRequest();
+        request.setName("theirs");
+        Long theirs = folderService.createFolder(request, other).getId();
+        Long file = upload(owner, random(100));
+
+        assertThrows(IllegalArgumentException.class, () -> fileBatchService.moveFiles(List.of(file), theirs, owner));
+        assertEquals(1, fileCount(null));
+    }
+
+    @Test
+    void batchesAreBounded() {
+        assertThrows(IllegalArgumentException.class, () -> fileBatchService.deleteFiles(List.of(), owner));
+        List<Long> tooMany = new ArrayList<>();
+        for (long id = 1; id <= 1001; id++) {
+            tooMany.add(id);
+        }
+        assertThrows(IllegalArgumentException.class, () -> fileBatchService.deleteFiles(tooMany, owner));
+        List<MultipartFile> files = Collections.nCopies(1001, file("a.bin", new byte[1]));
+        assertThrows(IllegalArgumentException.class, () -> fileBatchService.uploadFiles(files, null, owner));
+    }
+
+    private Long upload(User user, byte[] content) {
+        return fileStorageService.uploadFile(file("data.bin", content), null, user).getId();
+    }
+
+    private Long folder(String name) {
+        CreateFolderRequest request = new CreateFolderRequest();
+        request.setName(name);
+        return folderService.createFolder(request, owner).getId();
+    }
+
+    // Listings read the folder's name, which needs the session a request would hold open
+    private long fileCount(Long folderId) {
+        return transactionTemplate.execute(status ->
+                fileStorageService.listFiles(owner, folderId, PageRequest.of(0, 10)).getTotalElements());
+    }
+
+    private static MockMultipartFile file(String name, byte[] content) {
+        return new MockMultipartFile("files", name, "application/octet-stream", content);
+    }
+
+    private static List<Path> storedFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(UPLOAD_DIR)) {
+            return files.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+}
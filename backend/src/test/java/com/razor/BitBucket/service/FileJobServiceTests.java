@@ -0,0 +1,189 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.model.FileJob;
+import com.razor.BitBucket.model.FileMetadata;
+import com.razor.BitBucket.model.JobStage;
+import com.razor.BitBucket.repository.FileJobRepository;
+import com.razor.BitBucket.repository.FileMetadataRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// The queue itself lives in Postgres; here the repository is mocked so attempts can be set up exactly
+class FileJobServiceTests {
+
+    private static final Duration BACKOFF = Duration.ofSeconds(30);
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final FileJobRepository fileJobRepository = mock(FileJobRepository.class);
+    private final FileMetadataRepository fileMetadataRepository = mock(FileMetadataRepository.class);
+    private final ThumbnailService thumbnailService = mock(ThumbnailService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FileJobService fileJobService;
+
+    @BeforeEach
+    void setUp() {
+        fileJobService = new FileJobService(fileJobRepository, fileMetadataRepository, thumbnailService,
+                meterRegistry, 2, MAX_ATTEMPTS, BACKOFF, Duration.ofMinutes(10), Duration.ofDays(7));
+        FileMetadata file = mock(FileMetadata.class);
+        when(file.getFilePath()).thenReturn("0/ab/cd/key");
+        when(file.getFileSize()).thenReturn(100L);
+        when(fileMetadataRepository.findById(7L)).thenReturn(Optional.of(file));
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileJobService.shutdown();
+    }
+
+    @Test
+    void successfulJobIsDone() throws Exception {
+        FileJob job = claimed(1);
+
+        fileJobService.poll();
+
+        verify(fileJobRepository, timeout(5000)).finish(eq(1L), eq(1), eq("DONE"), eq(job.getRunAfter()),
+                isNull(), any());
+        verify(thumbnailService).createThumbnails("0/ab/cd/key", 100L);
+        assertEquals(1, meterRegistry.get("bitbucket.jobs").tag("outcome", "success").counter().count());
+    }
+
+    @Test
+    void failedAttemptIsRetriedAfterABackoffThatDoubles() throws Exception {
+        doThrow(new IOException("Disk full")).when(thumbnailService).createThumbnails(anyString(), anyLong());
+        for (int attempt = 1; attempt < MAX_ATTEMPTS; attempt++) {
+            claimed(attempt);
+            Instant before = Instant.now();
+
+            fileJobService.poll();
+
+            ArgumentCaptor<Instant> runAfter = ArgumentCaptor.forClass(Instant.class);
+            verify(fileJobRepository, timeout(5000)).finish(eq(1L), eq(attempt), eq("PENDING"), runAfter.capture(),
+                    eq("Disk full"), any());
+            Duration backoff = BACKOFF.multipliedBy(1L << (attempt - 1));
+            assertFalse(runAfter.getValue().isBefore(before.plus(backoff)), "attempt " + attempt);
+            assertTrue(runAfter.getValue().isBefore(Instant.now().plus(backoff)), "attempt " + attempt);
+        }
+        assertEquals(MAX_ATTEMPTS - 1, meterRegistry.get("bitbucket.jobs").tag("outcome", "retry").counter().count());
+    }
+
+    @Test
+    void lastAttemptFailsForGood() throws Exception {
+        doThrow(new IOException("Not an image")).when(thumbnailService).createThumbnails(anyString(), anyLong());
+        FileJob job = claimed(MAX_ATTEMPTS);
+
+        fileJobService.poll();
+
+        verify(fileJobRepository, timeout(5000)).finish(eq(1L), eq(MAX_ATTEMPTS), eq("FAILED"),
+                eq(job.getRunAfter()), eq("Not an image"), any());
+        verify(fileJobRepository, never()).finish(anyLong(), anyInt(), eq("PENDING"), any(), any(), any());
+    }
+
+    @Test
+    void jobOfADeletedFileIsDoneWithoutRunning() throws Exception {
+        FileJob job = claimed(1);
+        when(fileMetadataRepository.findById(7L)).thenReturn(Optional.empty());
+
+        fileJobService.poll();
+
+        verify(fileJobRepository, timeout(5000)).finish(eq(1L), eq(1), eq("DONE"), eq(job.getRunAfter()),
+                isNull(), any());
+        verify(thumbnailService, never()).createThumbnails(anyString(), anyLong());
+    }
+
+    @Test
+    void claimsNoMoreJobsThanThereAreFreeWorkers() throws Exception {
+        CountDownLatch running = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(call -> {
+            running.countDown();
+            release.await();
+            return null;
+        }).when(thumbnailService).createThumbnails(anyString(), anyLong());
+        when(fileJobRepository.claim(any(), any(), anyInt()))
+                .thenReturn(List.of(job(1L, 1), job(2L, 1)))
+                .thenReturn(List.of());
+
+        fileJobService.poll();
+        running.await();
+        fileJobService.poll();
+
+        // Both workers are busy, so the second poll doesn't claim at all
+        verify(fileJobRepository, times(1)).claim(any(), any(), eq(2));
+        verify(fileJobRepository, times(1)).claim(any(), any(), anyInt());
+        release.countDown();
+        verify(fileJobRepository, timeout(5000).times(2)).finish(anyLong(), eq(1), eq("DONE"), any(), isNull(),
+                any());
+    }
+
+    @Test
+    void onlyImagesGetAThumbnailJob() {
+        when(thumbnailService.supports("image/png")).thenReturn(true);
+        FileMetadata image = mock(FileMetadata.class);
+        when(image.getId()).thenReturn(1L);
+        when(image.getContentType()).thenReturn("image/png");
+        FileMetadata text = mock(FileMetadata.class);
+        when(text.getContentType()).thenReturn("text/plain");
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            fileJobService.enqueue(List.of(text));
+            verify(fileJobRepository, never()).saveAll(anyList());
+
+            fileJobService.enqueue(List.of(image, text));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<FileJob>> jobs = ArgumentCaptor.forClass(List.class);
+        verify(fileJobRepository).saveAll(jobs.capture());
+        assertEquals(1, jobs.getValue().size());
+        assertEquals(1L, jobs.getValue().get(0).getFileId());
+        assertEquals(JobStage.THUMBNAIL, jobs.getValue().get(0).getStage());
+    }
+
+    // What the claim query hands back: the job is running its given attempt
+    private FileJob claimed(int attempt) {
+        FileJob job = job(1L, attempt);
+        when(fileJobRepository.claim(any(), any(), anyInt())).thenReturn(List.of(job)).thenReturn(List.of());
+        return job;
+    }
+
+    private static FileJob job(Long id, int attempt) {
+        FileJob job = new FileJob(7L, JobStage.THUMBNAIL);
+        ReflectionTestUtils.setField(job, "id", id);
+        ReflectionTestUtils.setField(job, "attempts", attempt);
+        return job;
+    }
+}
@@ -0,0 +1,124 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.FileDownloadDescriptor;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileMetadataCacheTests {
+
+    private final FileMetadataCache cache = new FileMetadataCache(100, Duration.ofMinutes(10), new SimpleMeterRegistry());
+    private final User owner = user(1L);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void fillIsServedWithoutLoadingAgain() {
+        FileDownloadDescriptor descriptor = descriptor(7L, owner);
+
+        assertSame(descriptor, cache.get(7L, owner, () -> load(descriptor)));
+        assertSame(descriptor, cache.get(7L, owner, () -> load(descriptor)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void evictForcesALoad() {
+        FileDownloadDescriptor descriptor = descriptor(7L, owner);
+        cache.get(7L, owner, () -> load(descriptor));
+
+        cache.evict(7L);
+        cache.get(7L, owner, () -> load(descriptor));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void missingFileIsNotCached() {
+        assertThrows(IllegalArgumentException.class, () -> cache.get(7L, owner, Optional::empty));
+
+        FileDownloadDescriptor descriptor = descriptor(7L, owner);
+        assertSame(descriptor, cache.get(7L, owner, () -> load(descriptor)));
+    }
+
+    @Test
+    void otherOwnerGetsNotFound() {
+        FileDownloadDescriptor descriptor = descriptor(7L, owner);
+        cache.get(7L, owner, () -> load(descriptor));
+
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> cache.get(7L, user(2L), () -> load(descriptor)));
+        assertEquals("File not found", ex.getMessage());
+    }
+
+    @Test
+    void evictDuringLoadDropsTheFill() throws Exception {
+        FileDownloadDescriptor stale = descriptor(7L, owner);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+
+        // A download reads the row just before a delete commits and evicts
+        CompletableFuture<FileDownloadDescriptor> download = CompletableFuture.supplyAsync(() ->
+                cache.get(7L, owner, () -> {
+                    loading.countDown();
+                    try {
+                        evicted.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return load(stale);
+                }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        cache.evict(7L);
+        evicted.countDown();
+
+        assertSame(stale, download.get(5, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> cache.get(7L, owner, Optional::empty));
+    }
+
+    @Test
+    void evictOfAnotherStripeKeepsTheFill() {
+        long other = 8L;
+        while (FileMetadataCache.stripe(other) == FileMetadataCache.stripe(7L)) {
+            other++;
+        }
+        long unrelated = other;
+        FileDownloadDescriptor descriptor = descriptor(7L, owner);
+
+        cache.get(7L, owner, () -> {
+            cache.evict(unrelated);
+            return load(descriptor);
+        });
+
+        assertSame(descriptor, cache.get(7L, owner, Optional::empty));
+    }
+
+    private Optional<FileDownloadDescriptor> load(FileDownloadDescriptor descriptor) {
+        loads.incrementAndGet();
+        return Optional.of(descriptor);
+    }
+
+    private static FileDownloadDescriptor descriptor(Long id, User owner) {
+        return new FileDownloadDescriptor(id, owner.getId(), "report.pdf", "application/pdf", 1024L,
+                Instant.parse("2024-01-01T00:00:00Z"), "0/ab/cd/" + id, "\"etag\"", "sha");
+    }
+
+    private static User user(Long id) {
+        User user = new User("user" + id + "@example.com", "password", Role.USER);
+        ReflectionTestUtils.setField(user, "id", id);
+        return user;
+    }
+}
@@ -0,0 +1,133 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.CursorPageDTO;
+import com.razor.BitBucket.dto.FileDTO;
+import com.razor.BitBucket.dto.FileSortKey;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The ranking and the trigram index are Postgres-specific, so this runs against the configured database
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads", "rate-limit.enabled=false"})
+class FileSearchTests {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+        for (String name : List.of("annual-report.txt", "my report notes.txt", "reports.txt", "other.txt",
+                "Report", "report.txt")) {
+            upload(owner, name);
+        }
+    }
+
+    @Test
+    void exactNameFirstThenPrefixThenEarlierMatch() {
+        assertEquals(List.of("Report", "report.txt", "reports.txt", "my report notes.txt", "annual-report.txt"),
+                search("report", false));
+    }
+
+    @Test
+    void prefixOnlyMatchesNamesThatStartWithTheTerm() {
+        assertEquals(List.of("Report", "report.txt", "reports.txt"), search("REPORT", true));
+    }
+
+    @Test
+    void wildcardsInTheTermAreMatchedLiterally() {
+        upload(owner, "50%_off.txt");
+        upload(owner, "50xyoff.txt");
+
+        assertEquals(List.of("50%_off.txt"), search("%_", false));
+    }
+
+    @Test
+    void otherOwnersFilesAreNeverFound() {
+        User other = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+        upload(other, "report-of-someone-else.txt");
+
+        assertTrue(search("someone", false).isEmpty());
+    }
+
+    @Test
+    void cursorSearchPagesThroughTheSameMatches() {
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPageDTO<FileDTO> page = fileStorageService.searchFiles(owner, "report", true, cursor,
+                    FileSortKey.FILE_NAME, Sort.Direction.ASC, 2);
+            page.getContent().forEach(file -> names.add(file.getFileName()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(List.of("Report", "report.txt", "reports.txt"), names);
+    }
+
+    @Test
+    void substringPatternsAreAnsweredFromTheTrigramIndex() {
+        String definition = jdbcTemplate.queryForObject(
+                "SELECT indexdef FROM pg_indexes WHERE indexname = 'idx_file_metadata_name_trgm'", String.class);
+        assertTrue(definition.contains("gin (owner_id, lower((file_name)::text) gin_trgm_ops)"), definition);
+
+        String plan = transactionTemplate.execute(status -> {
+            // Too few rows for the planner to pick an index on its own. The pattern is left on its
+            // own so the owner's btree index can't answer it either.
+            jdbcTemplate.execute("SET LOCAL enable_seqscan = off");
+            return String.join("\n", jdbcTemplate.queryForList(
+                    "EXPLAIN SELECT * FROM file_metadata WHERE lower(file_name) LIKE '%report%'", String.class));
+        });
+        assertTrue(plan.contains("Bitmap Index Scan on idx_file_metadata_name_trgm"), plan);
+    }
+
+    @Test
+    void noMatchIsAnEmptyPage() {
+        CursorPageDTO<FileDTO> page = fileStorageService.searchFiles(owner, "missing", false, null,
+                FileSortKey.UPLOADED_AT, Sort.Direction.DESC, 10);
+
+        assertTrue(page.getContent().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    private List<String> search(String term, boolean prefix) {
+        return fileStorageService.searchFiles(owner, term, prefix, PageRequest.of(0, 20)).getContent().stream()
+                .map(FileDTO::getFileName)
+                .toList();
+    }
+
+    private void upload(User user, String name) {
+        byte[] content = new byte[100];
+        ThreadLocalRandom.current().nextBytes(content);
+        fileStorageService.uploadFile(new MockMultipartFile("file", name, "application/octet-stream", content),
+                null, user);
+    }
+}
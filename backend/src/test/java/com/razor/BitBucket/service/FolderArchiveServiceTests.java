@@ -0,0 +1,206 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.CreateFolderRequest;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.FolderRepository;
+import com.razor.BitBucket.repository.FolderRepository.ArchiveEntry;
+import com.razor.BitBucket.repository.UserRepository;
+import com.razor.BitBucket.service.FolderArchiveService.FolderArchive;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// The entry listing is a recursive Postgres query, so this runs against the configured database
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads", "rate-limit.enabled=false"})
+class FolderArchiveServiceTests {
+
+    @Autowired
+    private FolderArchiveService folderArchiveService;
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FolderRepository folderRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+    }
+
+    @Test
+    void archiveHoldsTheWholeTreeIncludingEmptyFolders() throws IOException {
+        Long root = folder("project", null);
+        Long docs = folder("docs", root);
+        folder("empty", root);
+        byte[] readme = text("readme");
+        byte[] spec = text("spec");
+        upload(root, "README.md", "text/markdown", readme);
+        upload(docs, "spec.txt", "text/plain", spec);
+
+        Map<String, byte[]> entries = unzip(archive(root));
+
+        assertEquals(List.of("project/README.md", "project/docs/spec.txt", "project/empty/"),
+                new ArrayList<>(entries.keySet()));
+        assertArrayEquals(readme, entries.get("project/README.md"));
+        assertArrayEquals(spec, entries.get("project/docs/spec.txt"));
+    }
+
+    @Test
+    void alreadyCompressedContentIsStoredAsIs() throws IOException {
+        Long root = folder("photos", null);
+        byte[] photo = random(50_000);
+        upload(root, "photo.jpg", "image/jpeg", photo);
+        upload(root, "notes.txt", "text/plain", text("notes"));
+
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive(root)))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                zip.readAllBytes();
+                entries.put(entry.getName(), entry);
+            }
+        }
+
+        ZipEntry stored = entries.get("photos/photo.jpg");
+        assertEquals(ZipEntry.STORED, stored.getMethod());
+        assertEquals(photo.length, stored.getSize());
+        CRC32 crc = new CRC32();
+        crc.update(photo);
+        assertEquals(crc.getValue(), stored.getCrc());
+        assertEquals(ZipEntry.DEFLATED, entries.get("photos/notes.txt").getMethod());
+    }
+
+    @Test
+    void sameNamedFilesGetNumberedEntries() throws IOException {
+        Long root = folder("dupes", null);
+        byte[] first = random(100);
+        byte[] second = random(100);
+        upload(root, "a.bin", "application/octet-stream", first);
+        upload(root, "a.bin", "application/octet-stream", second);
+
+        Map<String, byte[]> entries = unzip(archive(root));
+
+        // Same name, so the earlier upload comes first and keeps it
+        assertEquals(List.of("dupes/a.bin", "dupes/a (1).bin"), new ArrayList<>(entries.keySet()));
+        assertArrayEquals(first, entries.get("dupes/a.bin"));
+        assertArrayEquals(second, entries.get("dupes/a (1).bin"));
+    }
+
+    @Test
+    void pagesOfAnySizeListTheSameEntries() {
+        Long root = folder("paged", null);
+        Long left = folder("left", root);
+        Long right = folder("right", root);
+        folder("empty", left);
+        for (Long folder : List.of(root, left, right)) {
+            for (int i = 0; i < 3; i++) {
+                upload(folder, "file-" + i + ".bin", "application/octet-stream", random(10));
+            }
+        }
+
+        List<String> all = entries(root, 1000);
+
+        assertEquals(10, all.size());
+        for (int pageSize : List.of(1, 2, 3, 4)) {
+            assertEquals(all, entries(root, pageSize), "page size " + pageSize);
+        }
+    }
+
+    @Test
+    void unknownFolderIsReportedBeforeAnythingIsWritten() {
+        User other = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+        Long notOwned = folder("private", null);
+
+        assertThrows(IllegalArgumentException.class, () -> folderArchiveService.prepare(notOwned, other));
+    }
+
+    // Walks the keyset the way the archive does, with a smaller page
+    private List<String> entries(Long folderId, int pageSize) {
+        List<String> entries = new ArrayList<>();
+        String afterPath = "";
+        String afterName = "";
+        long afterFileId = -1;
+        List<ArchiveEntry> page;
+        do {
+            page = folderRepository.findArchiveEntries(folderId, owner.getId(), afterPath, afterName, afterFileId,
+                    pageSize);
+            for (ArchiveEntry entry : page) {
+                entries.add(entry.getFolderPath() + "|" + entry.getFileName() + "|" + entry.getFileId());
+            }
+            if (!page.isEmpty()) {
+                ArchiveEntry last = page.get(page.size() - 1);
+                afterPath = last.getFolderPath();
+                afterName = last.getFileName() != null ? last.getFileName() : "";
+                afterFileId = last.getFileId() != null ? last.getFileId() : 0;
+            }
+        } while (page.size() == pageSize);
+        return entries;
+    }
+
+    private byte[] archive(Long folderId) throws IOException {
+        FolderArchive archive = folderArchiveService.prepare(folderId, owner);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        folderArchiveService.write(archive, out);
+        return out.toByteArray();
+    }
+
+    private static Map<String, byte[]> unzip(byte[] archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                entries.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private Long folder(String name, Long parentId) {
+        CreateFolderRequest request = new CreateFolderRequest();
+        request.setName(name);
+        request.setParentId(parentId);
+        return folderService.createFolder(request, owner).getId();
+    }
+
+    private void upload(Long folderId, String name, String contentType, byte[] content) {
+        fileStorageService.uploadFile(new MockMultipartFile("file", name, contentType, content), folderId, owner);
+    }
+
+    private static byte[] text(String label) {
+        return (UUID.randomUUID() + " " + label + "\n").repeat(200).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+}
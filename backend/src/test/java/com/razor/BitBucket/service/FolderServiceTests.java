@@ -0,0 +1,229 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.CreateFolderRequest;
+import com.razor.BitBucket.dto.FolderDTO;
+import com.razor.BitBucket.dto.MoveFolderRequest;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Subtree queries are recursive Postgres SQL, so this runs against the configured database
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads", "rate-limit.enabled=false"})
+class FolderServiceTests {
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageUsageService storageUsageService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+    }
+
+    @Test
+    void deleteTakesEveryFolderAndFileBelow() {
+        Long root = folder("root", null);
+        Long child = folder("child", root);
+        Long grandchild = folder("grandchild", child);
+        Long sibling = folder("sibling", null);
+        upload(root, random(100));
+        upload(child, random(200));
+        upload(grandchild, random(300));
+        upload(sibling, random(400));
+
+        folderService.deleteFolder(root, owner);
+
+        for (Long id : List.of(root, child, grandchild)) {
+            assertThrows(IllegalArgumentException.class, () -> getFolder(id));
+        }
+        assertEquals(1, fileCount(sibling));
+        assertEquals(List.of("sibling"), children(null));
+        assertEquals(1, storageUsageService.getUsage(owner).getFiles());
+        assertEquals(400, storageUsageService.getUsage(owner).getUsedBytes());
+    }
+
+    @Test
+    void deleteKeepsContentSharedWithFilesOutside() throws IOException {
+        byte[] content = random(1000);
+        Long doomed = folder("doomed", null);
+        upload(doomed, content);
+        Long kept = upload(null, content);
+
+        folderService.deleteFolder(doomed, owner);
+
+        try (InputStream in = fileStorageService.downloadFile(
+                fileStorageService.getDownloadDescriptor(kept, owner)).getInputStream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void moveCarriesTheSubtreeAlong() {
+        Long source = folder("source", null);
+        Long inner = folder("inner", source);
+        upload(inner, random(500));
+        Long target = folder("target", null);
+
+        FolderDTO moved = folderService.moveFolder(source, move(target), owner);
+
+        assertEquals(target, moved.getParentId());
+        assertEquals(List.of("inner"), children(source));
+        assertEquals(List.of("source"), children(target));
+        assertEquals(List.of("target"), children(null));
+        assertEquals(2, folderService.getFolderStats(target, owner).getFolders());
+        assertEquals(1, folderService.getFolderStats(target, owner).getFiles());
+        assertEquals(500, folderService.getFolderStats(target, owner).getTotalBytes());
+    }
+
+    @Test
+    void moveToTheTopLevel() {
+        Long parent = folder("parent", null);
+        Long child = folder("child", parent);
+
+        assertNull(folderService.moveFolder(child, move(null), owner).getParentId());
+        assertEquals(List.of("child", "parent"), children(null).stream()
+                .sorted().toList());
+    }
+
+    @Test
+    void folderCannotMoveIntoItselfOrItsOwnSubtree() {
+        Long top = folder("top", null);
+        Long middle = folder("middle", top);
+        Long bottom = folder("bottom", middle);
+
+        assertThrows(IllegalArgumentException.class, () -> folderService.moveFolder(top, move(top), owner));
+        assertThrows(IllegalArgumentException.class, () -> folderService.moveFolder(top, move(bottom), owner));
+
+        assertNull(getFolder(top).getParentId());
+        assertEquals(middle, getFolder(bottom).getParentId());
+    }
+
+    @Test
+    void moveNextToAFolderOfTheSameNameIsRefused() {
+        Long target = folder("target", null);
+        folder("docs", target);
+        Long docs = folder("docs", null);
+
+        assertThrows(IllegalStateException.class, () -> folderService.moveFolder(docs, move(target), owner));
+    }
+
+    @Test
+    void crossedMovesNeverMakeACycle() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 10; round++) {
+                Long a = folder("a" + round, null);
+                Long b = folder("b" + round, null);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<FolderDTO>> moves = new ArrayList<>();
+                moves.add(executor.submit(moveAfter(start, a, b)));
+                moves.add(executor.submit(moveAfter(start, b, a)));
+                start.countDown();
+
+                int succeeded = 0;
+                for (Future<FolderDTO> move : moves) {
+                    try {
+                        move.get();
+                        succeeded++;
+                    } catch (ExecutionException ex) {
+                        assertTrue(ex.getCause() instanceof IllegalArgumentException, ex.getCause().toString());
+                    }
+                }
+                assertEquals(1, succeeded);
+                // Exactly one of them is still at the top level
+                assertTrue(getFolder(a).getParentId() == null
+                        ^ getFolder(b).getParentId() == null);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<FolderDTO> moveAfter(CountDownLatch start, Long folderId, Long parentId) {
+        return () -> {
+            start.await();
+            return folderService.moveFolder(folderId, move(parentId), owner);
+        };
+    }
+
+    // Requests run with the session held open, which the DTOs need for the parent's name
+    private FolderDTO getFolder(Long id) {
+        return transactionTemplate.execute(status -> folderService.getFolder(id, owner));
+    }
+
+    private List<String> children(Long parentId) {
+        return transactionTemplate.execute(status -> names(folderService.listFolders(owner, parentId)));
+    }
+
+    private long fileCount(Long folderId) {
+        return transactionTemplate.execute(status ->
+                fileStorageService.listFiles(owner, folderId, PageRequest.of(0, 10)).getTotalElements());
+    }
+
+    private Long folder(String name, Long parentId) {
+        CreateFolderRequest request = new CreateFolderRequest();
+        request.setName(name);
+        request.setParentId(parentId);
+        return folderService.createFolder(request, owner).getId();
+    }
+
+    private static MoveFolderRequest move(Long parentId) {
+        MoveFolderRequest request = new MoveFolderRequest();
+        request.setParentId(parentId);
+        return request;
+    }
+
+    private Long upload(Long folderId, byte[] content) {
+        return fileStorageService.uploadFile(new MockMultipartFile("file", "data.bin", "application/octet-stream",
+                content), folderId, owner).getId();
+    }
+
+    private static List<String> names(List<FolderDTO> folders) {
+        return folders.stream().map(FolderDTO::getName).toList();
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+}
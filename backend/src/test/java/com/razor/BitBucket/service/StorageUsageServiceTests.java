@@ -0,0 +1,166 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.dto.StorageUsageDTO;
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The counters are upserted with native Postgres SQL, so this runs against the configured database
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads", "rate-limit.enabled=false"})
+class StorageUsageServiceTests {
+
+    @Autowired
+    private StorageUsageService storageUsageService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileBatchService fileBatchService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+    }
+
+    @Test
+    void uploadsAndDeletesMoveTheCounters() {
+        Long first = upload(300);
+        upload(500);
+        assertUsage(2, 800);
+
+        fileStorageService.deleteFile(first, owner);
+
+        assertUsage(1, 500);
+    }
+
+    @Test
+    void uploadThatWouldPassTheQuotaIsRefused() {
+        setQuota(1000);
+        upload(600);
+
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> upload(500));
+
+        assertEquals("Storage quota exceeded: 600 of 1000 bytes used, upload needs 500", ex.getMessage());
+        assertUsage(1, 600);
+        assertEquals(1, fileCount());
+        // Filling it exactly is allowed
+        upload(400);
+        assertUsage(2, 1000);
+    }
+
+    @Test
+    void batchIsCheckedAgainstTheQuotaAsAWhole() {
+        setQuota(1000);
+
+        assertThrows(IllegalArgumentException.class, () -> fileBatchService.uploadFiles(
+                List.of(file(600), file(600)), null, owner));
+
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    void clearedQuotaFallsBackToTheDefault() {
+        setQuota(100);
+        StorageUsageDTO usage = storageUsageService.setQuota(owner.getId(), null);
+        owner = userRepository.findById(owner.getId()).orElseThrow();
+
+        // The default is unlimited here
+        assertNull(usage.getQuotaBytes());
+        upload(500);
+        assertUsage(1, 500);
+    }
+
+    @Test
+    void negativeQuotaIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> storageUsageService.setQuota(owner.getId(), -1L));
+    }
+
+    @Test
+    void reconcileCorrectsCountersThatDrifted() {
+        upload(300);
+        upload(500);
+        transactionTemplate.executeWithoutResult(status -> storageUsageService.record(owner.getId(), 5, 5000));
+        assertUsage(7, 5800);
+
+        storageUsageService.reconcile();
+
+        assertUsage(2, 800);
+    }
+
+    @Test
+    void reconcileFillsInCountersThatWereNeverWritten() {
+        upload(300);
+        jdbcTemplate.update("DELETE FROM storage_usage WHERE user_id = ?", owner.getId());
+        assertUsage(0, 0);
+
+        storageUsageService.reconcile();
+
+        assertUsage(1, 300);
+    }
+
+    @Test
+    void uploadsSpreadOverTheStripes() {
+        for (int i = 0; i < 20; i++) {
+            upload(10);
+        }
+
+        Integer rows = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM storage_usage WHERE user_id = ?", Integer.class, owner.getId());
+        assertTrue(rows > 1 && rows <= 8, rows + " counter rows");
+        assertUsage(20, 200);
+    }
+
+    private void assertUsage(long files, long bytes) {
+        StorageUsageDTO usage = storageUsageService.getUsage(owner);
+        assertEquals(files, usage.getFiles());
+        assertEquals(bytes, usage.getUsedBytes());
+    }
+
+    private void setQuota(long bytes) {
+        assertEquals(bytes, storageUsageService.setQuota(owner.getId(), bytes).getQuotaBytes());
+        owner = userRepository.findById(owner.getId()).orElseThrow();
+    }
+
+    private Long upload(int size) {
+        return fileStorageService.uploadFile(file(size), null, owner).getId();
+    }
+
+    private long fileCount() {
+        return fileStorageService.listFiles(owner, null, PageRequest.of(0, 10)).getTotalElements();
+    }
+
+    private static MockMultipartFile file(int size) {
+        byte[] content = new byte[size];
+        ThreadLocalRandom.current().nextBytes(content);
+        return new MockMultipartFile("file", "data.bin", "application/octet-stream", content);
+    }
+}
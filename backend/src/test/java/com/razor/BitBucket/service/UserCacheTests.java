@@ -0,0 +1,127 @@
+package com.razor.BitBucket.service;
+
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import com.razor.BitBucket.repository.UserRepository;
+import com.razor.BitBucket.util.JwtUtil;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+// Runs against the configured database, like BitBucketApplicationTests
+@SpringBootTest(properties = {"file.upload-dir=target/test-uploads", "rate-limit.enabled=false"})
+@AutoConfigureMockMvc
+class UserCacheTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Value("${jwt.secret}")
+    private String jwtSecret;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.USER));
+    }
+
+    @Test
+    void repeatedLookupsAreServedFromTheCache() {
+        // A second query would hand back a new detached instance
+        assertSame(userCache.get(user.getId()).orElseThrow(), userCache.get(user.getId()).orElseThrow());
+    }
+
+    @Test
+    void accountChangeEvictsTheCachedUser() throws Exception {
+        User cached = userCache.get(user.getId()).orElseThrow();
+        User admin = userRepository.save(new User(UUID.randomUUID() + "@example.com", "secret", Role.ADMIN));
+
+        int status = mockMvc.perform(authorized(put("/api/admin/users/{id}/quota", user.getId()), token(admin))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"quotaBytes\": 12345}"))
+                .andReturn().getResponse().getStatus();
+
+        assertEquals(200, status);
+        User reloaded = userCache.get(user.getId()).orElseThrow();
+        assertNotSame(cached, reloaded);
+        assertEquals(12345L, reloaded.getStorageQuota());
+    }
+
+    @Test
+    void deletedUserIsNoLongerAuthenticated() throws Exception {
+        String token = token(user);
+        assertEquals(200, status(get("/api/files"), token));
+
+        userRepository.delete(user);
+
+        assertTrue(userCache.get(user.getId()).isEmpty());
+        assertEquals(403, status(get("/api/files"), token));
+    }
+
+    @Test
+    void roleComesFromTheUserRowNotTheToken() throws Exception {
+        String claimsAdmin = Jwts.builder()
+                .subject(user.getEmail())
+                .claim("uid", user.getId())
+                .claim("role", Role.ADMIN.name())
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(Keys.hmacShaKeyFor(jwtSecret.getBytes()))
+                .compact();
+
+        assertEquals(403, status(get("/api/admin/storage/dedup"), claimsAdmin));
+    }
+
+    @Test
+    void tokenWithoutAUserIdIsResolvedByEmail() throws Exception {
+        String legacy = Jwts.builder()
+                .subject(user.getEmail())
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(Keys.hmacShaKeyFor(jwtSecret.getBytes()))
+                .compact();
+
+        assertEquals(200, status(get("/api/files"), legacy));
+        User cached = userCache.get(user.getId()).orElseThrow();
+        assertSame(cached, userCache.get(user.getId()).orElseThrow());
+    }
+
+    private int status(MockHttpServletRequestBuilder request, String token) throws Exception {
+        return mockMvc.perform(authorized(request, token)).andReturn().getResponse().getStatus();
+    }
+
+    private MockHttpServletRequestBuilder authorized(MockHttpServletRequestBuilder request, String token) {
+        return request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+    }
+
+    private String token(User owner) {
+        return jwtUtil.generateToken(owner);
+    }
+}
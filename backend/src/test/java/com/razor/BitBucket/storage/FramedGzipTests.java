@@ -0,0 +1,139 @@
+package com.razor.BitBucket.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FramedGzipTests {
+
+    private static final int FRAME_SIZE = 1024;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, FRAME_SIZE - 1, FRAME_SIZE, 3 * FRAME_SIZE, 3 * FRAME_SIZE + 17})
+    void roundTrips(int length) throws IOException {
+        byte[] content = content(length);
+        Encoded encoded = encode(content);
+
+        assertEquals((length + FRAME_SIZE - 1) / FRAME_SIZE, encoded.frameLengths.length);
+        assertEquals(encoded.bytes.length, Arrays.stream(encoded.frameLengths).sum());
+        try (InputStream in = decoded(encoded, length).getInputStream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    // Empty content has no members at all, which GZIPInputStream rejects, so it starts at one byte
+    @ParameterizedTest
+    @ValueSource(ints = {1, FRAME_SIZE, 3 * FRAME_SIZE, 3 * FRAME_SIZE + 17})
+    void decodesAsPlainMultiMemberGzip(int length) throws IOException {
+        byte[] content = content(length);
+        Encoded encoded = encode(content);
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded.bytes))) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void skipThenReadLandsOnTheRightByte() throws IOException {
+        int length = 3 * FRAME_SIZE + 17;
+        byte[] content = content(length);
+        Encoded encoded = encode(content);
+        FramedGzip.DecodedResource resource = decoded(encoded, length);
+
+        for (long offset : new long[]{0, 1, FRAME_SIZE - 1, FRAME_SIZE, FRAME_SIZE + 1, 2 * FRAME_SIZE, length - 1}) {
+            try (InputStream in = resource.getInputStream()) {
+                assertEquals(offset, in.skip(offset));
+                assertEquals(content[(int) offset] & 0xff, in.read(), "byte at " + offset);
+            }
+        }
+    }
+
+    @Test
+    void readsAcrossFrameBoundariesAfterSkipping() throws IOException {
+        int length = 3 * FRAME_SIZE + 17;
+        byte[] content = content(length);
+        FramedGzip.DecodedResource resource = decoded(encode(content), length);
+
+        try (InputStream in = resource.getInputStream()) {
+            in.skip(FRAME_SIZE - 10);
+            byte[] read = in.readNBytes(FRAME_SIZE + 20);
+            assertArrayEquals(Arrays.copyOfRange(content, FRAME_SIZE - 10, 2 * FRAME_SIZE + 10), read);
+            // Past the rest of the loaded frame and the whole of the next one
+            in.skip(FRAME_SIZE);
+            assertEquals(content[3 * FRAME_SIZE + 10] & 0xff, in.read());
+        }
+    }
+
+    @Test
+    void skipStopsAtTheEnd() throws IOException {
+        int length = FRAME_SIZE + 5;
+        try (InputStream in = decoded(encode(content(length)), length).getInputStream()) {
+            assertEquals(length, in.skip(length + 100));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void flippedByteIsDetected() throws IOException {
+        int length = 3 * FRAME_SIZE;
+        Encoded encoded = encode(content(length));
+        // Somewhere in the middle of the second frame's deflate data
+        int offset = encoded.frameLengths[0] + encoded.frameLengths[1] / 2;
+        encoded.bytes[offset] ^= 0x40;
+
+        try (InputStream in = decoded(encoded, length).getInputStream()) {
+            assertThrows(ZipException.class, in::readAllBytes);
+        }
+    }
+
+    @Test
+    void flippedChecksumIsDetected() throws IOException {
+        int length = 2 * FRAME_SIZE;
+        Encoded encoded = encode(content(length));
+        // First byte of the first frame's CRC-32 trailer
+        encoded.bytes[encoded.frameLengths[0] - 8] ^= 0x01;
+
+        try (InputStream in = decoded(encoded, length).getInputStream()) {
+            assertThrows(ZipException.class, in::read);
+        }
+    }
+
+    // Text-like, so it compresses, but not so regular that every frame encodes the same
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        Random random = new Random(length);
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return content;
+    }
+
+    private static Encoded encode(byte[] content) throws IOException {
+        try (FramedGzip.Encoder encoder = new FramedGzip.Encoder(new ByteArrayInputStream(content), FRAME_SIZE, 6)) {
+            byte[] bytes = encoder.readAllBytes();
+            assertEquals(bytes.length, encoder.getEncodedSize());
+            return new Encoded(bytes, encoder.getFrameLengths());
+        }
+    }
+
+    private static FramedGzip.DecodedResource decoded(Encoded encoded, long size) {
+        return new FramedGzip.DecodedResource(new ByteArrayResource(encoded.bytes), size, FRAME_SIZE,
+                FramedGzip.unpack(FramedGzip.pack(encoded.frameLengths)));
+    }
+
+    private record Encoded(byte[] bytes, int[] frameLengths) {
+    }
+}
@@ -0,0 +1,195 @@
+package com.razor.BitBucket.storage;
+
+import com.razor.BitBucket.storage.LocalShardedStorageBackend.Fsync;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalShardedStorageBackendTests {
+
+    private static final byte[] CONTENT = "stored content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path root;
+
+    @Test
+    void keysNameTheMountAndTwoShardLevels() throws IOException {
+        LocalShardedStorageBackend backend = backend(root);
+
+        String key = backend.write(new ByteArrayInputStream(CONTENT));
+
+        assertTrue(key.matches("0/[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{32}"), key);
+        String[] parts = key.split("/");
+        assertEquals(parts[3].substring(0, 2), parts[1]);
+        assertEquals(parts[3].substring(2, 4), parts[2]);
+        assertArrayEquals(CONTENT, Files.readAllBytes(root.resolve(key.substring(2))));
+        assertArrayEquals(CONTENT, read(backend, key));
+    }
+
+    @Test
+    void writesSpreadOverTheMounts() throws IOException {
+        Path first = Files.createDirectory(root.resolve("disk0"));
+        Path second = Files.createDirectory(root.resolve("disk1"));
+        LocalShardedStorageBackend backend = backend(first, second);
+
+        Set<String> mountsUsed = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            mountsUsed.add(backend.write(new ByteArrayInputStream(CONTENT)).substring(0, 1));
+        }
+
+        // Both have the same headroom, so each gets about half
+        assertEquals(Set.of("0", "1"), mountsUsed);
+    }
+
+    @Test
+    void noMountAboveTheReserveRefusesTheWrite() throws IOException {
+        LocalShardedStorageBackend backend = new LocalShardedStorageBackend(
+                List.of(root), DataSize.ofTerabytes(1_000_000), Fsync.FULL);
+
+        IOException ex = assertThrows(IOException.class, () -> backend.write(new ByteArrayInputStream(CONTENT)));
+        assertEquals("No storage mount has free space", ex.getMessage());
+        assertEquals(List.of(), filesUnder(root));
+    }
+
+    @Test
+    void failedWriteLeavesNothingBehind() throws IOException {
+        LocalShardedStorageBackend backend = backend(root);
+        InputStream failing = new InputStream() {
+            private int read;
+
+            @Override
+            public int read() throws IOException {
+                if (++read > 1000) {
+                    throw new IOException("Client went away");
+                }
+                return 'x';
+            }
+        };
+
+        assertThrows(IOException.class, () -> backend.write(failing));
+
+        assertEquals(List.of(), filesUnder(root));
+    }
+
+    @Test
+    void importOnTheSameFileSystemMovesTheFileAndRefreshesItsTime() throws IOException {
+        LocalShardedStorageBackend backend = backend(root);
+        Path source = Files.write(root.resolve("assembled.part"), CONTENT);
+        Files.setLastModifiedTime(source, FileTime.from(Instant.now().minus(Duration.ofDays(3))));
+
+        String key = backend.importFile(source);
+
+        assertFalse(Files.exists(source));
+        assertArrayEquals(CONTENT, read(backend, key));
+        // Otherwise the orphan reaper would take it for an old leftover before its row commits
+        Instant written = Files.getLastModifiedTime(root.resolve(key.substring(2))).toInstant();
+        assertTrue(written.isAfter(Instant.now().minus(Duration.ofMinutes(1))));
+    }
+
+    @Test
+    void deleteRemovesTheObjectAndToleratesAMissingOne() throws IOException {
+        LocalShardedStorageBackend backend = backend(root);
+        String key = backend.write(new ByteArrayInputStream(CONTENT));
+
+        backend.delete(key);
+        backend.delete(key);
+
+        assertFalse(backend.getResource(key, CONTENT.length).exists());
+    }
+
+    @Test
+    void keysOutsideTheMountsAreRejected() {
+        LocalShardedStorageBackend backend = backend(root);
+
+        assertThrows(IllegalArgumentException.class, () -> backend.getResource("0/../../etc/passwd", 0));
+        assertThrows(IllegalArgumentException.class, () -> backend.getResource("no-mount-index", 0));
+        assertThrows(IllegalStateException.class, () -> backend.getResource("3/ab/cd/" + "0".repeat(32), 0));
+    }
+
+    @Test
+    void absoluteKeysFromBeforeShardingAreReadAsTheyAre() throws IOException {
+        LocalShardedStorageBackend backend = backend(root);
+        Path legacy = Files.write(root.resolve("legacy-upload.bin"), CONTENT);
+
+        assertArrayEquals(CONTENT, read(backend, legacy.toString()));
+    }
+
+    @Test
+    void listingHandsOverOldObjectsInBatches() throws IOException {
+        LocalShardedStorageBackend backend = backend(root);
+        List<String> old = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String key = backend.write(new ByteArrayInputStream(CONTENT));
+            age(root.resolve(key.substring(2)));
+            old.add(key);
+        }
+        String recent = backend.write(new ByteArrayInputStream(CONTENT));
+        // Not an object name, so never offered for deletion
+        Path stray = root.resolve(old.get(0).substring(2)).resolveSibling("notes.txt");
+        age(Files.write(stray, CONTENT));
+
+        List<List<String>> batches = new ArrayList<>();
+        backend.listObjects(Instant.now().minus(Duration.ofHours(1)), 2, batches::add);
+
+        assertEquals(List.of(2, 2, 1), batches.stream().map(List::size).toList());
+        Set<String> listed = new HashSet<>();
+        batches.forEach(listed::addAll);
+        assertEquals(new HashSet<>(old), listed);
+        assertFalse(listed.contains(recent));
+    }
+
+    @Test
+    void onlyOldStagingFilesCountAsAbandoned() throws IOException {
+        LocalShardedStorageBackend backend = backend(root);
+        Path staging = root.resolve(".staging");
+        Path abandoned = age(Files.write(staging.resolve("write-1.tmp"), CONTENT));
+        Path inProgress = Files.write(staging.resolve("write-2.tmp"), CONTENT);
+
+        assertEquals(1, backend.deleteAbandonedWrites(Instant.now().minus(Duration.ofHours(1))));
+
+        assertFalse(Files.exists(abandoned));
+        assertTrue(Files.exists(inProgress));
+    }
+
+    private static LocalShardedStorageBackend backend(Path... roots) {
+        return new LocalShardedStorageBackend(List.of(roots), DataSize.ofBytes(0), Fsync.FULL);
+    }
+
+    private static byte[] read(LocalShardedStorageBackend backend, String key) throws IOException {
+        try (InputStream in = backend.getResource(key, CONTENT.length).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Path age(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+        return file;
+    }
+
+    private static List<Path> filesUnder(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+}
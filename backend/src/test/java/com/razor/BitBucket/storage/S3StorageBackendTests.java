@@ -0,0 +1,149 @@
+package com.razor.BitBucket.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3StorageBackendTests {
+
+    private static final int PART = 5 * 1024 * 1024;
+
+    private S3Client s3;
+    private S3StorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        s3 = mock(S3Client.class);
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenAnswer(call -> UploadPartResponse.builder()
+                        .eTag("etag-" + call.getArgument(0, UploadPartRequest.class).partNumber()).build());
+        backend = new S3StorageBackend(s3, null, "bucket", "objects/", PART, 2, 2, Duration.ofMinutes(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        backend.close();
+    }
+
+    @Test
+    void bodySmallerThanAPartIsASinglePut() throws IOException {
+        String key = backend.write(new ByteArrayInputStream(new byte[1000]));
+
+        assertTrue(key.matches("objects/[0-9a-f]{32}"), key);
+        verify(s3).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(s3, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void largeBodyIsCompletedWithItsPartsInOrder() throws IOException {
+        backend.write(new ByteArrayInputStream(new byte[2 * PART + 100]));
+
+        verify(s3, times(3)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        CompleteMultipartUploadRequest.Builder request = CompleteMultipartUploadRequest.builder();
+        completedWith().accept(request);
+        assertEquals("upload-1", request.build().uploadId());
+        assertEquals(List.of("etag-1", "etag-2", "etag-3"),
+                request.build().multipartUpload().parts().stream().map(CompletedPart::eTag).toList());
+        verify(s3, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    void failedPartAbortsTheUpload() {
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(SdkClientException.create("Connection reset"));
+
+        IOException ex = assertThrows(IOException.class,
+                () -> backend.write(new ByteArrayInputStream(new byte[3 * PART])));
+
+        assertTrue(ex.getCause() instanceof SdkClientException);
+        assertAborted();
+    }
+
+    @Test
+    void failedRequestBodyAbortsTheUpload() {
+        IOException clientGone = new IOException("Client went away");
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(new byte[PART + 10]),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw clientGone;
+                    }
+                });
+
+        assertSame(clientGone, assertThrows(IOException.class, () -> backend.write(failing)));
+        assertAborted();
+    }
+
+    @Test
+    void failedAbortDoesNotHideWhyTheUploadFailed() {
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(SdkClientException.create("Connection reset"));
+        when(s3.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenThrow(SdkClientException.create("Still unreachable"));
+
+        IOException ex = assertThrows(IOException.class,
+                () -> backend.write(new ByteArrayInputStream(new byte[2 * PART])));
+
+        assertEquals("Connection reset", ex.getCause().getMessage());
+    }
+
+    @Test
+    void partsUnderTheS3MinimumAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new S3StorageBackend(
+                s3, null, "bucket", "", PART - 1, 2, 2, Duration.ofMinutes(5)));
+    }
+
+    private void assertAborted() {
+        ArgumentCaptor<AbortMultipartUploadRequest> abort = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3).abortMultipartUpload(abort.capture());
+        assertEquals("upload-1", abort.getValue().uploadId());
+        verify(s3, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(s3, never()).completeMultipartUpload(anyBuilder());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<CompleteMultipartUploadRequest.Builder> completedWith() {
+        ArgumentCaptor<Consumer<CompleteMultipartUploadRequest.Builder>> complete =
+                ArgumentCaptor.forClass(Consumer.class);
+        verify(s3).completeMultipartUpload(complete.capture());
+        return complete.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<CompleteMultipartUploadRequest.Builder> anyBuilder() {
+        return any(Consumer.class);
+    }
+}
@@ -0,0 +1,87 @@
+package com.razor.BitBucket.util;
+
+import com.razor.BitBucket.model.Role;
+import com.razor.BitBucket.model.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtUtilTests {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    @Test
+    void verifiedTokenIsServedFromTheCache() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        String token = jwtUtil.generateToken(user());
+
+        Claims first = jwtUtil.verify(token).orElseThrow();
+
+        // Parsing again would give a new Claims instance
+        assertSame(first, jwtUtil.verify(token).orElseThrow());
+        assertEquals(42L, jwtUtil.extractUserId(first));
+        assertEquals("USER", jwtUtil.extractRole(token));
+    }
+
+    @Test
+    void cachedTokenStopsVerifyingAtItsExpiry() throws InterruptedException {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 1_000, 100);
+        String token = jwtUtil.generateToken(user());
+        Date expiration = jwtUtil.verify(token).orElseThrow().getExpiration();
+
+        Thread.sleep(Math.max(0, expiration.getTime() - System.currentTimeMillis()) + 100);
+
+        assertTrue(jwtUtil.verify(token).isEmpty());
+    }
+
+    @Test
+    void tamperedTokenIsRejectedEvenWhenTheOriginalIsCached() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        String token = jwtUtil.generateToken(user());
+        jwtUtil.verify(token).orElseThrow();
+
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+        String tampered = token.substring(0, token.lastIndexOf('.') + 1)
+                + (signature.charAt(0) == 'A' ? 'B' : 'A') + signature.substring(1);
+
+        assertTrue(jwtUtil.verify(tampered).isEmpty());
+    }
+
+    @Test
+    void tokenSignedWithAnotherKeyIsRejected() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        String foreign = new JwtUtil(SECRET.toUpperCase(), 60_000, 100).generateToken(user());
+
+        assertTrue(jwtUtil.verify(foreign).isEmpty());
+    }
+
+    @Test
+    void tokenWithoutExpiryIsVerifiedEveryTime() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        String token = Jwts.builder()
+                .subject("old@example.com")
+                .signWith(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                .compact();
+
+        Claims first = jwtUtil.verify(token).orElseThrow();
+
+        assertNotSame(first, jwtUtil.verify(token).orElseThrow());
+        assertNull(jwtUtil.extractUserId(first));
+    }
+
+    private static User user() {
+        User user = new User("user@example.com", "secret", Role.USER);
+        ReflectionTestUtils.setField(user, "id", 42L);
+        return user;
+    }
+}
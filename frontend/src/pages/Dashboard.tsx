@@ -4,6 +4,36 @@ import { useAuth } from '../context/AuthContext';
 import { fileAPI, folderAPI } from '../services/api';
 import type { FileDTO, FolderDTO } from '../types';
 
+const FileThumbnail: React.FC<{ fileId: number }> = ({ fileId }) => {
+    const [src, setSrc] = useState<string>();
+
+    useEffect(() => {
+        let url: string | undefined;
+        let cancelled = false;
+        fileAPI.getThumbnail(fileId, 128)
+            .then((blob) => {
+                if (!cancelled) {
+                    url = window.URL.createObjectURL(blob);
+                    setSrc(url);
+                }
+            })
+            .catch(() => {
+                // No preview for this file; the name alone is shown
+            });
+        return () => {
+            cancelled = true;
+            if (url) {
+                window.URL.revokeObjectURL(url);
+            }
+        };
+    }, [fileId]);
+
+    if (!src) {
+        return null;
+    }
+    return <img src={src} alt="" loading="lazy" className="w-10 h-10 object-cover rounded mr-3 flex-shrink-0" />;
+};
+
 const Dashboard: React.FC = () => {
     const { user, logout } = useAuth();
     const navigate = useNavigate();
@@ -314,7 +344,12 @@ const Dashboard: React.FC = () => {
                                         <tbody>
                                             {files.map((file) => (
                                                 <tr key={file.id} className="border-b border-google-gray-200 hover:bg-google-gray-50">
-                                                    <td className="px-4 py-3 text-sm text-google-gray-900">{file.fileName}</td>
+                                                    <td className="px-4 py-3 text-sm text-google-gray-900">
+                                                        <div className="flex items-center">
+                                                            {file.contentType?.startsWith('image/') && <FileThumbnail fileId={file.id} />}
+                                                            <span>{file.fileName}</span>
+                                                        </div>
+                                                    </td>
                                                     <td className="px-4 py-3 text-sm text-google-gray-700">
                                                         {formatFileSize(file.fileSize)}
                                                     </td>
@@ -102,6 +102,14 @@ export const fileAPI = {
         return response.data;
     },
 
+    getThumbnail: async (fileId: number, size = 128): Promise<Blob> => {
+        const response = await api.get(`/api/files/${fileId}/thumbnail`, {
+            params: { size },
+            responseType: 'blob',
+        });
+        return response.data;
+    },
+
     deleteFile: async (fileId: number): Promise<void> => {
         await api.delete(`/api/files/${fileId}`);
     },